@@ -0,0 +1,198 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import at.univie.sensorium.preferences.Preferences;
+import at.univie.sensorium.sensors.AbstractSensor;
+
+/**
+ * Runs the periodic tasks of all sensors from a single timer on the main
+ * thread. Each sensor declares a period and a tolerance, i.e. how much later
+ * than due a tick may run. The scheduler wakes up when the most urgent
+ * tolerance runs out and then runs every task that is due by then, so
+ * sensors with similar periods share their wakeups instead of each keeping
+ * its own Handler loop.
+ *
+ * Periods can be changed at runtime with setPeriod() or through the
+ * preference "classname-period" (ms), the tasks keep running.
+ */
+public class SamplingScheduler {
+
+	public static final String PERIOD_PREF_SUFFIX = "-period";
+
+	private final Map<AbstractSensor, Entry> entries = new IdentityHashMap<AbstractSensor, Entry>();
+	private Handler handler;
+	private long wakeup = 0; // uptime of the posted tick, 0 if none
+	private long wakeups = 0;
+
+	private static class Entry {
+		final AbstractSensor sensor;
+		final Runnable task;
+		long period;
+		long tolerance;
+		long due;
+		long lastRun = 0;
+		double actualPeriod = 0; // moving average of the intervals between runs
+		long runs = 0;
+
+		Entry(AbstractSensor sensor, Runnable task, long period, long tolerance) {
+			this.sensor = sensor;
+			this.task = task;
+			this.period = period;
+			this.tolerance = tolerance;
+		}
+	}
+
+	private final Runnable tick = new Runnable() {
+		@Override
+		public void run() {
+			List<Entry> due = new ArrayList<Entry>();
+			long now = SystemClock.uptimeMillis();
+			synchronized (SamplingScheduler.this) {
+				wakeup = 0;
+				wakeups++;
+				// everything whose window has opened by now runs along
+				for (Entry entry : entries.values()) {
+					if (entry.due <= now)
+						due.add(entry);
+				}
+				for (Entry entry : due) {
+					if (entry.lastRun > 0) {
+						long interval = now - entry.lastRun;
+						entry.actualPeriod = entry.runs < 2 ? interval : 0.8 * entry.actualPeriod + 0.2 * interval;
+					}
+					entry.lastRun = now;
+					entry.runs++;
+					// keep the phase, unless we fell behind by a whole period
+					entry.due += entry.period;
+					if (entry.due <= now)
+						entry.due = now + entry.period;
+				}
+			}
+			for (Entry entry : due)
+				entry.task.run();
+			synchronized (SamplingScheduler.this) {
+				reschedule();
+			}
+		}
+	};
+
+	/**
+	 * Runs task every period ms on the main thread, starting right away: the
+	 * first tick has no tolerance, the following ones may be delayed to be
+	 * batched. A sensor has at most one task, scheduling again replaces it.
+	 * 
+	 * @param tolerance
+	 *            how many ms later than due the task may run, so it can be
+	 *            batched with other tasks
+	 */
+	public synchronized void schedule(AbstractSensor sensor, Runnable task, long period, long tolerance) {
+		Preferences prefs = SensorRegistry.getInstance().getPreferences();
+		if (prefs != null) {
+			int configured = prefs.getInt(sensor.getClass().getName() + PERIOD_PREF_SUFFIX, 0);
+			if (configured > 0)
+				period = configured;
+		}
+		Entry entry = new Entry(sensor, task, period, Math.min(tolerance, period));
+		entry.due = SystemClock.uptimeMillis();
+		entries.put(sensor, entry);
+		reschedule();
+	}
+
+	public synchronized void unschedule(AbstractSensor sensor) {
+		if (entries.remove(sensor) != null)
+			reschedule();
+	}
+
+	/**
+	 * Changes the period of a scheduled sensor, the next tick is due one new
+	 * period after the last one.
+	 */
+	public synchronized void setPeriod(AbstractSensor sensor, long period) {
+		Entry entry = entries.get(sensor);
+		if (entry == null || period <= 0 || period == entry.period)
+			return;
+		entry.tolerance = Math.min(entry.tolerance * period / entry.period, period);
+		entry.period = period;
+		entry.due = (entry.lastRun > 0 ? entry.lastRun : SystemClock.uptimeMillis()) + period;
+		entry.runs = 0; // restart the average
+		reschedule();
+	}
+
+	/**
+	 * @return the period the sensor asked for in ms, 0 if not scheduled
+	 */
+	public synchronized long getRequestedPeriod(AbstractSensor sensor) {
+		Entry entry = entries.get(sensor);
+		return entry == null ? 0 : entry.period;
+	}
+
+	/**
+	 * @return the average time between the sensor's last ticks in ms, 0 if
+	 *         it didn't run twice yet
+	 */
+	public synchronized long getActualPeriod(AbstractSensor sensor) {
+		Entry entry = entries.get(sensor);
+		return entry == null ? 0 : Math.round(entry.actualPeriod);
+	}
+
+	/**
+	 * @return how often the scheduler woke up so far
+	 */
+	public synchronized long getWakeups() {
+		return wakeups;
+	}
+
+	private void reschedule() {
+		long next = Long.MAX_VALUE;
+		for (Entry entry : entries.values()) {
+			// a task that never ran doesn't wait for others to batch with
+			next = Math.min(next, entry.lastRun > 0 ? entry.due + entry.tolerance : entry.due);
+		}
+		if (handler == null)
+			handler = new Handler(Looper.getMainLooper());
+		if (next == Long.MAX_VALUE) {
+			handler.removeCallbacks(tick);
+			wakeup = 0;
+		} else if (wakeup != next) {
+			handler.removeCallbacks(tick);
+			handler.postAtTime(tick, next);
+			wakeup = next;
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder("SamplingScheduler: " + wakeups + " wakeups");
+		for (Entry entry : entries.values()) {
+			sb.append("; ").append(entry.sensor.getName()).append(": ").append(entry.period).append(" ms requested, ").append(Math.round(entry.actualPeriod)).append(" ms actual");
+		}
+		return sb.toString();
+	}
+}
@@ -22,9 +22,11 @@ package at.univie.sensorium;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import android.content.Context;
 import android.content.SharedPreferences;
@@ -32,20 +34,31 @@ import android.preference.PreferenceManager;
 import android.text.Html;
 import android.util.Log;
 import android.widget.TextView;
+import at.univie.sensorium.events.SensorEventBus;
 import at.univie.sensorium.extinterfaces.XMLRPCSensorServerThread;
 import at.univie.sensorium.logging.JSONLogger;
 import at.univie.sensorium.preferences.Preferences;
+import at.univie.sensorium.privacy.LocationPrivacy;
 import at.univie.sensorium.privacy.Privacy;
+import at.univie.sensorium.privacy.PrivacyPlan;
 import at.univie.sensorium.sensors.AbstractSensor;
+import at.univie.sensorium.sensors.SensorSnapshot;
 import at.univie.sensorium.sensors.SensorValue;
+import at.univie.sensorium.sensors.SensorValueTable;
 
 public class SensorRegistry {
 	
 	public static final String TAG = "Sensorium";
+	/** Appended to a sensor name to read all its fields at once as a struct. */
+	public static final String ALL_FIELDS = ".*";
 
 	private static SensorRegistry instance = null;
 	
 	private List<AbstractSensor> sensors;
+	// sensors by qualified and by simple class name
+	private Map<String, AbstractSensor> sensorIndex;
+	// "Sensor.field" (simple and qualified) to the value slot of that sensor
+	private Map<String, SensorMethod> methodIndex;
 
 	private StringBuffer debugBuffer;
 	private int bufferedLines = 0;
@@ -56,10 +69,40 @@ public class SensorRegistry {
 	private Preferences preferences;
 
 	private JSONLogger jsonlogger;
+	private SensorEventBus eventbus;
+	private SamplingScheduler scheduler;
+
+	// keeps the cached privacy levels and sampling periods of the sensors in
+	// sync with the preferences, must be referenced here as SharedPreferences
+	// only holds it weakly
+	private SharedPreferences.OnSharedPreferenceChangeListener privacylistener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+		@Override
+		public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+			if (Preferences.PRIVACY_HASH.equals(key))
+				Privacy.resetSalt();
+			if (key != null && key.startsWith(Preferences.PRIVACY_GEOHASH_PREF))
+				LocationPrivacy.loadSettings(preferences);
+			if (key != null && key.endsWith(SamplingScheduler.PERIOD_PREF_SUFFIX)) {
+				AbstractSensor sensor = sensorIndex.get(key.substring(0, key.length() - SamplingScheduler.PERIOD_PREF_SUFFIX.length()));
+				if (sensor != null)
+					scheduler.setPeriod(sensor, prefs.getInt(key, 0));
+				return;
+			}
+			if (key == null || !key.endsWith(AbstractSensor.PRIVACYLEVEL_PREF_SUFFIX))
+				return;
+			AbstractSensor sensor = sensorIndex.get(key.substring(0, key.length() - AbstractSensor.PRIVACYLEVEL_PREF_SUFFIX.length()));
+			if (sensor != null)
+				sensor.updatePrivacylevel(Privacy.PrivacyLevel.fromInt(prefs.getInt(key, Privacy.PrivacyLevel.FULL.value())));
+		}
+	};
 
 	protected SensorRegistry() {
 		sensors = new LinkedList<AbstractSensor>();
+		sensorIndex = new HashMap<String, AbstractSensor>();
+		methodIndex = new HashMap<String, SensorMethod>();
 		debugBuffer = new StringBuffer();
+		eventbus = new SensorEventBus();
+		scheduler = new SamplingScheduler();
 
 	}
 
@@ -73,7 +116,10 @@ public class SensorRegistry {
 	public void startup(Context context) {
 		this.context = context;
 		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+		preferences.registerOnSharedPreferenceChangeListener(privacylistener);
+		LocationPrivacy.loadSettings(preferences);
 		for (AbstractSensor sensor : sensors) {
+			sensor.updatePrivacylevel(Privacy.PrivacyLevel.fromInt(prefs.getInt(sensor.getClass().getName() + AbstractSensor.PRIVACYLEVEL_PREF_SUFFIX, Privacy.PrivacyLevel.FULL.value())));
 			try {
 				boolean savedstate = prefs.getBoolean(sensor.getClass().getName(), true);
 				Log.d(SensorRegistry.TAG, sensor.getClass().getName() + ": " + savedstate);
@@ -93,24 +139,26 @@ public class SensorRegistry {
 	}
 
 	public void registerSensor(AbstractSensor sensor) {
-		for (AbstractSensor s : sensors) {
-			if (s.getClass().equals(sensor.getClass())) {
-				Log.d(SensorRegistry.TAG, "Sensor of this class already present, not registering.");
-				return;
-			}
+		String qualifiedname = sensor.getClass().getName();
+		if (sensorIndex.get(qualifiedname) != null) {
+			Log.d(SensorRegistry.TAG, "Sensor of this class already present, not registering.");
+			return;
 		}
+		sensor.bindSensorValues();
 		sensors.add(sensor);
-	}
 
-	private AbstractSensor getSensorWithName(String classname) {
-		for (AbstractSensor sensor : sensors) {
-			String sensorname = sensor.getClass().getName();
-			sensorname = sensorname.substring(sensorname.lastIndexOf('.') + 1);
-			if (sensorname.equals(classname) && sensor.isEnabled()) {
-				return sensor;
-			}
+		String simplename = qualifiedname.substring(qualifiedname.lastIndexOf('.') + 1);
+		sensorIndex.put(qualifiedname, sensor);
+		if (!sensorIndex.containsKey(simplename)) // first one registered wins, as with the old linear lookup
+			sensorIndex.put(simplename, sensor);
+
+		SensorValueTable table = sensor.getSensorValueTable();
+		for (int slot = 0; slot < table.size(); slot++) {
+			SensorMethod method = new SensorMethod(sensor, slot);
+			methodIndex.put(qualifiedname + "." + table.getName(slot), method);
+			if (sensorIndex.get(simplename) == sensor)
+				methodIndex.put(simplename + "." + table.getName(slot), method);
 		}
-		return null;
 	}
 
 	public void log(String tag, String out) {
@@ -126,133 +174,142 @@ public class SensorRegistry {
 			textoutput.setText(Html.fromHtml(debugBuffer.toString()), TextView.BufferType.SPANNABLE);
 	}
 
+	/**
+	 * @param classname
+	 *            either the fully qualified or the simple class name
+	 */
 	public AbstractSensor getSensorForClassname(String classname) {
-		for (AbstractSensor sensor : sensors) {
-			String name = sensor.getClass().getName();
-			if (classname.lastIndexOf('.') > 0) { // we have a qualified name
-				if (name.equals(classname))
-					return sensor;
-			} else {
-				name = name.substring(name.lastIndexOf('.') + 1);
-				if (name.equals(classname)) {
-					return sensor;
-				}
-			}
+		return sensorIndex.get(classname);
+	}
 
-		}
+	/**
+	 * @return the enabled sensor method for "Sensor.field", or null
+	 */
+	private SensorMethod getSensorMethod(String methodname) {
+		SensorMethod method = methodIndex.get(methodname);
+		if (method != null && method.sensor.isEnabled() && method.getValue() != null)
+			return method;
 		return null;
 	}
 
-	private SensorValue invokeMethod(String classname, String methodname) {
-		AbstractSensor sensor = getSensorForClassname(classname);
-		if (sensor != null) {
-			if (sensor.isEnabled()) {
-				Field[] fields = sensor.getClass().getDeclaredFields();
-				try {
-					for (Field f : fields) {
-						f.setAccessible(true);
-						Object o = f.get(sensor);
-						if (f.getName().equals(methodname) && o instanceof SensorValue) {
-							return (SensorValue) o;
-						}
-					}
-				} catch (IllegalArgumentException e) {
-					StringWriter sw = new StringWriter();
-					PrintWriter pw = new PrintWriter(sw);
-					e.printStackTrace(pw);
-					Log.d(SensorRegistry.TAG, sw.toString());
-				} catch (IllegalAccessException e) {
-					StringWriter sw = new StringWriter();
-					PrintWriter pw = new PrintWriter(sw);
-					e.printStackTrace(pw);
-					Log.d(SensorRegistry.TAG, sw.toString());
-				}
-			}
+	public Object callSensorMethod(String methodname) {
+		SensorMethod method = getSensorMethod(methodname);
+		if (method == null) {
+			if (methodname.lastIndexOf('.') == -1)
+				Log.d("SeattleSensor", "Invalid XMLRPC method call");
+			return null;
 		}
-		return null;
+		return readSensor(method.sensor, new HashMap<AbstractSensor, SensorValue[]>())[method.field].getValue();
 	}
 
-	public Object callSensorMethod(String methodname) {
-		if (methodname.lastIndexOf('.') == -1) {
-			Log.d("SeattleSensor", "Invalid XMLRPC method call");
+	/**
+	 * Like callSensorMethod(String), but reads each sensor only once per
+	 * batch: the first field requested from a sensor anonymizes a snapshot of
+	 * all its values, later fields of that sensor are taken from it.
+	 * 
+	 * @param reads
+	 *            the sensors read so far in this batch, filled by this method
+	 */
+	public Object callSensorMethod(String methodname, Map<AbstractSensor, SensorValue[]> reads) {
+		SensorMethod method = getSensorMethod(methodname);
+		if (method == null)
+			return null;
+		return readSensor(method.sensor, reads)[method.field].getValue();
+	}
+
+	/**
+	 * Reads all fields of a sensor at once for "Sensor.*".
+	 * 
+	 * @param sensorname
+	 *            either the fully qualified or the simple class name
+	 * @param reads
+	 *            the sensors read so far in this batch, filled by this method
+	 * @return field name to anonymized value, including the timestamp, or
+	 *         null if there is no such enabled sensor
+	 */
+	public Map<String, Object> callSensor(String sensorname, Map<AbstractSensor, SensorValue[]> reads) {
+		AbstractSensor sensor = sensorIndex.get(sensorname);
+		if (sensor == null || !sensor.isEnabled())
 			return null;
+		SensorValue[] record = readSensor(sensor, reads);
+		List<SensorValue> values = sensor.getSensorValues();
+		SensorValueTable table = sensor.getSensorValueTable();
+
+		Map<String, Object> struct = new LinkedHashMap<String, Object>();
+		struct.put("timestamp", record[0].getValue());
+		for (int slot = 0; slot < table.size(); slot++) {
+			int field = SensorMethod.indexOf(values, sensor.getSensorValue(slot));
+			if (field > 0 && record[field].getValue() != null)
+				struct.put(table.getName(slot), record[field].getValue());
 		}
-		String classname = methodname.substring(0, methodname.lastIndexOf('.'));
-		methodname = methodname.substring(methodname.lastIndexOf('.') + 1);
-		SensorValue val = invokeMethod(classname, methodname);
-		if (val != null) {
-			AbstractSensor sensor = getSensorWithName(classname);
-			return Privacy.anonymize(val, sensor.getPrivacylevel()).getValue();
+		return struct;
+	}
+
+	/**
+	 * Anonymizes the values the sensor published last. XMLRPC calls run on
+	 * worker threads, the live values are only consistent on the thread that
+	 * updates them.
+	 */
+	private static SensorValue[] readSensor(AbstractSensor sensor, Map<AbstractSensor, SensorValue[]> reads) {
+		SensorValue[] record = reads.get(sensor);
+		if (record == null) {
+			// the current plan, in case the privacy level was raised since
+			PrivacyPlan plan = sensor.getPrivacyPlan();
+			record = plan.newRecord();
+			SensorSnapshot snapshot = sensor.getLastSnapshot();
+			if (snapshot != null)
+				plan.apply(snapshot.getSensorValues(), record);
+			reads.put(sensor, record);
 		}
-		return null;
+		return record;
 	}
 
 	public Object[] getSensorMethodSignature(String methodname) {
 		List<String> signature = new LinkedList<String>();
 
-		if (methodname.lastIndexOf('.') > 0) {
-			String classname = methodname.substring(0, methodname.lastIndexOf('.'));
-			AbstractSensor sensor = getSensorForClassname(classname);
-			
-			if (sensor != null && sensor.isEnabled()) {
-				Field[] fields = sensor.getClass().getDeclaredFields();
-				try {
-					for (Field f : fields) {
-						f.setAccessible(true);
-						Object o = f.get(sensor);
-						if (o instanceof SensorValue) {
-							String fieldname = f.getName();
-							if (fieldname.equals(methodname.substring(methodname.lastIndexOf('.') + 1))) {
-								signature.add(methodname);
-
-								SensorValue sv = (SensorValue) o;
-								String rettype = sv.getValue().getClass().toString();
-
-								// TODO: this will frequently be only String and
-								// changing,
-								// due to be set to "n/a" when no value is
-								// present
-								if (rettype.equals("class [Ljava.lang.Object;")) {
-									signature.add("array");
-								} else if (rettype.equals("class java.lang.String")) {
-									signature.add("string");
-								} else if (rettype.equals("class java.lang.Integer")) {
-									signature.add("int");
-								} else if (rettype.equals("class java.lang.Boolean")) {
-									signature.add("boolean");
-								} else if (rettype.equals("class java.lang.Double")) {
-									signature.add("double");
-								} else if (rettype.equals("class java.lang.Float")) {
-									signature.add("ex:float");
-								} else if (rettype.equals("class java.lang.Long")) {
-									signature.add("ex:i8");
-								} else if (rettype.equals("class java.lang.Byte")) {
-									signature.add("ex:i1");
-								} else if (rettype.equals("class java.lang.Short")) {
-									signature.add("ex:i2");
-								} else {
-									signature.add(rettype);
-								}
-								// add method parameters: always nil
-								signature.add("ex:nil");
-							}
-						}
-					}
-				} catch (IllegalArgumentException e) {
-					StringWriter sw = new StringWriter();
-					PrintWriter pw = new PrintWriter(sw);
-					e.printStackTrace(pw);
-					Log.d(SensorRegistry.TAG, sw.toString());
-				} catch (IllegalAccessException e) {
-					StringWriter sw = new StringWriter();
-					PrintWriter pw = new PrintWriter(sw);
-					e.printStackTrace(pw);
-					Log.d(SensorRegistry.TAG, sw.toString());
-				}
+		if (methodname.endsWith(ALL_FIELDS)) {
+			AbstractSensor sensor = sensorIndex.get(methodname.substring(0, methodname.length() - ALL_FIELDS.length()));
+			if (sensor == null || !sensor.isEnabled())
+				return null;
+			return new Object[] { methodname, "struct", "ex:nil" };
+		}
+
+		SensorMethod method = getSensorMethod(methodname);
+		if (method != null) {
+			SensorValue sv = method.getValue();
+			signature.add(methodname);
+
+			String rettype = sv.getValue().getClass().toString();
+
+			// TODO: this will frequently be only String and
+			// changing,
+			// due to be set to "n/a" when no value is
+			// present
+			if (rettype.equals("class [Ljava.lang.Object;")) {
+				signature.add("array");
+			} else if (rettype.equals("class java.lang.String")) {
+				signature.add("string");
+			} else if (rettype.equals("class java.lang.Integer")) {
+				signature.add("int");
+			} else if (rettype.equals("class java.lang.Boolean")) {
+				signature.add("boolean");
+			} else if (rettype.equals("class java.lang.Double")) {
+				signature.add("double");
+			} else if (rettype.equals("class java.lang.Float")) {
+				signature.add("ex:float");
+			} else if (rettype.equals("class java.lang.Long")) {
+				signature.add("ex:i8");
+			} else if (rettype.equals("class java.lang.Byte")) {
+				signature.add("ex:i1");
+			} else if (rettype.equals("class java.lang.Short")) {
+				signature.add("ex:i2");
+			} else {
+				signature.add(rettype);
 			}
+			// add method parameters: always nil
+			signature.add("ex:nil");
 
-			if (!signature.isEmpty())
-				return signature.toArray();
+			return signature.toArray();
 		}
 		return null;
 	}
@@ -264,28 +321,12 @@ public class SensorRegistry {
 			if (sensor.isEnabled()) {
 				String name = sensor.getClass().getName();
 				name = name.substring(name.lastIndexOf('.') + 1);
-				Field[] fields = sensor.getClass().getDeclaredFields();
-
-				try {
-					for (Field f : fields) {
-						f.setAccessible(true);
-						Object o = f.get(sensor);
-						if (o instanceof SensorValue) {
-							out.add(name + "." + f.getName());
-						}
-
-					}
-				} catch (IllegalArgumentException e) {
-					StringWriter sw = new StringWriter();
-					PrintWriter pw = new PrintWriter(sw);
-					e.printStackTrace(pw);
-					Log.d(SensorRegistry.TAG, sw.toString());
-				} catch (IllegalAccessException e) {
-					StringWriter sw = new StringWriter();
-					PrintWriter pw = new PrintWriter(sw);
-					e.printStackTrace(pw);
-					Log.d(SensorRegistry.TAG, sw.toString());
+				SensorValueTable table = sensor.getSensorValueTable();
+				for (int slot = 0; slot < table.size(); slot++) {
+					if (sensor.getSensorValue(slot) != null)
+						out.add(name + "." + table.getName(slot));
 				}
+				out.add(name + ALL_FIELDS);
 			}
 		}
 		return out;
@@ -338,6 +379,39 @@ public class SensorRegistry {
 		}
 	}
 	
+	/**
+	 * A single XMLRPC-visible value: one slot of one sensor's accessor table.
+	 */
+	private static class SensorMethod {
+		final AbstractSensor sensor;
+		final int slot;
+		final int field; // position in getSensorValues(), for the privacy plan
+
+		SensorMethod(AbstractSensor sensor, int slot) {
+			this.sensor = sensor;
+			this.slot = slot;
+			this.field = indexOf(sensor.getSensorValues(), sensor.getSensorValue(slot));
+		}
+
+		private static int indexOf(List<SensorValue> values, SensorValue value) {
+			for (int i = 0; i < values.size(); i++) {
+				if (values.get(i) == value)
+					return i;
+			}
+			return -1;
+		}
+
+		SensorValue getValue() {
+			return sensor.getSensorValue(slot);
+		}
+	}
+
+	public SensorEventBus getEventBus() {
+		return eventbus;
+	}
+	public SamplingScheduler getSamplingScheduler() {
+		return scheduler;
+	}
 	public JSONLogger getJSONLogger(){
 		return jsonlogger;
 	}
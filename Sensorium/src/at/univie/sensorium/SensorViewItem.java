@@ -25,12 +25,18 @@ import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.widget.TextView;
+import at.univie.sensorium.events.SensorEventBus;
+import at.univie.sensorium.events.SensorEventBus.OverflowPolicy;
+import at.univie.sensorium.events.SensorSubscription;
 import at.univie.sensorium.sensors.AbstractSensor;
-import at.univie.sensorium.sensors.SensorChangeListener;
+import at.univie.sensorium.sensors.SensorSnapshot;
+import at.univie.sensorium.sensors.SensorSnapshotListener;
 import at.univie.sensorium.sensors.SensorValue;
 
-public class SensorViewItem implements SensorChangeListener {
+public class SensorViewItem implements SensorSnapshotListener {
 
 	private TextView textViewSensorValues;
 	private TextView textViewSensorUnits;
@@ -39,6 +45,9 @@ public class SensorViewItem implements SensorChangeListener {
 	private TextView textViewSensorPrivacyLevel;
 	private TextView textViewSensorTimestamp;
 
+	private SensorSubscription subscription;
+	private Handler handler = new Handler(Looper.getMainLooper());
+
 	public SensorViewItem(TextView sName, TextView sPrivacyLevel, TextView sTimestamp, TextView sValues, TextView sUnits, TextView sTypes) {
 
 		this.textViewSensorValues = sValues;
@@ -50,12 +59,17 @@ public class SensorViewItem implements SensorChangeListener {
 	}
 
 	public void attachto(AbstractSensor sensor, List<AbstractSensor> sensors) {
-		for (AbstractSensor s : sensors)
-			s.removeListener(this);
-		sensor.addListener(this);
+		SensorEventBus bus = SensorRegistry.getInstance().getEventBus();
+		bus.unsubscribe(subscription);
+		// the view only ever shows the latest state, no need to queue more
+		subscription = bus.subscribe(this, sensor, OverflowPolicy.COALESCE_PER_SENSOR, 1, handler);
 	}
 
 	public void updateDisplay(AbstractSensor sensor) {
+		updateDisplay(sensor.createSnapshot());
+	}
+
+	public void updateDisplay(SensorSnapshot sensor) {
 		StringBuilder sValues = new StringBuilder();
 		StringBuilder sUnits = new StringBuilder();
 		StringBuilder sTypes = new StringBuilder();
@@ -87,8 +101,8 @@ public class SensorViewItem implements SensorChangeListener {
 	}
 
 	@Override
-	public void sensorUpdated(AbstractSensor sensor) {
-		updateDisplay(sensor);
+	public void sensorUpdated(SensorSnapshot snapshot) {
+		updateDisplay(snapshot);
 	}
 
 }
@@ -0,0 +1,103 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.events;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.os.Handler;
+import at.univie.sensorium.sensors.AbstractSensor;
+import at.univie.sensorium.sensors.SensorSnapshot;
+import at.univie.sensorium.sensors.SensorSnapshotListener;
+
+/**
+ * Decouples sensor callbacks from the work done by the listeners (logging,
+ * UI). Every notification is turned into one SensorSnapshot, which is queued
+ * to each interested subscription and delivered on that subscription's own
+ * thread.
+ */
+public class SensorEventBus {
+
+	public static enum OverflowPolicy {
+		/** discard the oldest queued snapshot to make room */
+		DROP_OLDEST,
+		/** replace a queued snapshot of the same sensor, else drop the oldest */
+		COALESCE_PER_SENSOR,
+		/** block the notifying sensor until there is room */
+		BLOCK;
+	}
+
+	private final List<SensorSubscription> subscriptions = new CopyOnWriteArrayList<SensorSubscription>();
+
+	/**
+	 * Subscribe with a dedicated worker thread.
+	 *
+	 * @param sensor
+	 *            only deliver updates of this sensor, or null for all sensors
+	 */
+	public SensorSubscription subscribe(SensorSnapshotListener listener, AbstractSensor sensor, OverflowPolicy policy, int capacity) {
+		SensorSubscription subscription = new SensorSubscription(listener, sensor, policy, capacity, null);
+		subscriptions.add(subscription);
+		return subscription;
+	}
+
+	/**
+	 * Subscribe with delivery on the looper of the given handler, e.g. the
+	 * main looper for views. BLOCK is not allowed here, as sensors notifying
+	 * from that same looper would wait for themselves.
+	 *
+	 * @param sensor
+	 *            only deliver updates of this sensor, or null for all sensors
+	 */
+	public SensorSubscription subscribe(SensorSnapshotListener listener, AbstractSensor sensor, OverflowPolicy policy, int capacity, Handler handler) {
+		if (policy == OverflowPolicy.BLOCK)
+			throw new IllegalArgumentException("BLOCK is not supported for handler subscriptions");
+		SensorSubscription subscription = new SensorSubscription(listener, sensor, policy, capacity, handler);
+		subscriptions.add(subscription);
+		return subscription;
+	}
+
+	/**
+	 * Stops delivery to the subscription. Snapshots already queued are still
+	 * delivered; for worker subscriptions this waits until they are.
+	 */
+	public void unsubscribe(SensorSubscription subscription) {
+		if (subscription != null) {
+			subscriptions.remove(subscription);
+			subscription.close();
+		}
+	}
+
+	/**
+	 * Queues the snapshot a sensor took of its update to every interested
+	 * subscription.
+	 */
+	public void publish(SensorSnapshot snapshot) {
+		for (SensorSubscription subscription : subscriptions) {
+			if (subscription.accepts(snapshot.getSensor()))
+				subscription.offer(snapshot);
+		}
+	}
+
+	public List<SensorSubscription> getSubscriptions() {
+		return subscriptions;
+	}
+}
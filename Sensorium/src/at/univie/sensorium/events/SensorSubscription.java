@@ -0,0 +1,269 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.events;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+import android.os.Handler;
+import android.util.Log;
+import at.univie.sensorium.SensorRegistry;
+import at.univie.sensorium.events.SensorEventBus.OverflowPolicy;
+import at.univie.sensorium.sensors.AbstractSensor;
+import at.univie.sensorium.sensors.SensorSnapshot;
+import at.univie.sensorium.sensors.SensorSnapshotListener;
+
+/**
+ * One listener on the SensorEventBus with its own bounded queue. Delivery
+ * happens either on a dedicated worker thread or on the looper of a handler.
+ */
+public class SensorSubscription {
+
+	private static final long CLOSE_TIMEOUT = 5000; // ms
+
+	private final SensorSnapshotListener listener;
+	private final AbstractSensor sensor;
+	private final OverflowPolicy policy;
+	private final int capacity;
+	private final Handler handler;
+	private final Thread worker;
+
+	private final LinkedList<SensorSnapshot> queue = new LinkedList<SensorSnapshot>();
+	private boolean closed = false;
+	private boolean drainPosted = false;
+
+	// metrics, guarded by queue
+	private long offered = 0;
+	private long delivered = 0;
+	private long dropped = 0;
+	private long coalesced = 0;
+	private int maxDepth = 0;
+
+	SensorSubscription(SensorSnapshotListener listener, AbstractSensor sensor, OverflowPolicy policy, int capacity, Handler handler) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be at least 1");
+		this.listener = listener;
+		this.sensor = sensor;
+		this.policy = policy;
+		this.capacity = capacity;
+		this.handler = handler;
+		if (handler == null) {
+			worker = new Thread(workerTask, "SensorEventBus-" + listener.getClass().getSimpleName());
+			worker.setDaemon(true);
+			worker.start();
+		} else {
+			worker = null;
+		}
+	}
+
+	boolean accepts(AbstractSensor s) {
+		return sensor == null || sensor == s;
+	}
+
+	void offer(SensorSnapshot snapshot) {
+		synchronized (queue) {
+			if (closed)
+				return;
+			offered++;
+			if (!enqueue(snapshot))
+				return;
+			if (queue.size() > maxDepth)
+				maxDepth = queue.size();
+
+			if (handler == null) {
+				queue.notifyAll();
+			} else if (!drainPosted) {
+				drainPosted = true;
+				handler.post(drainTask);
+			}
+		}
+	}
+
+	/**
+	 * Applies the overflow policy, must hold the queue lock.
+	 *
+	 * @return false if the snapshot was not queued
+	 */
+	private boolean enqueue(SensorSnapshot snapshot) {
+		if (policy == OverflowPolicy.COALESCE_PER_SENSOR) {
+			ListIterator<SensorSnapshot> it = queue.listIterator();
+			while (it.hasNext()) {
+				if (it.next().getSensor() == snapshot.getSensor()) {
+					it.set(snapshot);
+					coalesced++;
+					return true;
+				}
+			}
+		}
+		if (policy == OverflowPolicy.BLOCK) {
+			while (queue.size() >= capacity && !closed) {
+				try {
+					queue.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					dropped++;
+					return false;
+				}
+			}
+			if (closed)
+				return false;
+		} else if (queue.size() >= capacity) {
+			queue.removeFirst();
+			dropped++;
+		}
+		queue.addLast(snapshot);
+		return true;
+	}
+
+	private void deliver(SensorSnapshot snapshot) {
+		try {
+			listener.sensorUpdated(snapshot);
+		} catch (RuntimeException e) {
+			StringWriter sw = new StringWriter();
+			PrintWriter pw = new PrintWriter(sw);
+			e.printStackTrace(pw);
+			Log.d(SensorRegistry.TAG, sw.toString());
+		}
+	}
+
+	private Runnable workerTask = new Runnable() {
+		@Override
+		public void run() {
+			while (true) {
+				SensorSnapshot snapshot;
+				synchronized (queue) {
+					while (queue.isEmpty() && !closed) {
+						try {
+							queue.wait();
+						} catch (InterruptedException e) {
+							// only close() ends the worker
+						}
+					}
+					if (queue.isEmpty())
+						return; // closed and drained
+					snapshot = queue.removeFirst();
+					delivered++;
+					queue.notifyAll(); // wake up blocked producers
+				}
+				deliver(snapshot);
+			}
+		}
+	};
+
+	private Runnable drainTask = new Runnable() {
+		@Override
+		public void run() {
+			while (true) {
+				SensorSnapshot snapshot;
+				synchronized (queue) {
+					if (queue.isEmpty()) {
+						drainPosted = false;
+						return;
+					}
+					snapshot = queue.removeFirst();
+					delivered++;
+				}
+				deliver(snapshot);
+			}
+		}
+	};
+
+	/**
+	 * Stops accepting snapshots. Queued snapshots are still delivered; a
+	 * worker subscription waits (bounded) for that to happen.
+	 */
+	void close() {
+		synchronized (queue) {
+			closed = true;
+			queue.notifyAll();
+		}
+		if (worker != null && worker != Thread.currentThread()) {
+			try {
+				worker.join(CLOSE_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public SensorSnapshotListener getListener() {
+		return listener;
+	}
+
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getQueueDepth() {
+		synchronized (queue) {
+			return queue.size();
+		}
+	}
+
+	public int getMaxQueueDepth() {
+		synchronized (queue) {
+			return maxDepth;
+		}
+	}
+
+	public long getOfferedCount() {
+		synchronized (queue) {
+			return offered;
+		}
+	}
+
+	public long getDeliveredCount() {
+		synchronized (queue) {
+			return delivered;
+		}
+	}
+
+	/**
+	 * @return snapshots that were discarded because the queue was full
+	 */
+	public long getDroppedCount() {
+		synchronized (queue) {
+			return dropped;
+		}
+	}
+
+	/**
+	 * @return snapshots that replaced an older queued one of the same sensor
+	 */
+	public long getCoalescedCount() {
+		synchronized (queue) {
+			return coalesced;
+		}
+	}
+
+	@Override
+	public String toString() {
+		synchronized (queue) {
+			return listener.getClass().getSimpleName() + " (" + policy + "): depth " + queue.size() + "/" + capacity + ", max " + maxDepth + ", delivered " + delivered + ", dropped " + dropped + ", coalesced " + coalesced;
+		}
+	}
+}
@@ -69,17 +69,30 @@ import android.util.Log;
 import android.webkit.URLUtil;
 import android.widget.Toast;
 import at.univie.sensorium.SensorRegistry;
+import at.univie.sensorium.logging.FramedLogReader;
+import at.univie.sensorium.logging.LogManifest;
 
 public class HTTPSUploader extends AsyncTask<List<File>, Void, String> {
 
 	private String posturl;
 	private String username;
 	private String password;
+	private LogManifest manifest;
 
 	public HTTPSUploader(String posturl, String username, String password) {
+		this(posturl, username, password, null);
+	}
+
+	/**
+	 * @param manifest
+	 *            if set, the files are marked as uploaded in it once the
+	 *            server accepted them
+	 */
+	public HTTPSUploader(String posturl, String username, String password, LogManifest manifest) {
 		this.posturl = posturl;
 		this.username = username;
 		this.password = password;
+		this.manifest = manifest;
 	}
 
 	@Override
@@ -114,7 +127,12 @@ public class HTTPSUploader extends AsyncTask<List<File>, Void, String> {
 				mpEntity.addPart("password", new StringBody(password));
 				for (File file : files) {
 					Log.d(SensorRegistry.TAG, "preparing " + file.getName() + " for upload");
-					ContentBody cbFile = new FileBody(file, "application/json");
+					String mimetype = "application/json";
+					if (file.getName().endsWith(".gz"))
+						mimetype = "application/gzip";
+					else if (file.getName().endsWith(".bin") || file.getName().endsWith(FramedLogReader.EXTENSION))
+						mimetype = "application/octet-stream";
+					ContentBody cbFile = new FileBody(file, mimetype);
 					mpEntity.addPart(file.toString(), cbFile);
 				}
 				httppost.addHeader("username", username);
@@ -137,6 +155,11 @@ public class HTTPSUploader extends AsyncTask<List<File>, Void, String> {
 				}
 				result = response.getStatusLine().toString();
 				Log.d(SensorRegistry.TAG, "Http upload completed with response: " + result + " " + reply);
+				int status = response.getStatusLine().getStatusCode();
+				if (manifest != null && status >= 200 && status < 300) {
+					for (File file : files)
+						manifest.segmentUploaded(file);
+				}
 
 
 			} else {
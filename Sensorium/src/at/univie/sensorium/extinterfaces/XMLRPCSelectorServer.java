@@ -0,0 +1,429 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.extinterfaces;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import org.xmlrpc.android.MethodCall;
+import org.xmlrpc.android.XMLRPCServer;
+
+import android.util.Log;
+import at.univie.sensorium.SensorRegistry;
+
+/**
+ * Non-blocking XMLRPC transport. One thread accepts, reads, dispatches and
+ * writes all connections through a Selector, so idle clients cost no thread
+ * and stop() takes effect immediately. Connections are kept open across
+ * requests if the client asks for it and sends a Content-Length. Requests
+ * and responses go through a small pool of direct buffers.
+ */
+public class XMLRPCSelectorServer implements Runnable {
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+	private static final int MAX_POOLED_BUFFERS = 32;
+	private static final int MAX_REQUEST_SIZE = 64 * 1024;
+	private static final Charset US_ASCII = Charset.forName("US-ASCII");
+	private static final byte[] END_OF_CALL = { '<', '/', 'm', 'e', 't', 'h', 'o', 'd', 'C', 'a', 'l', 'l', '>' };
+
+	private final int[] ports;
+	private final int idletimeout;
+	// only used on the selector thread
+	private final XMLRPCServer server = new XMLRPCServer();
+	private final ArrayDeque<ByteBuffer> bufferpool = new ArrayDeque<ByteBuffer>();
+
+	private volatile boolean stopped = false;
+	private volatile Selector selector;
+	private volatile long served = 0;
+	private volatile long connections = 0;
+
+	/**
+	 * @param ports
+	 *            the ports to try, in order
+	 * @param idletimeout
+	 *            ms after which a connection that sent no complete request is
+	 *            closed, 0 to keep it open
+	 */
+	public XMLRPCSelectorServer(int[] ports, int idletimeout) {
+		this.ports = ports;
+		this.idletimeout = idletimeout;
+	}
+
+	public void run() {
+		Selector sel = null;
+		ServerSocketChannel channel = null;
+		try {
+			sel = Selector.open();
+			selector = sel;
+			channel = bind();
+			if (channel == null)
+				return;
+			channel.register(sel, SelectionKey.OP_ACCEPT);
+			Log.d(SensorRegistry.TAG, "XMLRPC Server listening on port " + XMLRPCSensorServerThread.SOCKET_PORT + " (nio)");
+
+			while (!stopped) {
+				// the server channel is always registered, only wake up for
+				// idle connections if there are any
+				sel.select(sel.keys().size() > 1 ? idletimeout : 0);
+				Iterator<SelectionKey> keys = sel.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (!key.isValid())
+							continue;
+						if (key.isAcceptable())
+							accept(sel, channel);
+						else if (key.isReadable())
+							read(key);
+						else if (key.isWritable())
+							write(key);
+					} catch (Exception e) {
+						close(key);
+						StringWriter sw = new StringWriter();
+						PrintWriter pw = new PrintWriter(sw);
+						e.printStackTrace(pw);
+						Log.d(SensorRegistry.TAG, sw.toString());
+					}
+				}
+				closeIdle(sel);
+			}
+		} catch (IOException e) {
+			StringWriter sw = new StringWriter();
+			PrintWriter pw = new PrintWriter(sw);
+			e.printStackTrace(pw);
+			Log.d(SensorRegistry.TAG, sw.toString());
+		} finally {
+			if (sel != null) {
+				for (SelectionKey key : sel.keys())
+					close(key);
+				try {
+					sel.close();
+				} catch (IOException e) {
+					// nothing left to release
+				}
+			}
+			selector = null;
+			bufferpool.clear();
+			Log.d(SensorRegistry.TAG, "XMLRPC Server served " + served + " requests on " + connections + " connections, reuse rate " + getConnectionReuseRate());
+		}
+	}
+
+	/**
+	 * Stops the server, it closes all connections and returns from run()
+	 * right away.
+	 */
+	public void stop() {
+		stopped = true;
+		Selector sel = selector;
+		if (sel != null)
+			sel.wakeup();
+	}
+
+	/**
+	 * @return the share of requests that were sent over an already open
+	 *         connection
+	 */
+	public double getConnectionReuseRate() {
+		return XMLRPCSensorServerThread.reuseRate(served, connections);
+	}
+
+	private ServerSocketChannel bind() throws IOException {
+		InetAddress localhost = InetAddress.getLocalHost();
+		for (int port : ports) {
+			if (stopped)
+				return null;
+			Log.d(SensorRegistry.TAG, "XMLRPC Server bonding on port... " + port);
+			ServerSocketChannel channel = ServerSocketChannel.open();
+			try {
+				channel.socket().bind(new InetSocketAddress(localhost, port), 10);
+				channel.configureBlocking(false);
+				XMLRPCSensorServerThread.SOCKET_PORT = port;
+				return channel;
+			} catch (IOException e) {
+				channel.close();
+				Log.d(SensorRegistry.TAG, e.toString());
+			}
+		}
+		Log.e(SensorRegistry.TAG, "Could not locate a port in XMLRPC Server Thread!");
+		return null;
+	}
+
+	private void accept(Selector sel, ServerSocketChannel channel) throws IOException {
+		SocketChannel client;
+		while ((client = channel.accept()) != null) {
+			client.configureBlocking(false);
+			connections++;
+			client.register(sel, SelectionKey.OP_READ, new Connection(takeBuffer()));
+		}
+	}
+
+	private void read(SelectionKey key) throws Exception {
+		SocketChannel client = (SocketChannel) key.channel();
+		Connection conn = (Connection) key.attachment();
+		int n = client.read(conn.in);
+		conn.lastactive = now();
+		if (conn.isComplete()) {
+			respond(key, conn);
+		} else if (n < 0) {
+			close(key); // closed before sending a complete request
+		} else if (!conn.in.hasRemaining()) {
+			if (conn.in.capacity() >= MAX_REQUEST_SIZE) {
+				Log.d(SensorRegistry.TAG, "XMLRPC request exceeds " + MAX_REQUEST_SIZE + " bytes, closing");
+				close(key);
+				return;
+			}
+			ByteBuffer larger = ByteBuffer.allocate(conn.in.capacity() * 2);
+			conn.in.flip();
+			larger.put(conn.in);
+			releaseBuffer(conn.in);
+			conn.in = larger;
+		}
+	}
+
+	private void respond(SelectionKey key, Connection conn) throws Exception {
+		ByteBuffer in = conn.in;
+		int end = in.position();
+		in.flip();
+		in.position(conn.headerend);
+		if (conn.contentlength >= 0)
+			in.limit(conn.headerend + conn.contentlength);
+		MethodCall call = server.readMethodCall(new ByteBufferInputStream(in));
+		boolean keepalive = conn.keepalive && !stopped;
+		ByteBuffer response = server.serializeResponse(XMLRPCSensorServerThread.dispatch(call), keepalive);
+		conn.keepalive = keepalive;
+		if (keepalive) {
+			// keep what the client already sent of its next request
+			in.limit(end);
+			in.position(conn.headerend + conn.contentlength);
+			in.compact();
+		} else {
+			conn.in = null;
+			releaseBuffer(in);
+		}
+
+		// the response buffer is reused by the next call, keep only what
+		// doesn't fit into the output buffer
+		conn.out = takeBuffer();
+		int n = Math.min(conn.out.remaining(), response.remaining());
+		conn.out.put(response.array(), response.position(), n);
+		conn.out.flip();
+		response.position(response.position() + n);
+		if (response.hasRemaining()) {
+			conn.response = new byte[response.remaining()];
+			response.get(conn.response);
+		}
+		key.interestOps(SelectionKey.OP_WRITE);
+		write(key); // usually fits into the socket buffer right away
+	}
+
+	private void write(SelectionKey key) throws Exception {
+		SocketChannel client = (SocketChannel) key.channel();
+		Connection conn = (Connection) key.attachment();
+		while (true) {
+			if (!conn.out.hasRemaining()) {
+				if (conn.response == null || conn.responseoffset == conn.response.length) {
+					served++;
+					if (!conn.keepalive) {
+						close(key);
+						return;
+					}
+					releaseBuffer(conn.out);
+					conn.out = null;
+					conn.reset();
+					key.interestOps(SelectionKey.OP_READ);
+					if (conn.isComplete())
+						respond(key, conn); // pipelined
+					return;
+				}
+				conn.out.clear();
+				int n = Math.min(conn.out.remaining(), conn.response.length - conn.responseoffset);
+				conn.out.put(conn.response, conn.responseoffset, n);
+				conn.responseoffset += n;
+				conn.out.flip();
+			}
+			if (client.write(conn.out) == 0)
+				return; // socket buffer is full, wait for OP_WRITE
+			conn.lastactive = now();
+		}
+	}
+
+	private void closeIdle(Selector sel) {
+		if (idletimeout <= 0)
+			return;
+		long now = now();
+		for (SelectionKey key : sel.keys()) {
+			Connection conn = (Connection) key.attachment();
+			if (conn != null && now - conn.lastactive > idletimeout) {
+				Log.d(SensorRegistry.TAG, "XMLRPC client idle for " + idletimeout + "ms, closing");
+				close(key);
+			}
+		}
+	}
+
+	private void close(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// already closed
+		}
+		Connection conn = (Connection) key.attachment();
+		if (conn != null) {
+			releaseBuffer(conn.in);
+			releaseBuffer(conn.out);
+			conn.in = null;
+			conn.out = null;
+		}
+	}
+
+	private ByteBuffer takeBuffer() {
+		ByteBuffer buffer = bufferpool.poll();
+		if (buffer == null)
+			buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		buffer.clear();
+		return buffer;
+	}
+
+	private void releaseBuffer(ByteBuffer buffer) {
+		// grown request buffers are not pooled
+		if (buffer != null && buffer.isDirect() && bufferpool.size() < MAX_POOLED_BUFFERS)
+			bufferpool.push(buffer);
+	}
+
+	private static long now() {
+		return System.nanoTime() / 1000000L;
+	}
+
+	/**
+	 * The state of one connection: the request read so far, then the
+	 * response left to write.
+	 */
+	private static class Connection {
+		ByteBuffer in;
+		ByteBuffer out;
+		byte[] response; // the part of the response beyond the output buffer
+		int responseoffset = 0;
+		int headerend = -1;
+		int contentlength = -1;
+		boolean keepalive = false;
+		long lastactive = now();
+
+		Connection(ByteBuffer in) {
+			this.in = in;
+		}
+
+		/**
+		 * Prepares for the next request on the same connection.
+		 */
+		void reset() {
+			response = null;
+			responseoffset = 0;
+			headerend = -1;
+			contentlength = -1;
+			keepalive = false;
+		}
+
+		/**
+		 * @return true if the buffer holds the headers and the whole body,
+		 *         as given by Content-Length or, without one, up to the end
+		 *         of the methodCall element
+		 */
+		boolean isComplete() {
+			int end = in.position();
+			if (headerend < 0) {
+				for (int i = 0; i < end && headerend < 0; i++) {
+					if (in.get(i) != '\n')
+						continue;
+					if (i + 1 < end && in.get(i + 1) == '\n')
+						headerend = i + 2;
+					else if (i + 2 < end && in.get(i + 1) == '\r' && in.get(i + 2) == '\n')
+						headerend = i + 3;
+				}
+				if (headerend < 0)
+					return false;
+				byte[] header = new byte[headerend];
+				for (int i = 0; i < headerend; i++)
+					header[i] = in.get(i);
+				XMLRPCServer.Header h = XMLRPCServer.Header.parse(new String(header, US_ASCII));
+				contentlength = h.getContentLength();
+				keepalive = h.isKeepAlive();
+			}
+			if (contentlength >= 0)
+				return end - headerend >= contentlength;
+			return indexOf(END_OF_CALL, headerend, end) >= 0;
+		}
+
+		private int indexOf(byte[] pattern, int from, int to) {
+			outer: for (int i = from; i <= to - pattern.length; i++) {
+				for (int j = 0; j < pattern.length; j++) {
+					if (in.get(i + j) != pattern[j])
+						continue outer;
+				}
+				return i;
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * Feeds the body of a request to the XML parser without copying it out of
+	 * the buffer.
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!buffer.hasRemaining())
+				return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -20,6 +20,10 @@
 
 package at.univie.sensorium.extinterfaces;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.InetAddress;
@@ -27,12 +31,24 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.xmlrpc.android.MethodCall;
 import org.xmlrpc.android.XMLRPCServer;
 
 import android.util.Log;
 import at.univie.sensorium.SensorRegistry;
+import at.univie.sensorium.preferences.Preferences;
+import at.univie.sensorium.sensors.AbstractSensor;
+import at.univie.sensorium.sensors.SensorValue;
 
 public class XMLRPCSensorServerThread implements Runnable {
 
@@ -41,7 +57,26 @@ public class XMLRPCSensorServerThread implements Runnable {
 	public static int SOCKET_PORT;
 	public static boolean running = false;
 
+	public static final String MULTICALL = "system.multicall";
+	private static final int FAULT_INVALID_REQUEST = -32600;
+
+	/** Non-blocking transport, all connections on one thread, see XMLRPCSelectorServer. */
+	public static final String TRANSPORT_NIO = "nio";
+	/** Blocking sockets, served one at a time or by a pool of workers. */
+	public static final String TRANSPORT_BLOCKING = "blocking";
+
+	/** Default number of workers, 0 to serve one connection at a time on the accepting thread. */
+	public static final int DEFAULT_WORKERS = 4;
+	/** Default number of accepted connections waiting for or being served by a worker. */
+	public static final int DEFAULT_MAX_INFLIGHT = 16;
+	/** Default time in ms a client may take to send its request. */
+	public static final int DEFAULT_READ_TIMEOUT = 2000;
+
 	private volatile boolean isstopped = false;
+	private volatile int readtimeout = DEFAULT_READ_TIMEOUT;
+	private final AtomicLong served = new AtomicLong();
+	private final AtomicLong connections = new AtomicLong();
+	private volatile XMLRPCSelectorServer selectorserver;
 
 	public XMLRPCSensorServerThread() {
 	}
@@ -49,6 +84,17 @@ public class XMLRPCSensorServerThread implements Runnable {
 	public void run() {
 		running = true;
 		isstopped = false;
+
+		Preferences preferences = SensorRegistry.getInstance().getPreferences();
+		if (TRANSPORT_NIO.equals(preferences.getString(Preferences.INTERFACES_XMLRPC_TRANSPORT_PREF, TRANSPORT_NIO))) {
+			selectorserver = new XMLRPCSelectorServer(portArray, preferences.getInt(Preferences.INTERFACES_XMLRPC_READ_TIMEOUT_PREF, DEFAULT_READ_TIMEOUT));
+			if (!isstopped)
+				selectorserver.run();
+			selectorserver = null;
+			running = false;
+			return;
+		}
+
 		int i;
 		for (i = 0; i < portArray.length; i++) { // TODO: this is the culprit
 													// when trying to cancel the
@@ -70,45 +116,40 @@ public class XMLRPCSensorServerThread implements Runnable {
 				XMLRPCServer server = new XMLRPCServer();
 				Log.d(SensorRegistry.TAG, "XMLRPC Server listening on port " + SOCKET_PORT);
 
-				SensorRegistry sensorregistry = SensorRegistry.getInstance();
+				Preferences prefs = SensorRegistry.getInstance().getPreferences();
+				int workers = prefs.getInt(Preferences.INTERFACES_XMLRPC_WORKERS_PREF, DEFAULT_WORKERS);
+				int maxinflight = Math.max(workers, prefs.getInt(Preferences.INTERFACES_XMLRPC_MAX_INFLIGHT_PREF, DEFAULT_MAX_INFLIGHT));
+				readtimeout = prefs.getInt(Preferences.INTERFACES_XMLRPC_READ_TIMEOUT_PREF, DEFAULT_READ_TIMEOUT);
+				ThreadPoolExecutor pool = null;
+				Semaphore inflight = null;
+				if (workers > 0) {
+					// the semaphore bounds the queue, the pool never rejects
+					pool = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+					inflight = new Semaphore(maxinflight);
+					Log.d(SensorRegistry.TAG, "XMLRPC Server using " + workers + " workers, at most " + maxinflight + " connections in flight");
+				}
 
 				while (!isstopped) {
 					try {
-						Socket client = socket.accept();
-						MethodCall call = server.readMethodCall(client);
-						String name = call.getMethodName();
-
-						if (name.equals("isSeattleSensor")) {
-							server.respond(client, true);
+						if (inflight != null && !inflight.tryAcquire(socket.getSoTimeout(), TimeUnit.MILLISECONDS)) {
+							Log.d(SensorRegistry.TAG, "XMLRPC Server busy, " + maxinflight + " connections in flight");
+							continue;
 						}
-
-						else if (name.equals("system.methodSignature")) {
-							ArrayList<Object> params = call.getParams();
-							if (params.size() > 0) {
-								String methodname = (String) params.get(0);
-
-								Object[] methodsignature = sensorregistry.getSensorMethodSignature(methodname);
-
-								if (methodsignature != null)
-									server.respond(client, methodsignature);
-								else {
-									server.respond(client, "Unknown method");
-								}
-							} else
-								server.respond(client, "Too few arguments");
-						}
-
-						else if (name.equals("system.listMethods")) {
-							server.respond(client, sensorregistry.getSensorMethods().toArray());
-						} else {
-							Object methodresult = sensorregistry.callSensorMethod(name);
-							if (methodresult != null) {
-								server.respond(client, methodresult);
-							} else {
-								server.respond(client, "Input not recognized or no information returned or sensor disabled");
-							}
-
+						Socket client;
+						try {
+							client = socket.accept();
+						} catch (IOException e) {
+							if (inflight != null)
+								inflight.release();
+							throw e;
 						}
+						client.setSoTimeout(readtimeout);
+						if (pool == null)
+							handle(server, client, null);
+						else
+							pool.execute(new Connection(client, inflight, pool));
+					} catch (InterruptedException e) {
+						break;
 					} catch (SocketTimeoutException e) {
 						Log.d(SensorRegistry.TAG, "Listening socket timeout");
 						if (isstopped)
@@ -117,6 +158,12 @@ public class XMLRPCSensorServerThread implements Runnable {
 					}
 
 				}
+				socket.close();
+				if (pool != null) {
+					pool.shutdown();
+					pool.awaitTermination(readtimeout, TimeUnit.MILLISECONDS);
+				}
+				Log.d(SensorRegistry.TAG, "XMLRPC Server served " + served.get() + " requests on " + connections.get() + " connections, reuse rate " + getConnectionReuseRate());
 			} catch (Exception e) {
 				Log.d("SeattleSensors:", e.toString());
 				StringWriter sw = new StringWriter();
@@ -131,8 +178,198 @@ public class XMLRPCSensorServerThread implements Runnable {
 		}
 	}
 
+	/**
+	 * Answers the calls of one client until it closes the connection, stays
+	 * idle for longer than the read timeout or asks to close it. Without a
+	 * pool, or while other connections are waiting for a worker, the
+	 * connection is closed after the first call.
+	 */
+	private void handle(XMLRPCServer server, Socket client, ThreadPoolExecutor pool) {
+		int requests = 0;
+		connections.incrementAndGet();
+		try {
+			InputStream in = new BufferedInputStream(client.getInputStream());
+			OutputStream out = client.getOutputStream();
+			while (true) {
+				MethodCall call = server.readRequest(in);
+				if (call == null)
+					break; // closed by the client
+				boolean keepalive = call.isKeepAlive() && !isstopped && pool != null && pool.getQueue().isEmpty();
+				server.respond(out, dispatch(call), keepalive);
+				requests++;
+				served.incrementAndGet();
+				if (!keepalive)
+					break;
+			}
+		} catch (SocketTimeoutException e) {
+			if (requests == 0)
+				Log.d(SensorRegistry.TAG, "XMLRPC client did not send a request within " + readtimeout + "ms");
+		} catch (Exception e) {
+			StringWriter sw = new StringWriter();
+			PrintWriter pw = new PrintWriter(sw);
+			e.printStackTrace(pw);
+			Log.d(SensorRegistry.TAG, sw.toString());
+		} finally {
+			try {
+				client.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+
+	/**
+	 * @return the share of requests that were sent over an already open
+	 *         connection
+	 */
+	public double getConnectionReuseRate() {
+		XMLRPCSelectorServer selectorserver = this.selectorserver;
+		if (selectorserver != null)
+			return selectorserver.getConnectionReuseRate();
+		return reuseRate(served.get(), connections.get());
+	}
+
+	static double reuseRate(long requests, long connections) {
+		if (requests == 0)
+			return 0;
+		return Math.max(0, requests - connections) / (double) requests;
+	}
+
+	// XMLRPCServer keeps its serializer in a field, so every worker needs its own
+	private static final ThreadLocal<XMLRPCServer> workerServer = new ThreadLocal<XMLRPCServer>() {
+		@Override
+		protected XMLRPCServer initialValue() {
+			return new XMLRPCServer();
+		}
+	};
+
+	private class Connection implements Runnable {
+		private final Socket client;
+		private final Semaphore inflight;
+		private final ThreadPoolExecutor pool;
+
+		Connection(Socket client, Semaphore inflight, ThreadPoolExecutor pool) {
+			this.client = client;
+			this.inflight = inflight;
+			this.pool = pool;
+		}
+
+		@Override
+		public void run() {
+			try {
+				handle(workerServer.get(), client, pool);
+			} finally {
+				inflight.release();
+			}
+		}
+	}
+
+	/**
+	 * Answers one call through the SensorRegistry, used by both transports.
+	 */
+	static Object dispatch(MethodCall call) {
+		return dispatch(call.getMethodName(), call.getParams(), null);
+	}
+
+	/**
+	 * @param reads
+	 *            the sensors read so far by this multicall, so that all
+	 *            fields of one sensor come from the same snapshot; null for a
+	 *            single call
+	 */
+	private static Object dispatch(String name, List<Object> params, Map<AbstractSensor, SensorValue[]> reads) {
+		SensorRegistry sensorregistry = SensorRegistry.getInstance();
+
+		if (name.equals("isSeattleSensor")) {
+			return true;
+		}
+
+		else if (name.equals("system.methodSignature")) {
+			if (params.size() > 0) {
+				String methodname = (String) params.get(0);
+
+				Object[] methodsignature = sensorregistry.getSensorMethodSignature(methodname);
+
+				if (methodsignature != null)
+					return methodsignature;
+				else {
+					return "Unknown method";
+				}
+			} else
+				return "Too few arguments";
+		}
+
+		else if (name.equals("system.listMethods")) {
+			List<String> methods = sensorregistry.getSensorMethods();
+			methods.add(MULTICALL);
+			return methods.toArray();
+		}
+
+		else if (name.equals(MULTICALL)) {
+			if (params.size() > 0 && params.get(0) instanceof Object[])
+				return multicall((Object[]) params.get(0), new HashMap<AbstractSensor, SensorValue[]>());
+			else
+				return "Too few arguments";
+		}
+
+		else if (name.endsWith(SensorRegistry.ALL_FIELDS)) {
+			String sensorname = name.substring(0, name.length() - SensorRegistry.ALL_FIELDS.length());
+			Map<String, Object> struct = sensorregistry.callSensor(sensorname, reads != null ? reads : new HashMap<AbstractSensor, SensorValue[]>());
+			if (struct != null) {
+				return struct;
+			} else {
+				return "Input not recognized or no information returned or sensor disabled";
+			}
+		} else {
+			Object methodresult = reads != null ? sensorregistry.callSensorMethod(name, reads) : sensorregistry.callSensorMethod(name);
+			if (methodresult != null) {
+				return methodresult;
+			} else {
+				return "Input not recognized or no information returned or sensor disabled";
+			}
+
+		}
+	}
+
+	/**
+	 * system.multicall: every call is a struct of methodName and params, the
+	 * result of each is returned wrapped in an array of one, a malformed call
+	 * as a fault struct.
+	 */
+	private static Object[] multicall(Object[] calls, Map<AbstractSensor, SensorValue[]> reads) {
+		Object[] results = new Object[calls.length];
+		for (int i = 0; i < calls.length; i++) {
+			if (!(calls[i] instanceof Map)) {
+				results[i] = fault(FAULT_INVALID_REQUEST, "Call is not a struct");
+				continue;
+			}
+			Map<?, ?> call = (Map<?, ?>) calls[i];
+			Object methodname = call.get("methodName");
+			Object callparams = call.get("params");
+			if (!(methodname instanceof String)) {
+				results[i] = fault(FAULT_INVALID_REQUEST, "Missing methodName");
+			} else if (methodname.equals(MULTICALL)) {
+				results[i] = fault(FAULT_INVALID_REQUEST, "Recursive system.multicall is not allowed");
+			} else {
+				List<Object> p = callparams instanceof Object[] ? Arrays.asList((Object[]) callparams) : new ArrayList<Object>();
+				results[i] = new Object[] { dispatch((String) methodname, p, reads) };
+			}
+		}
+		return results;
+	}
+
+	private static Map<String, Object> fault(int code, String message) {
+		Map<String, Object> fault = new HashMap<String, Object>();
+		fault.put("faultCode", code);
+		fault.put("faultString", message);
+		return fault;
+	}
+
 	public void stopThread() {
 		isstopped = true;
+		XMLRPCSelectorServer selectorserver = this.selectorserver;
+		if (selectorserver != null)
+			selectorserver.stop();
 	}
 
 }
@@ -0,0 +1,103 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.logging;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import at.univie.sensorium.sensors.NestedSensorValue;
+import at.univie.sensorium.sensors.SensorValue;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Converts binary log segments back into the JSON layout written by
+ * JSONLogger. Does not depend on Android classes, so it can also be run on
+ * the server side:
+ * 
+ * java -cp ... at.univie.sensorium.logging.BinaryLogConverter in.bin [out.json]
+ */
+public class BinaryLogConverter {
+
+	/**
+	 * Writes all records of the segment as a JSON array.
+	 * 
+	 * @return the number of records converted
+	 */
+	@SuppressWarnings("unchecked")
+	public static int toJSON(InputStream in, Writer out) throws IOException {
+		BinaryLogReader reader = new BinaryLogReader(in);
+		JsonWriter jw = new JsonWriter(out);
+		int count = 0;
+		jw.beginArray();
+		BinaryLogReader.Record record;
+		while ((record = reader.next()) != null) {
+			jw.beginObject();
+			jw.name("privacy-level").value(record.getPrivacylevel());
+			if (record.getAbsorbedUpdates() > 1)
+				jw.name("coalesced-updates").value(record.getAbsorbedUpdates());
+			List<String> names = record.getFieldNames();
+			List<SensorValue> values = record.getSensorValues();
+			for (int i = 0; i < values.size(); i++) {
+				SensorValue value = values.get(i);
+				jw.name(names.get(i));
+				if (value.isNested()) {
+					jw.beginArray();
+					for (NestedSensorValue nsv : (List<NestedSensorValue>) value.getValue()) {
+						jw.beginObject();
+						for (SensorValue nestedvalue : nsv.getInnerSensorValues())
+							jw.name(nestedvalue.getType().getName()).value(nestedvalue.getValueRepresentation());
+						jw.endObject();
+					}
+					jw.endArray();
+				} else {
+					jw.value(value.getValueRepresentation());
+				}
+			}
+			jw.endObject();
+			count++;
+		}
+		jw.endArray();
+		jw.flush();
+		return count;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: BinaryLogConverter <segment.bin> [<output.json>]");
+			System.exit(1);
+		}
+		InputStream in = new FileInputStream(args[0]);
+		Writer out = new OutputStreamWriter(args.length > 1 ? new FileOutputStream(args[1]) : System.out, "UTF-8");
+		try {
+			int count = toJSON(in, out);
+			System.err.println(count + " records converted");
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.logging;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Constants and primitive encodings of the binary log format.
+ *
+ * A segment starts with MAGIC, VERSION and the sensor class name, followed by
+ * blocks. A SCHEMA block lists the fields (TYPE name, JSON name, UNIT name)
+ * of the ROW blocks that follow it. A ROW holds the number of coalesced
+ * updates, the privacy level and one tagged cell per field. Strings are
+ * dictionary encoded per segment: the first occurrence is written out and
+ * gets the next id, later ones only refer to the id. Timestamps are stored
+ * as the difference to the timestamp of the previous row.
+ */
+final class BinaryLogFormat {
+
+	static final byte[] MAGIC = { 'S', 'N', 'S', 'B' };
+	static final int VERSION = 1;
+
+	static final int BLOCK_SCHEMA = 'S';
+	static final int BLOCK_ROW = 'R';
+
+	static final int CELL_NA = 0; // "n/a", the value of unset SensorValues
+	static final int CELL_INT = 1;
+	static final int CELL_LONG = 2;
+	static final int CELL_DOUBLE = 3;
+	static final int CELL_FLOAT = 4;
+	static final int CELL_TRUE = 5;
+	static final int CELL_FALSE = 6;
+	static final int CELL_STRING_REF = 7;
+	static final int CELL_STRING_NEW = 8;
+	static final int CELL_STRING = 9; // dictionary full, not added
+	static final int CELL_TIME_DELTA = 10;
+	static final int CELL_LIST = 11;
+	static final int CELL_NESTED = 12;
+
+	static final int MAX_DICTIONARY = 16384;
+
+	private BinaryLogFormat() {
+	}
+
+	static void writeVarint(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	static void writeSignedVarint(DataOutputStream out, long value) throws IOException {
+		writeVarint(out, (value << 1) ^ (value >> 63));
+	}
+
+	static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes("UTF-8");
+		writeVarint(out, bytes.length);
+		out.write(bytes);
+	}
+
+	static long readVarint(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	static long readSignedVarint(DataInputStream in) throws IOException {
+		long value = readVarint(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	static String readString(DataInputStream in) throws IOException {
+		long length = readVarint(in);
+		if (length < 0 || length > Integer.MAX_VALUE)
+			throw new IOException("Malformed string length " + length);
+		byte[] bytes = new byte[(int) length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	static int readTag(DataInputStream in) throws IOException {
+		int tag = in.read();
+		if (tag < 0)
+			throw new EOFException();
+		return tag;
+	}
+}
@@ -0,0 +1,280 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.logging;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import at.univie.sensorium.sensors.NestedSensorValue;
+import at.univie.sensorium.sensors.SensorValue;
+
+/**
+ * Streaming reader for the binary log format, returns one record at a time.
+ * A segment that ends in the middle of a record (e.g. because the app was
+ * killed) is read up to the last complete record, isTruncated() tells
+ * whether that happened.
+ */
+public class BinaryLogReader {
+
+	/**
+	 * One decoded row. Values are plain SensorValues with the types and units
+	 * from the schema; nested values are lists of NestedSensorValue as
+	 * produced by the sensors.
+	 */
+	public static class Record {
+		private final String privacylevel;
+		private final int absorbedUpdates;
+		private final List<String> names;
+		private final List<SensorValue> values;
+
+		Record(String privacylevel, int absorbedUpdates, List<String> names, List<SensorValue> values) {
+			this.privacylevel = privacylevel;
+			this.absorbedUpdates = absorbedUpdates;
+			this.names = names;
+			this.values = values;
+		}
+
+		/**
+		 * @return the name of the Privacy.PrivacyLevel the values were
+		 *         anonymized with
+		 */
+		public String getPrivacylevel() {
+			return privacylevel;
+		}
+
+		public int getAbsorbedUpdates() {
+			return absorbedUpdates;
+		}
+
+		/**
+		 * @return the JSON field names, in the order of getSensorValues()
+		 */
+		public List<String> getFieldNames() {
+			return names;
+		}
+
+		public List<SensorValue> getSensorValues() {
+			return values;
+		}
+	}
+
+	private static class DecodedNestedValue implements NestedSensorValue {
+		private final List<SensorValue> values;
+
+		DecodedNestedValue(List<SensorValue> values) {
+			this.values = values;
+		}
+
+		@Override
+		public List<SensorValue> getInnerSensorValues() {
+			return values;
+		}
+	}
+
+	private final DataInputStream in;
+	private final String sensorClassName;
+	private final List<String> dictionary = new ArrayList<String>();
+
+	private SensorValue.TYPE[] types = new SensorValue.TYPE[0];
+	private SensorValue.UNIT[] units = new SensorValue.UNIT[0];
+	private List<String> names = Collections.emptyList();
+	private long[] lastTimestamps = new long[0];
+
+	private boolean truncated = false;
+	private boolean done = false;
+
+	/**
+	 * Reads the segment header.
+	 *
+	 * @throws IOException
+	 *             if the stream is not a binary log segment
+	 */
+	public BinaryLogReader(InputStream stream) throws IOException {
+		in = new DataInputStream(new BufferedInputStream(stream));
+		byte[] magic = new byte[BinaryLogFormat.MAGIC.length];
+		in.readFully(magic);
+		if (!Arrays.equals(magic, BinaryLogFormat.MAGIC))
+			throw new IOException("Not a binary sensor log");
+		int version = in.readUnsignedByte();
+		if (version != BinaryLogFormat.VERSION)
+			throw new IOException("Unsupported binary log version " + version);
+		sensorClassName = BinaryLogFormat.readString(in);
+	}
+
+	public String getSensorClassName() {
+		return sensorClassName;
+	}
+
+	/**
+	 * @return the next record or null at the end of the segment
+	 */
+	public Record next() throws IOException {
+		if (done)
+			return null;
+		try {
+			while (true) {
+				int block = in.read();
+				if (block < 0) {
+					done = true;
+					return null;
+				}
+				if (block == BinaryLogFormat.BLOCK_SCHEMA)
+					readSchema();
+				else if (block == BinaryLogFormat.BLOCK_ROW)
+					return readRow();
+				else
+					throw new IOException("Unknown block type " + block);
+			}
+		} catch (EOFException e) {
+			truncated = true;
+			done = true;
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the segment ended inside a record
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private void readSchema() throws IOException {
+		int n = (int) BinaryLogFormat.readVarint(in);
+		SensorValue.TYPE[] t = new SensorValue.TYPE[n];
+		SensorValue.UNIT[] u = new SensorValue.UNIT[n];
+		List<String> nm = new ArrayList<String>(n);
+		for (int i = 0; i < n; i++) {
+			t[i] = toType(BinaryLogFormat.readString(in));
+			nm.add(BinaryLogFormat.readString(in));
+			u[i] = toUnit(BinaryLogFormat.readString(in));
+		}
+		types = t;
+		units = u;
+		names = Collections.unmodifiableList(nm);
+		lastTimestamps = new long[n];
+	}
+
+	private Record readRow() throws IOException {
+		int absorbed = (int) BinaryLogFormat.readVarint(in);
+		String level = String.valueOf(readValue(BinaryLogFormat.readTag(in), -1));
+		List<SensorValue> values = new ArrayList<SensorValue>(types.length);
+		for (int i = 0; i < types.length; i++) {
+			SensorValue value = new SensorValue(units[i], types[i]);
+			value.setValue(readValue(BinaryLogFormat.readTag(in), i));
+			values.add(value);
+		}
+		return new Record(level, absorbed, names, values);
+	}
+
+	/**
+	 * @param column
+	 *            the schema column for timestamp deltas, -1 inside lists
+	 */
+	private Object readValue(int tag, int column) throws IOException {
+		switch (tag) {
+		case BinaryLogFormat.CELL_NA:
+			return "n/a";
+		case BinaryLogFormat.CELL_INT:
+			return Integer.valueOf((int) BinaryLogFormat.readSignedVarint(in));
+		case BinaryLogFormat.CELL_LONG:
+			return Long.valueOf(BinaryLogFormat.readSignedVarint(in));
+		case BinaryLogFormat.CELL_DOUBLE:
+			return Double.valueOf(in.readDouble());
+		case BinaryLogFormat.CELL_FLOAT:
+			return Float.valueOf(in.readFloat());
+		case BinaryLogFormat.CELL_TRUE:
+			return Boolean.TRUE;
+		case BinaryLogFormat.CELL_FALSE:
+			return Boolean.FALSE;
+		case BinaryLogFormat.CELL_STRING_REF:
+			int id = (int) BinaryLogFormat.readVarint(in);
+			if (id < 0 || id >= dictionary.size())
+				throw new IOException("Unknown string id " + id);
+			return dictionary.get(id);
+		case BinaryLogFormat.CELL_STRING_NEW:
+			String s = BinaryLogFormat.readString(in);
+			dictionary.add(s);
+			return s;
+		case BinaryLogFormat.CELL_STRING:
+			return BinaryLogFormat.readString(in);
+		case BinaryLogFormat.CELL_TIME_DELTA:
+			if (column < 0)
+				throw new IOException("Timestamp outside of a column");
+			lastTimestamps[column] += BinaryLogFormat.readSignedVarint(in);
+			return Long.valueOf(lastTimestamps[column]);
+		case BinaryLogFormat.CELL_LIST:
+			int n = (int) BinaryLogFormat.readVarint(in);
+			List<Object> list = new ArrayList<Object>(n);
+			for (int i = 0; i < n; i++)
+				list.add(readValue(BinaryLogFormat.readTag(in), -1));
+			return list;
+		case BinaryLogFormat.CELL_NESTED:
+			return readNested();
+		}
+		throw new IOException("Unknown cell type " + tag);
+	}
+
+	private List<NestedSensorValue> readNested() throws IOException {
+		int n = (int) BinaryLogFormat.readVarint(in);
+		List<NestedSensorValue> nested = new ArrayList<NestedSensorValue>(n);
+		for (int i = 0; i < n; i++) {
+			int m = (int) BinaryLogFormat.readVarint(in);
+			List<SensorValue> inner = new ArrayList<SensorValue>(m);
+			for (int j = 0; j < m; j++) {
+				SensorValue.TYPE type = toType(String.valueOf(readValue(BinaryLogFormat.readTag(in), -1)));
+				SensorValue.UNIT unit = toUnit(String.valueOf(readValue(BinaryLogFormat.readTag(in), -1)));
+				SensorValue value = new SensorValue(unit, type);
+				value.setValue(readValue(BinaryLogFormat.readTag(in), -1));
+				inner.add(value);
+			}
+			nested.add(new DecodedNestedValue(inner));
+		}
+		return nested;
+	}
+
+	private static SensorValue.TYPE toType(String name) {
+		try {
+			return SensorValue.TYPE.valueOf(name);
+		} catch (IllegalArgumentException e) {
+			return SensorValue.TYPE.OTHER; // written by a newer version
+		}
+	}
+
+	private static SensorValue.UNIT toUnit(String name) {
+		try {
+			return SensorValue.UNIT.valueOf(name);
+		} catch (IllegalArgumentException e) {
+			return SensorValue.UNIT.OTHER;
+		}
+	}
+}
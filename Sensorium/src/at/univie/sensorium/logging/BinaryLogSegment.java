@@ -0,0 +1,223 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.logging;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import at.univie.sensorium.privacy.Privacy;
+import at.univie.sensorium.privacy.PrivacyPlan;
+import at.univie.sensorium.sensors.NestedSensorValue;
+import at.univie.sensorium.sensors.SensorSnapshot;
+import at.univie.sensorium.sensors.SensorValue;
+
+/**
+ * One per-sensor log file in the binary format described in
+ * BinaryLogFormat. Values are anonymized the same way JSONLogger does it.
+ */
+class BinaryLogSegment {
+
+	private static final int BUFFER_SIZE = 16 * 1024;
+
+	private final File file;
+	private final DataOutputStream out;
+	private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+
+	// schema of the rows written since the last SCHEMA block
+	private SensorValue.TYPE[] types = new SensorValue.TYPE[0];
+	private SensorValue.UNIT[] units = new SensorValue.UNIT[0];
+	private long[] lastTimestamps = new long[0];
+
+	// output of the privacy plan, reused for every row
+	private SensorValue[] privatized;
+	private final SensorValue nestedbuffer = new SensorValue(SensorValue.UNIT.OTHER, SensorValue.TYPE.OTHER);
+
+	private int records = 0;
+	private final long created = System.currentTimeMillis();
+
+	BinaryLogSegment(File file, String sensorClassName) throws IOException {
+		this.file = file;
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+		out.write(BinaryLogFormat.MAGIC);
+		out.writeByte(BinaryLogFormat.VERSION);
+		BinaryLogFormat.writeString(out, sensorClassName);
+	}
+
+	void write(SensorSnapshot snapshot) throws IOException {
+		List<SensorValue> values = snapshot.getSensorValues();
+		if (!matchesSchema(values))
+			writeSchema(values);
+
+		PrivacyPlan plan = snapshot.getPrivacyPlan();
+		if (privatized == null || privatized.length != plan.size())
+			privatized = plan.newRecord();
+		plan.apply(values, privatized);
+
+		Privacy.PrivacyLevel level = plan.getLevel();
+		out.writeByte(BinaryLogFormat.BLOCK_ROW);
+		BinaryLogFormat.writeVarint(out, snapshot.getAbsorbedUpdates());
+		writeStringCell(level.name());
+		for (int i = 0; i < types.length; i++) {
+			SensorValue value = values.get(i);
+			if (value.isNested())
+				writeNestedCell(value, level);
+			else
+				writeCell(i, privatized[i].getValue());
+		}
+		records++;
+	}
+
+	private boolean matchesSchema(List<SensorValue> values) {
+		if (values.size() != types.length)
+			return false;
+		for (int i = 0; i < types.length; i++) {
+			SensorValue value = values.get(i);
+			if (value.getType() != types[i] || value.getUnit() != units[i])
+				return false;
+		}
+		return true;
+	}
+
+	private void writeSchema(List<SensorValue> values) throws IOException {
+		int n = values.size();
+		types = new SensorValue.TYPE[n];
+		units = new SensorValue.UNIT[n];
+		lastTimestamps = new long[n];
+		out.writeByte(BinaryLogFormat.BLOCK_SCHEMA);
+		BinaryLogFormat.writeVarint(out, n);
+		for (int i = 0; i < n; i++) {
+			SensorValue value = values.get(i);
+			types[i] = value.getType();
+			units[i] = value.getUnit();
+			BinaryLogFormat.writeString(out, types[i].name());
+			BinaryLogFormat.writeString(out, types[i].getName());
+			BinaryLogFormat.writeString(out, units[i].name());
+		}
+	}
+
+	private void writeCell(int column, Object value) throws IOException {
+		if (types[column] == SensorValue.TYPE.TIMESTAMP && value instanceof Long) {
+			long timestamp = (Long) value;
+			out.writeByte(BinaryLogFormat.CELL_TIME_DELTA);
+			BinaryLogFormat.writeSignedVarint(out, timestamp - lastTimestamps[column]);
+			lastTimestamps[column] = timestamp;
+		} else {
+			writeValue(value);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void writeNestedCell(SensorValue value, Privacy.PrivacyLevel level) throws IOException {
+		List<NestedSensorValue> nested = (List<NestedSensorValue>) value.getValue();
+		out.writeByte(BinaryLogFormat.CELL_NESTED);
+		BinaryLogFormat.writeVarint(out, nested.size());
+		for (NestedSensorValue nsv : nested) {
+			List<SensorValue> inner = nsv.getInnerSensorValues();
+			BinaryLogFormat.writeVarint(out, inner.size());
+			for (int i = 0; i < inner.size(); i++) {
+				Privacy.getTransform(inner.get(i).getType(), level).apply(inner, i, nestedbuffer);
+				writeStringCell(nestedbuffer.getType().name());
+				writeStringCell(nestedbuffer.getUnit().name());
+				writeValue(nestedbuffer.getValue());
+			}
+		}
+	}
+
+	private void writeValue(Object value) throws IOException {
+		if (value instanceof String) {
+			if ("n/a".equals(value))
+				out.writeByte(BinaryLogFormat.CELL_NA);
+			else
+				writeStringCell((String) value);
+		} else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			out.writeByte(BinaryLogFormat.CELL_INT);
+			BinaryLogFormat.writeSignedVarint(out, ((Number) value).intValue());
+		} else if (value instanceof Long) {
+			out.writeByte(BinaryLogFormat.CELL_LONG);
+			BinaryLogFormat.writeSignedVarint(out, (Long) value);
+		} else if (value instanceof Double) {
+			out.writeByte(BinaryLogFormat.CELL_DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof Float) {
+			out.writeByte(BinaryLogFormat.CELL_FLOAT);
+			out.writeFloat((Float) value);
+		} else if (value instanceof Boolean) {
+			out.writeByte((Boolean) value ? BinaryLogFormat.CELL_TRUE : BinaryLogFormat.CELL_FALSE);
+		} else if (value instanceof List) {
+			List<?> list = (List<?>) value;
+			out.writeByte(BinaryLogFormat.CELL_LIST);
+			BinaryLogFormat.writeVarint(out, list.size());
+			for (Object o : list)
+				writeValue(o);
+		} else {
+			// keeps the JSON representation of anything else
+			writeStringCell(String.valueOf(value));
+		}
+	}
+
+	private void writeStringCell(String s) throws IOException {
+		Integer id = dictionary.get(s);
+		if (id != null) {
+			out.writeByte(BinaryLogFormat.CELL_STRING_REF);
+			BinaryLogFormat.writeVarint(out, id);
+		} else if (dictionary.size() < BinaryLogFormat.MAX_DICTIONARY) {
+			dictionary.put(s, dictionary.size());
+			out.writeByte(BinaryLogFormat.CELL_STRING_NEW);
+			BinaryLogFormat.writeString(out, s);
+		} else {
+			out.writeByte(BinaryLogFormat.CELL_STRING);
+			BinaryLogFormat.writeString(out, s);
+		}
+	}
+
+	void flush() throws IOException {
+		out.flush();
+	}
+
+	void close() throws IOException {
+		out.close();
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	int getRecordCount() {
+		return records;
+	}
+
+	long getCreated() {
+		return created;
+	}
+
+	/**
+	 * @return bytes written so far, including the buffered ones
+	 */
+	int getSize() {
+		return out.size();
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.util.Log;
+import at.univie.sensorium.SensorRegistry;
+import at.univie.sensorium.sensors.SensorSnapshot;
+
+/**
+ * Writes snapshots into one binary segment per sensor. Unlike LogWriter this
+ * has no thread of its own, records are encoded and buffered on the calling
+ * (subscription) thread and written out whenever the buffers fill up, at
+ * most FLUSH_INTERVAL after the last flush. Segments are rotated like the
+ * ones of LogWriter.
+ */
+class BinaryLogWriter {
+
+	private final LogManifest manifest;
+	private final long maxSegmentSize;
+	private final long maxSegmentAge;
+	private final Map<String, BinaryLogSegment> segments = new HashMap<String, BinaryLogSegment>();
+	private long lastFlush = System.currentTimeMillis();
+	private long recordsWritten = 0;
+
+	BinaryLogWriter(LogManifest manifest, long maxSegmentSize, long maxSegmentAge) {
+		this.manifest = manifest;
+		this.maxSegmentSize = maxSegmentSize;
+		this.maxSegmentAge = maxSegmentAge;
+	}
+
+	synchronized void write(SensorSnapshot snapshot) {
+		BinaryLogSegment segment = getSegment(snapshot.getSensorClassName());
+		if (segment == null) {
+			Log.d(SensorRegistry.TAG, "Can't get write access to log file, skipping");
+			return;
+		}
+		try {
+			segment.write(snapshot);
+			recordsWritten++;
+			long now = System.currentTimeMillis();
+			if (segment.getSize() >= maxSegmentSize || now - segment.getCreated() >= maxSegmentAge) {
+				segments.remove(snapshot.getSensorClassName());
+				close(segment);
+			}
+			if (now - lastFlush >= LogWriter.FLUSH_INTERVAL) {
+				for (BinaryLogSegment s : segments.values())
+					s.flush();
+				lastFlush = now;
+			}
+		} catch (IOException e) {
+			StringWriter sw = new StringWriter();
+			PrintWriter pw = new PrintWriter(sw);
+			e.printStackTrace(pw);
+			Log.d(SensorRegistry.TAG, sw.toString());
+		}
+	}
+
+	private BinaryLogSegment getSegment(String sensorname) {
+		BinaryLogSegment segment = segments.get(sensorname);
+		if (segment == null) {
+			try {
+				File extFile = manifest.newSegment(sensorname, ".bin");
+				segment = new BinaryLogSegment(extFile, sensorname);
+				segments.put(sensorname, segment);
+			} catch (IOException e) {
+				StringWriter sw = new StringWriter();
+				PrintWriter pw = new PrintWriter(sw);
+				e.printStackTrace(pw);
+				Log.d(SensorRegistry.TAG, sw.toString());
+			}
+		}
+		return segment;
+	}
+
+	synchronized void close() {
+		for (BinaryLogSegment segment : segments.values())
+			close(segment);
+		segments.clear();
+	}
+
+	private void close(BinaryLogSegment segment) {
+		try {
+			segment.close();
+			manifest.segmentClosed(segment.getFile(), segment.getRecordCount(), segment.getSize());
+			Log.d(SensorRegistry.TAG, segment.getFile().getName() + ": " + segment.getRecordCount() + " records, " + segment.getSize() + " bytes");
+		} catch (IOException e) {
+			StringWriter sw = new StringWriter();
+			PrintWriter pw = new PrintWriter(sw);
+			e.printStackTrace(pw);
+			Log.d(SensorRegistry.TAG, sw.toString());
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "BinaryLogWriter: " + recordsWritten + " records in " + segments.size() + " open segments";
+	}
+}
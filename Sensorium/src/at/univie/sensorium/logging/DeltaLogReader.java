@@ -0,0 +1,141 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.logging;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Rebuilds complete records from a log written in delta mode. A record with
+ * "delta": true only holds the values that changed since the previous record
+ * of the same segment, every other record is a keyframe with all values.
+ * Records have to be applied in order, starting with a keyframe (every
+ * segment starts with one). Does not depend on Android classes:
+ * 
+ * java -cp ... at.univie.sensorium.logging.DeltaLogReader in.json [out.json]
+ */
+public class DeltaLogReader {
+
+	private static final String DELTA = "delta";
+	// only valid for the record they appear in
+	private static final String COALESCED = "coalesced-updates";
+
+	private final Map<String, JsonElement> current = new LinkedHashMap<String, JsonElement>();
+
+	/**
+	 * @return the complete record; keyframes are returned as they are
+	 */
+	public JsonObject apply(JsonObject record) {
+		if (!record.has(DELTA)) {
+			current.clear();
+			for (Map.Entry<String, JsonElement> e : record.entrySet())
+				current.put(e.getKey(), e.getValue());
+			return record;
+		}
+		current.remove(COALESCED);
+		for (Map.Entry<String, JsonElement> e : record.entrySet()) {
+			if (!e.getKey().equals(DELTA))
+				current.put(e.getKey(), e.getValue());
+		}
+		JsonObject full = new JsonObject();
+		for (Map.Entry<String, JsonElement> e : current.entrySet())
+			full.add(e.getKey(), e.getValue());
+		return full;
+	}
+
+	/**
+	 * Reads a JSON array of records (a JSON segment, or the output of
+	 * FramedLogRepair) and writes the complete records as a JSON array.
+	 * 
+	 * @return the number of records
+	 */
+	public static int rebuild(Reader in, Writer out) throws IOException {
+		DeltaLogReader delta = new DeltaLogReader();
+		JsonParser parser = new JsonParser();
+		JsonReader reader = new JsonReader(in);
+		JsonWriter writer = new JsonWriter(out);
+		int count = 0;
+		reader.beginArray();
+		writer.beginArray();
+		while (reader.hasNext()) {
+			JsonObject record = parser.parse(reader).getAsJsonObject();
+			writeElement(writer, delta.apply(record));
+			count++;
+		}
+		writer.endArray();
+		reader.endArray();
+		writer.flush();
+		return count;
+	}
+
+	private static void writeElement(JsonWriter writer, JsonElement element) throws IOException {
+		if (element.isJsonObject()) {
+			writer.beginObject();
+			for (Map.Entry<String, JsonElement> e : element.getAsJsonObject().entrySet()) {
+				writer.name(e.getKey());
+				writeElement(writer, e.getValue());
+			}
+			writer.endObject();
+		} else if (element.isJsonArray()) {
+			writer.beginArray();
+			for (JsonElement e : element.getAsJsonArray())
+				writeElement(writer, e);
+			writer.endArray();
+		} else if (element.isJsonNull()) {
+			writer.nullValue();
+		} else if (element.getAsJsonPrimitive().isNumber()) {
+			writer.value(element.getAsNumber());
+		} else if (element.getAsJsonPrimitive().isBoolean()) {
+			writer.value(element.getAsBoolean());
+		} else {
+			writer.value(element.getAsString());
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: DeltaLogReader <segment.json> [<output.json>]");
+			System.exit(1);
+		}
+		Reader in = new InputStreamReader(new FileInputStream(args[0]), "UTF-8");
+		Writer out = new OutputStreamWriter(args.length > 1 ? new FileOutputStream(args[1]) : System.out, "UTF-8");
+		try {
+			int count = rebuild(in, out);
+			System.err.println(count + " records rebuilt");
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.logging;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Reads framed log segments. After MAGIC and VERSION a segment holds one
+ * frame per record: the length of the UTF-8 encoded JSON record, its CRC32
+ * (both as 4 byte big endian ints) and the record itself. Reading stops at
+ * the first frame that is incomplete or fails its checksum, everything from
+ * there on is what the process was writing when it got killed.
+ */
+public class FramedLogReader {
+
+	static final byte[] MAGIC = { 'S', 'N', 'S', 'F' };
+	static final int VERSION = 1;
+	static final int HEADER = MAGIC.length + 1;
+	static final int FRAME_HEADER = 8;
+	static final int MAX_RECORD = 16 * 1024 * 1024;
+
+	public static final String EXTENSION = ".jlog";
+
+	private final DataInputStream in;
+	private final CRC32 crc = new CRC32();
+	private long validLength = HEADER;
+	private int records = 0;
+	private boolean damaged = false;
+	private boolean done = false;
+
+	/**
+	 * Reads the segment header.
+	 * 
+	 * @throws IOException
+	 *             if the stream is not a framed log segment
+	 */
+	public FramedLogReader(InputStream stream) throws IOException {
+		in = new DataInputStream(new BufferedInputStream(stream));
+		byte[] magic = new byte[MAGIC.length];
+		in.readFully(magic);
+		if (!Arrays.equals(magic, MAGIC))
+			throw new IOException("Not a framed sensor log");
+		int version = in.readUnsignedByte();
+		if (version != VERSION)
+			throw new IOException("Unsupported framed log version " + version);
+	}
+
+	/**
+	 * @return the next valid JSON record, null at the end of the valid part
+	 */
+	public String next() throws IOException {
+		if (done)
+			return null;
+		try {
+			int first = in.read();
+			if (first < 0) {
+				done = true; // clean end
+				return null;
+			}
+			int length = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+			int checksum = in.readInt();
+			if (length < 0 || length > MAX_RECORD)
+				return stop();
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			crc.reset();
+			crc.update(bytes, 0, length);
+			if ((int) crc.getValue() != checksum)
+				return stop();
+			validLength += FRAME_HEADER + length;
+			records++;
+			return new String(bytes, "UTF-8");
+		} catch (EOFException e) {
+			return stop();
+		}
+	}
+
+	private String stop() {
+		damaged = true;
+		done = true;
+		return null;
+	}
+
+	/**
+	 * @return the number of bytes up to and including the last valid record
+	 */
+	public long getValidLength() {
+		return validLength;
+	}
+
+	public int getRecordCount() {
+		return records;
+	}
+
+	/**
+	 * @return true if reading stopped at an incomplete or corrupt frame
+	 */
+	public boolean isDamaged() {
+		return damaged;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.logging;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+
+/**
+ * Recovery and conversion of framed log segments. recover() cuts a segment
+ * back to its last valid record, toJSON() turns a segment into the JSON
+ * array JSONLogger writes. Does not depend on Android classes, so it can
+ * also be used as a command line tool:
+ * 
+ * java -cp ... at.univie.sensorium.logging.FramedLogRepair in.jlog [out.json]
+ */
+public class FramedLogRepair {
+
+	/**
+	 * Truncates the segment after its last valid record.
+	 * 
+	 * @return the number of valid records
+	 */
+	public static int recover(File file) throws IOException {
+		FramedLogReader reader = new FramedLogReader(new FileInputStream(file));
+		try {
+			while (reader.next() != null)
+				;
+		} finally {
+			reader.close();
+		}
+		if (file.length() > reader.getValidLength()) {
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(reader.getValidLength());
+			} finally {
+				raf.close();
+			}
+		}
+		return reader.getRecordCount();
+	}
+
+	/**
+	 * Writes the valid records of a segment as a JSON array.
+	 * 
+	 * @return the number of records written
+	 */
+	public static int toJSON(InputStream in, Writer out) throws IOException {
+		FramedLogReader reader = new FramedLogReader(in);
+		out.write('[');
+		String record;
+		while ((record = reader.next()) != null) {
+			if (reader.getRecordCount() > 1)
+				out.write(',');
+			out.write(record);
+		}
+		out.write(']');
+		out.flush();
+		return reader.getRecordCount();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: FramedLogRepair <segment.jlog> [<output.json>]");
+			System.exit(1);
+		}
+		InputStream in = new FileInputStream(args[0]);
+		Writer out = new OutputStreamWriter(args.length > 1 ? new FileOutputStream(args[1]) : System.out, "UTF-8");
+		try {
+			int count = toJSON(in, out);
+			System.err.println(count + " records recovered");
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+}
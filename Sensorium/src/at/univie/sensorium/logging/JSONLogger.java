@@ -27,27 +27,22 @@ import android.os.Environment;
 import android.os.Handler;
 import android.util.Log;
 
-import com.google.gson.stream.JsonWriter;
-
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 import at.univie.sensorium.SensorRegistry;
+import at.univie.sensorium.events.SensorEventBus.OverflowPolicy;
+import at.univie.sensorium.events.SensorSubscription;
 import at.univie.sensorium.extinterfaces.HTTPSUploader;
 import at.univie.sensorium.preferences.Preferences;
 import at.univie.sensorium.privacy.Privacy;
 import at.univie.sensorium.sensors.AbstractSensor;
-import at.univie.sensorium.sensors.NestedSensorValue;
-import at.univie.sensorium.sensors.SensorChangeListener;
-import at.univie.sensorium.sensors.SensorValue;
+import at.univie.sensorium.sensors.SensorSnapshot;
+import at.univie.sensorium.sensors.SensorSnapshotListener;
 
 
 /**
@@ -56,15 +51,39 @@ import at.univie.sensorium.sensors.SensorValue;
  * 
  * 
  */
-public class JSONLogger implements SensorChangeListener {
+public class JSONLogger implements SensorSnapshotListener {
+
+	/**
+	 * Format of the log segments, selected by Preferences.LOGGING_FORMAT_PREF.
+	 * BINARY segments can be turned back into JSON with BinaryLogConverter,
+	 * FRAMED ones with FramedLogRepair.
+	 */
+	public static enum LogFormat {
+		JSON, BINARY, FRAMED
+	}
+
+	// records are written on the subscription's worker thread, this bounds
+	// how far the writer may fall behind the sensors
+	private static final int QUEUE_CAPACITY = 512;
 
 	private List<AbstractSensor> sensors;
+	private SensorSubscription subscription;
+
+	// segments are rotated at these defaults unless configured otherwise
+	private static final int DEFAULT_SEGMENT_SIZE = 4096; // KB
+	private static final int DEFAULT_SEGMENT_AGE = 3600; // s
 
-	private Map<String, JsonWriter> jsonMap;
-	private Map<String, FileWriter> writerMap;
-	private List<File> files;
+	private LogWriter logwriter;
+	private BinaryLogWriter binarylogwriter;
+	private LogManifest manifest;
 	File extDir;
 
+	// change-only logging, see JSONRecordWriter
+	private static final int DEFAULT_KEYFRAME_INTERVAL = 100; // records
+	private boolean delta;
+	// only used on the subscription's thread
+	private JSONRecordWriter recordwriter;
+
 	public JSONLogger() {
 	}
 
@@ -74,53 +93,81 @@ public class JSONLogger implements SensorChangeListener {
 	}
 
 	private void init() {
-		jsonMap = new HashMap<String, JsonWriter>();
-		writerMap = new HashMap<String, FileWriter>();
-		files = new LinkedList<File>();
 		// TODO: needs to check if there is external storage, else die (toast
 		// message?) gracefully
 		extDir = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/sensorium");
 		extDir.mkdirs();
+		if (manifest == null) {
+			manifest = new LogManifest(extDir);
+			recoverSegments();
+		}
+
+		Preferences prefs = SensorRegistry.getInstance().getPreferences();
+		long maxSize = prefs.getInt(Preferences.LOGGING_SEGMENT_SIZE_PREF, DEFAULT_SEGMENT_SIZE) * 1024L;
+		long maxAge = prefs.getInt(Preferences.LOGGING_SEGMENT_AGE_PREF, DEFAULT_SEGMENT_AGE) * 1000L;
+		LogFormat format = getLogFormat();
+		if (format == LogFormat.BINARY) {
+			binarylogwriter = new BinaryLogWriter(manifest, maxSize, maxAge);
+			logwriter = null;
+		} else {
+			boolean compressed = prefs.getBoolean(Preferences.LOGGING_COMPRESS_PREF, false);
+			logwriter = new LogWriter(manifest, compressed, format == LogFormat.FRAMED, maxSize, maxAge);
+			binarylogwriter = null;
+		}
+		delta = prefs.getBoolean(Preferences.LOGGING_DELTA_PREF, false);
+		// new segments start with keyframes
+		recordwriter = new JSONRecordWriter(delta, prefs.getInt(Preferences.LOGGING_KEYFRAME_INTERVAL_PREF, DEFAULT_KEYFRAME_INTERVAL));
+
+		subscription = SensorRegistry.getInstance().getEventBus().subscribe(this, null, getOverflowPolicy(), QUEUE_CAPACITY);
+	}
 
-		for (AbstractSensor sensor : sensors) {
-			sensor.addListener(this);
+	/**
+	 * Coalescing by default: the queue then holds at most one snapshot per
+	 * sensor, so it never overflows and a writer that falls behind logs each
+	 * sensor's latest values instead of silently losing whole records.
+	 * Unlike BLOCK it never stalls the sensors' threads.
+	 */
+	private OverflowPolicy getOverflowPolicy() {
+		String policy = SensorRegistry.getInstance().getPreferences().getString(Preferences.LOGGING_QUEUE_POLICY, OverflowPolicy.COALESCE_PER_SENSOR.name());
+		try {
+			return OverflowPolicy.valueOf(policy);
+		} catch (IllegalArgumentException e) {
+			Log.d(SensorRegistry.TAG, "Unknown logging queue policy " + policy + ", coalescing per sensor instead");
+			return OverflowPolicy.COALESCE_PER_SENSOR;
 		}
 	}
 
-	private JsonWriter getWriterForName(String sensorname) {
-		JsonWriter writer = jsonMap.get(sensorname);
-		if (writer == null) {
+	/**
+	 * Segments that are still open in the manifest were left behind by a
+	 * killed process. Framed segments are cut back to their last complete
+	 * record, binary ones can be read up to there as they are. JSON arrays
+	 * can't be repaired reliably and are left open.
+	 */
+	private void recoverSegments() {
+		for (LogManifest.Segment segment : manifest.getSegments()) {
+			if (segment.getState() != LogManifest.State.OPEN)
+				continue;
+			File file = segment.getFile();
 			try {
-				String filename = sensorname.substring(sensorname.lastIndexOf('.') + 1) + ".json";
-				File extFile = new File(extDir, filename);
-				if (extFile.exists()) {
-					// get the first free filename.number
-					int i = 0;
-					boolean done = false;
-					while (!done) {
-						File f = new File(extDir, filename + "." + String.valueOf(i++));
-						if (f.exists())
-							continue;
-						extFile.renameTo(f);
-						extFile = new File(extDir, filename); // reset extFile
-																// to original
-																// pointer
-						done = true;
+				if (file.getName().endsWith(FramedLogReader.EXTENSION)) {
+					long before = file.length();
+					int records = FramedLogRepair.recover(file);
+					manifest.segmentClosed(file, records, file.length());
+					Log.d(SensorRegistry.TAG, "Recovered " + records + " records from " + file.getName() + ", dropped " + (before - file.length()) + " bytes");
+				} else if (file.getName().endsWith(".bin")) {
+					int records = 0;
+					BinaryLogReader reader = new BinaryLogReader(new FileInputStream(file));
+					try {
+						while (reader.next() != null)
+							records++;
+					} finally {
+						reader.close();
 					}
+					manifest.segmentClosed(file, records, file.length());
+					Log.d(SensorRegistry.TAG, "Recovered " + records + " records from " + file.getName());
+				} else {
+					Log.d(SensorRegistry.TAG, file.getName() + " was not closed and can't be recovered");
 				}
-				FileWriter fw = new FileWriter(extFile);
-				writer = new JsonWriter(fw);
-				writer.beginArray();
-				jsonMap.put(sensorname, writer);
-				writerMap.put(sensorname, fw);
-				files.add(extFile);
-			} catch (FileNotFoundException e) {
-				StringWriter sw = new StringWriter();
-				PrintWriter pw = new PrintWriter(sw);
-				e.printStackTrace(pw);
-				Log.d(SensorRegistry.TAG, sw.toString());
-				jsonMap.remove(sensorname);
-				writerMap.remove(sensorname);
 			} catch (IOException e) {
 				StringWriter sw = new StringWriter();
 				PrintWriter pw = new PrintWriter(sw);
@@ -128,8 +175,16 @@ public class JSONLogger implements SensorChangeListener {
 				Log.d(SensorRegistry.TAG, sw.toString());
 			}
 		}
+	}
 
-		return writer;
+	private LogFormat getLogFormat() {
+		String format = SensorRegistry.getInstance().getPreferences().getString(Preferences.LOGGING_FORMAT_PREF, LogFormat.JSON.name());
+		try {
+			return LogFormat.valueOf(format);
+		} catch (IllegalArgumentException e) {
+			Log.d(SensorRegistry.TAG, "Unknown logging format " + format + ", writing JSON instead");
+			return LogFormat.JSON;
+		}
 	}
 
 	private boolean externalMediaWriteable() {
@@ -142,76 +197,50 @@ public class JSONLogger implements SensorChangeListener {
 		return false;
 	}
 
-	private void writeObject(AbstractSensor sensor) {
+	private void writeObject(SensorSnapshot sensor) {
+		if (binarylogwriter != null) {
+			if (externalMediaWriteable())
+				binarylogwriter.write(sensor);
+			return;
+		}
 		if(externalMediaWriteable()){
-			JsonWriter jw = getWriterForName(sensor.getClass().getName());
-			List<SensorValue> valuelist = sensor.getSensorValues();
-			if (jw != null) {
-				try {
-					jw.beginObject();
-					jw.name("privacy-level").value(sensor.getPrivacylevel().name());
-					for (SensorValue value : valuelist) {
-                        if(value.isNested()){
-                            jw.name(value.getType().getName());
-                            jw.beginArray();
-                            List<NestedSensorValue> nested = (List<NestedSensorValue>) value.getValue();
-                            for(NestedSensorValue nsv: nested){
-                                List<SensorValue> values = nsv.getInnerSensorValues();
-                                jw.beginObject();
-                                for(SensorValue nestedvalue: values){
-                                    SensorValue privatized = Privacy.anonymize(nestedvalue, sensor.getPrivacylevel());
-                                    jw.name(privatized.getType().getName()).value(privatized.getValueRepresentation());
-                                }
-                                jw.endObject();
-
-                            }
-                            jw.endArray();
-                        } else{
-                            SensorValue privatized = Privacy.anonymize(value, sensor.getPrivacylevel());
-                            jw.name(privatized.getType().getName()).value(privatized.getValueRepresentation());
-                        }
-					}
-					jw.endObject();
-					writerMap.get(sensor.getClass().getName()).flush();
-				} catch (IOException e) {
-					StringWriter sw = new StringWriter();
-					PrintWriter pw = new PrintWriter(sw);
-					e.printStackTrace(pw);
-					Log.d(SensorRegistry.TAG, sw.toString());
-				}
-			} else {
-				Log.d(SensorRegistry.TAG, "Can't get write access to log file, skipping");
+			try {
+				boolean requested = delta && logwriter.takeKeyframeRequest(sensor.getSensorClassName()); // segment rotation
+				String record = recordwriter.write(sensor, requested);
+				// the actual file I/O happens batched on the log writer thread
+				logwriter.append(sensor.getSensorClassName(), record, recordwriter.isKeyframe());
+			} catch (IOException e) {
+				StringWriter sw = new StringWriter();
+				PrintWriter pw = new PrintWriter(sw);
+				e.printStackTrace(pw);
+				Log.d(SensorRegistry.TAG, sw.toString());
 			}
 		}
 	}
 
 	@Override
-	public void sensorUpdated(AbstractSensor sensor) {
-		writeObject(sensor);
+	public void sensorUpdated(SensorSnapshot snapshot) {
+		writeObject(snapshot);
 	}
 
 	public void finalizeLog() {
 //		String id = UUID.randomUUID().toString();
-		for (AbstractSensor s : SensorRegistry.getInstance().getSensors()) {
-			s.removeListener(this);
-		}
-		for (JsonWriter js : jsonMap.values()) {
-			try {
-//				js.beginObject();
-//				js.name("id").value(id);
-//				js.endObject();
-				js.endArray();
-				js.flush();		// added on 2013-04-09; does this help in fixing the missing ]?
-				js.close();   	// added on 2013-04-09; does this help in fixing the missing ]?
-			} catch (IOException e) {
-				StringWriter sw = new StringWriter();
-				PrintWriter pw = new PrintWriter(sw);
-				e.printStackTrace(pw);
-				Log.d(SensorRegistry.TAG, sw.toString());
-			}
+		if (subscription != null)
+			Log.d(SensorRegistry.TAG, "Logging queue: " + subscription.toString());
+		// waits until the queued records have been written
+		SensorRegistry.getInstance().getEventBus().unsubscribe(subscription);
+		subscription = null;
+		// writes the pending records, terminates the json arrays and closes
+		// the files
+		if (binarylogwriter != null) {
+			Log.d(SensorRegistry.TAG, binarylogwriter.toString());
+			binarylogwriter.close();
+		} else {
+			Log.d(SensorRegistry.TAG, logwriter.toString());
+			logwriter.close();
 		}
-		// JSONWriter.close() already flushes/closes underlying writer,
-		// so explicity closing the FileWriter would always throw an exception
+		Log.d(SensorRegistry.TAG, manifest.toString());
+		Log.d(SensorRegistry.TAG, Privacy.getHashCacheStats());
 	}
 
 	public void upload() {
@@ -226,7 +255,9 @@ public class JSONLogger implements SensorChangeListener {
 		Preferences prefs = SensorRegistry.getInstance().getPreferences();
 		String uploadusername = prefs.getString(Preferences.UPLOAD_USERNAME, "");
 		String uploadpassword = prefs.getString(Preferences.UPLOAD_PASSWORD, "");
-		new HTTPSUploader(uploadurl, uploadusername, uploadpassword).execute(files);
+		// every closed segment that was not uploaded yet, including rotated ones
+		List<File> files = manifest.getFiles(LogManifest.State.CLOSED);
+		new HTTPSUploader(uploadurl, uploadusername, uploadpassword, manifest).execute(files);
 		init(); // restart the logging
 	}
 
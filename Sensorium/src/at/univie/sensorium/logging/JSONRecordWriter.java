@@ -0,0 +1,167 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.logging;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import at.univie.sensorium.privacy.Privacy;
+import at.univie.sensorium.privacy.PrivacyPlan;
+import at.univie.sensorium.sensors.NestedSensorValue;
+import at.univie.sensorium.sensors.SensorSnapshot;
+import at.univie.sensorium.sensors.SensorValue;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Formats the anonymized values of a snapshot as one JSON record, the way
+ * JSONLogger writes them. Nested values are written as arrays of objects,
+ * each inner value anonymized by itself. In delta mode values that did not
+ * change since the sensor's previous record are left out, except in
+ * keyframes.
+ *
+ * The buffers are reused for every record, so a writer must only be used by
+ * one thread.
+ */
+class JSONRecordWriter {
+
+	private final boolean delta;
+	private final int keyframeInterval;
+	private final Map<String, DeltaState> deltastates = new HashMap<String, DeltaState>();
+
+	private final StringWriter recordbuffer = new StringWriter();
+	private final Map<String, SensorValue[]> outputrecords = new HashMap<String, SensorValue[]>();
+	private final SensorValue nestedbuffer = new SensorValue(SensorValue.UNIT.OTHER, SensorValue.TYPE.OTHER);
+	private boolean keyframe = true;
+
+	/**
+	 * The values last written for one sensor in delta mode.
+	 */
+	private static class DeltaState {
+		String[] values;
+		Privacy.PrivacyLevel level;
+		int sinceKeyframe = 0;
+	}
+
+	/**
+	 * @param delta
+	 *            leave out unchanged values
+	 * @param keyframeInterval
+	 *            records between two keyframes in delta mode
+	 */
+	JSONRecordWriter(boolean delta, int keyframeInterval) {
+		this.delta = delta;
+		this.keyframeInterval = keyframeInterval;
+	}
+
+	/**
+	 * @param keyframeRequested
+	 *            write all values even in delta mode, e.g. for the first
+	 *            record of a new segment
+	 * @return the record, valid until the next call
+	 */
+	@SuppressWarnings("unchecked")
+	String write(SensorSnapshot sensor, boolean keyframeRequested) throws IOException {
+		List<SensorValue> valuelist = sensor.getSensorValues();
+		Privacy.PrivacyLevel level = sensor.getPrivacylevel();
+		DeltaState state = null;
+		keyframe = true;
+		if (delta) {
+			state = deltastates.get(sensor.getSensorClassName());
+			if (state == null) {
+				state = new DeltaState();
+				deltastates.put(sensor.getSensorClassName(), state);
+			}
+			keyframe = keyframeRequested || state.values == null || state.values.length != valuelist.size() || state.level != level || state.sinceKeyframe >= keyframeInterval;
+			if (keyframe) {
+				state.values = new String[valuelist.size()];
+				state.level = level;
+				state.sinceKeyframe = 0;
+			} else {
+				state.sinceKeyframe++;
+			}
+		}
+
+		recordbuffer.getBuffer().setLength(0);
+		JsonWriter jw = new JsonWriter(recordbuffer);
+		jw.beginObject();
+		jw.name("privacy-level").value(level.name());
+		if (!keyframe)
+			jw.name("delta").value(true);
+		if (sensor.getAbsorbedUpdates() > 1)
+			jw.name("coalesced-updates").value(sensor.getAbsorbedUpdates());
+		PrivacyPlan plan = sensor.getPrivacyPlan();
+		SensorValue[] privatized = getOutputRecord(sensor.getSensorClassName(), plan);
+		plan.apply(valuelist, privatized);
+		for (int i = 0; i < valuelist.size(); i++) {
+			SensorValue value = valuelist.get(i);
+			if (value.isNested()) {
+				// nested lists (scan results, cores, interfaces) are always written
+				jw.name(value.getType().getName());
+				jw.beginArray();
+				for (NestedSensorValue nsv : (List<NestedSensorValue>) value.getValue()) {
+					List<SensorValue> values = nsv.getInnerSensorValues();
+					jw.beginObject();
+					for (int j = 0; j < values.size(); j++) {
+						Privacy.getTransform(values.get(j).getType(), level).apply(values, j, nestedbuffer);
+						jw.name(nestedbuffer.getType().getName()).value(nestedbuffer.getValueRepresentation());
+					}
+					jw.endObject();
+				}
+				jw.endArray();
+			} else {
+				String representation = privatized[i].getValueRepresentation();
+				if (state != null) {
+					// in delta mode unchanged values are left out
+					if (!keyframe && representation.equals(state.values[i]))
+						continue;
+					state.values[i] = representation;
+				}
+				jw.name(privatized[i].getType().getName()).value(representation);
+			}
+		}
+		jw.endObject();
+		jw.flush();
+		return recordbuffer.toString();
+	}
+
+	/**
+	 * @return whether the last record written has all values
+	 */
+	boolean isKeyframe() {
+		return keyframe;
+	}
+
+	/**
+	 * @return the reusable record the privacy plan writes into for a sensor
+	 */
+	private SensorValue[] getOutputRecord(String sensorname, PrivacyPlan plan) {
+		SensorValue[] record = outputrecords.get(sensorname);
+		if (record == null || record.length != plan.size()) {
+			record = plan.newRecord();
+			outputrecords.put(sensorname, record);
+		}
+		return record;
+	}
+}
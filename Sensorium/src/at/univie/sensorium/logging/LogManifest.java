@@ -0,0 +1,363 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.logging;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import android.util.Log;
+import at.univie.sensorium.SensorRegistry;
+
+/**
+ * Append-only record of the log segments in the log directory. Every segment
+ * gets a sequence number from the manifest, so naming a new segment never has
+ * to probe the file system, and the uploader can list finished segments
+ * without scanning the directory.
+ *
+ * One line per event: "O seq file sensor time" when a segment is opened,
+ * "C file records bytes time" when it is closed and "U file time" when it
+ * was uploaded. The file is read once on construction. Segments that are
+ * still OPEN at that point were not closed cleanly by the previous run.
+ *
+ * On construction and whenever a segment is rotated out, the manifest is
+ * rewritten to the current state if most of its lines are obsolete. The
+ * rewrite leaves out uploaded segments and those whose files are gone, and
+ * starts with "N seq" to keep the numbering going.
+ */
+public class LogManifest {
+
+	public static final String FILENAME = "manifest.txt";
+
+	// small manifests are not worth rewriting
+	private static final int COMPACT_MIN_LINES = 64;
+
+	public static enum State {
+		OPEN, CLOSED, UPLOADED
+	}
+
+	/**
+	 * What the manifest knows about one segment.
+	 */
+	public static class Segment {
+		private final long seq;
+		private final File file;
+		private final String sensorname;
+		private final long created;
+		private State state = State.OPEN;
+		private int records = 0;
+		private long size = 0;
+
+		Segment(long seq, File file, String sensorname, long created) {
+			this.seq = seq;
+			this.file = file;
+			this.sensorname = sensorname;
+			this.created = created;
+		}
+
+		public long getSeq() {
+			return seq;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public String getSensorName() {
+			return sensorname;
+		}
+
+		public long getCreated() {
+			return created;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		public int getRecordCount() {
+			return records;
+		}
+
+		public long getSize() {
+			return size;
+		}
+	}
+
+	private final File dir;
+	private final File manifestFile;
+	private final Map<String, Segment> segments = new LinkedHashMap<String, Segment>();
+	private Writer out;
+	private long nextSeq = 0;
+	private int lines = 0; // in the file
+
+	public LogManifest(File dir) {
+		this.dir = dir;
+		this.manifestFile = new File(dir, FILENAME);
+		boolean stale = load();
+		if (stale || isMostlyObsolete())
+			compact(true);
+	}
+
+	/**
+	 * Names and registers a new segment for a sensor.
+	 * 
+	 * @param extension
+	 *            file extension including the dot, e.g. ".json"
+	 */
+	public synchronized File newSegment(String sensorname, String extension) {
+		String basename = sensorname.substring(sensorname.lastIndexOf('.') + 1);
+		File file = new File(dir, basename + "-" + nextSeq + extension);
+		while (file.exists()) // only if the manifest was lost
+			file = new File(dir, basename + "-" + (++nextSeq) + extension);
+		long now = System.currentTimeMillis();
+		Segment segment = new Segment(nextSeq++, file, sensorname, now);
+		segments.put(file.getName(), segment);
+		append("O " + segment.seq + " " + file.getName() + " " + sensorname + " " + now);
+		return file;
+	}
+
+	public synchronized void segmentClosed(File file, int records, long size) {
+		Segment segment = segments.get(file.getName());
+		if (segment == null)
+			return;
+		segment.state = State.CLOSED;
+		segment.records = records;
+		segment.size = size;
+		append("C " + file.getName() + " " + records + " " + size + " " + System.currentTimeMillis());
+		if (isMostlyObsolete())
+			compact(false);
+	}
+
+	public synchronized void segmentUploaded(File file) {
+		Segment segment = segments.get(file.getName());
+		if (segment == null || segment.state == State.UPLOADED)
+			return;
+		segment.state = State.UPLOADED;
+		append("U " + file.getName() + " " + System.currentTimeMillis());
+	}
+
+	/**
+	 * @return the files of all segments in the given state, oldest first
+	 */
+	public synchronized List<File> getFiles(State state) {
+		List<File> files = new LinkedList<File>();
+		for (Segment segment : segments.values()) {
+			if (segment.state == state)
+				files.add(segment.file);
+		}
+		return files;
+	}
+
+	/**
+	 * @return all known segments, oldest first
+	 */
+	public synchronized List<Segment> getSegments() {
+		return new LinkedList<Segment>(segments.values());
+	}
+
+	public synchronized void close() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				StringWriter sw = new StringWriter();
+				PrintWriter pw = new PrintWriter(sw);
+				e.printStackTrace(pw);
+				Log.d(SensorRegistry.TAG, sw.toString());
+			}
+			out = null;
+		}
+	}
+
+	private void append(String line) {
+		try {
+			if (out == null)
+				out = new OutputStreamWriter(new FileOutputStream(manifestFile, true), "UTF-8");
+			out.write(line);
+			out.write('\n');
+			out.flush();
+			lines++;
+		} catch (IOException e) {
+			StringWriter sw = new StringWriter();
+			PrintWriter pw = new PrintWriter(sw);
+			e.printStackTrace(pw);
+			Log.d(SensorRegistry.TAG, sw.toString());
+		}
+	}
+
+	/**
+	 * @return true if the manifest mentions files that are gone
+	 */
+	private boolean load() {
+		if (!manifestFile.exists())
+			return false;
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), "UTF-8"));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines++;
+				String[] f = line.split(" ");
+				try {
+					if (f[0].equals("N") && f.length == 2) {
+						nextSeq = Math.max(nextSeq, Long.parseLong(f[1]));
+					} else if (f[0].equals("O") && f.length == 5) {
+						long seq = Long.parseLong(f[1]);
+						segments.put(f[2], new Segment(seq, new File(dir, f[2]), f[3], Long.parseLong(f[4])));
+						nextSeq = Math.max(nextSeq, seq + 1);
+					} else if (f[0].equals("C") && f.length == 5) {
+						Segment segment = segments.get(f[1]);
+						if (segment != null) {
+							segment.state = State.CLOSED;
+							segment.records = Integer.parseInt(f[2]);
+							segment.size = Long.parseLong(f[3]);
+						}
+					} else if (f[0].equals("U") && f.length == 3) {
+						Segment segment = segments.get(f[1]);
+						if (segment != null)
+							segment.state = State.UPLOADED;
+					}
+				} catch (NumberFormatException e) {
+					// a torn last line after a crash, ignore it
+				}
+			}
+		} catch (IOException e) {
+			StringWriter sw = new StringWriter();
+			PrintWriter pw = new PrintWriter(sw);
+			e.printStackTrace(pw);
+			Log.d(SensorRegistry.TAG, sw.toString());
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					// nothing left to do
+				}
+			}
+		}
+
+		boolean stale = false;
+		for (Segment segment : segments.values()) {
+			if (!segment.file.exists()) {
+				stale = true;
+				break;
+			}
+		}
+		return stale;
+	}
+
+	/**
+	 * @return true if the file has more than twice the lines a rewrite would
+	 *         have
+	 */
+	private boolean isMostlyObsolete() {
+		if (lines < COMPACT_MIN_LINES)
+			return false;
+		int live = 1;
+		for (Segment segment : segments.values()) {
+			if (segment.state == State.OPEN)
+				live++;
+			else if (segment.state == State.CLOSED)
+				live += 2;
+		}
+		return lines > 2 * live;
+	}
+
+	/**
+	 * Rewrites the manifest to the current state, without the uploaded
+	 * segments and the ones whose files are gone.
+	 * 
+	 * @param loading
+	 *            also drop OPEN segments without a file, at runtime their
+	 *            files may be about to be created
+	 */
+	private void compact(boolean loading) {
+		close(); // the next append reopens the new file
+		File tmp = new File(dir, FILENAME + ".tmp");
+		Writer w = null;
+		try {
+			w = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+			w.write("N " + nextSeq + "\n");
+			int written = 1;
+			Iterator<Segment> it = segments.values().iterator();
+			while (it.hasNext()) {
+				Segment segment = it.next();
+				if (segment.state == State.UPLOADED || ((loading || segment.state != State.OPEN) && !segment.file.exists())) {
+					it.remove();
+					continue;
+				}
+				String name = segment.file.getName();
+				w.write("O " + segment.seq + " " + name + " " + segment.sensorname + " " + segment.created + "\n");
+				written++;
+				if (segment.state == State.CLOSED) {
+					w.write("C " + name + " " + segment.records + " " + segment.size + " " + segment.created + "\n");
+					written++;
+				}
+			}
+			w.close();
+			w = null;
+			if (tmp.renameTo(manifestFile))
+				lines = written;
+			else
+				Log.d(SensorRegistry.TAG, "Could not replace the log manifest");
+		} catch (IOException e) {
+			StringWriter sw = new StringWriter();
+			PrintWriter pw = new PrintWriter(sw);
+			e.printStackTrace(pw);
+			Log.d(SensorRegistry.TAG, sw.toString());
+		} finally {
+			if (w != null) {
+				try {
+					w.close();
+				} catch (IOException e) {
+					// nothing left to do
+				}
+			}
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		int open = 0, closed = 0, uploaded = 0;
+		for (Segment segment : segments.values()) {
+			if (segment.state == State.OPEN)
+				open++;
+			else if (segment.state == State.CLOSED)
+				closed++;
+			else
+				uploaded++;
+		}
+		return "LogManifest: " + open + " open, " + closed + " closed, " + uploaded + " uploaded segments";
+	}
+}
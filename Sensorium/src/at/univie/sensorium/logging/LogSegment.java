@@ -0,0 +1,294 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.logging;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+
+/**
+ * One per-sensor log file holding a JSON array of records. Records are
+ * collected in memory and only written out on flush(), which is driven by
+ * the LogWriter thread.
+ *
+ * Framed segments hold the records as length/CRC framed entries instead
+ * (see FramedLogReader), which can be cut back to the last complete record
+ * after the process was killed.
+ *
+ * Compressed segments are written through one Deflater per segment (see
+ * GzipWriter), so the dictionary carries over from one flush to the next.
+ */
+class LogSegment {
+
+	private final File file;
+	private final OutputStream out;
+	private final GzipWriter gzip;
+	private final boolean compressed;
+	private final boolean framed;
+	private final long created = System.currentTimeMillis();
+	private final StringBuilder pending = new StringBuilder();
+	private final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+	private final DataOutputStream frameout = new DataOutputStream(frames);
+	private final CRC32 crc = new CRC32();
+	private boolean empty = true;
+	private int records = 0;
+	private long rawBytes = 0;
+	private long storedBytes = 0;
+
+	/**
+	 * @param framed
+	 *            write length/CRC framed records instead of a JSON array,
+	 *            framed segments are never compressed
+	 */
+	LogSegment(File file, boolean compressed, boolean framed) throws IOException {
+		this(file, compressed, framed, Build.VERSION.SDK_INT >= 19); // KITKAT
+	}
+
+	/**
+	 * @param syncflush
+	 *            end every flush of a compressed segment in a sync flush
+	 *            point, needs API level 19
+	 */
+	LogSegment(File file, boolean compressed, boolean framed, boolean syncflush) throws IOException {
+		this.file = file;
+		this.framed = framed;
+		this.compressed = compressed && !framed;
+		this.out = new FileOutputStream(file);
+		this.gzip = this.compressed ? new GzipWriter(out, syncflush) : null;
+		if (framed) {
+			frameout.write(FramedLogReader.MAGIC);
+			frameout.writeByte(FramedLogReader.VERSION);
+		} else {
+			pending.append('[');
+		}
+	}
+
+	/**
+	 * @return the number of chars (bytes for framed segments) added to the
+	 *         pending buffer
+	 */
+	int append(String record) throws IOException {
+		if (framed) {
+			byte[] bytes = record.getBytes("UTF-8");
+			crc.reset();
+			crc.update(bytes, 0, bytes.length);
+			frameout.writeInt(bytes.length);
+			frameout.writeInt((int) crc.getValue());
+			frameout.write(bytes);
+			records++;
+			return bytes.length + FramedLogReader.FRAME_HEADER;
+		}
+		int before = pending.length();
+		if (!empty)
+			pending.append(',');
+		pending.append(record);
+		empty = false;
+		records++;
+		return pending.length() - before;
+	}
+
+	boolean isDirty() {
+		return pending.length() > 0 || frames.size() > 0;
+	}
+
+	void flush() throws IOException {
+		if (isDirty()) {
+			byte[] bytes;
+			if (framed) {
+				bytes = frames.toByteArray();
+				frames.reset();
+			} else {
+				bytes = pending.toString().getBytes("UTF-8");
+				pending.setLength(0);
+			}
+			rawBytes += bytes.length;
+			if (compressed) {
+				storedBytes += gzip.write(bytes);
+			} else {
+				out.write(bytes);
+				storedBytes += bytes.length;
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Terminates the JSON array and closes the file.
+	 */
+	void close() throws IOException {
+		if (!framed)
+			pending.append(']');
+		try {
+			flush();
+			if (compressed)
+				storedBytes += gzip.finish();
+		} finally {
+			if (compressed)
+				gzip.end();
+			out.close();
+		}
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	int getRecordCount() {
+		return records;
+	}
+
+	long getCreated() {
+		return created;
+	}
+
+	/**
+	 * @return bytes stored so far plus the pending chars
+	 */
+	long getSize() {
+		return storedBytes + pending.length() + frames.size();
+	}
+
+	/**
+	 * @return bytes of JSON written so far, before compression
+	 */
+	long getRawBytes() {
+		return rawBytes;
+	}
+
+	/**
+	 * @return bytes written to the file so far
+	 */
+	long getStoredBytes() {
+		return storedBytes;
+	}
+
+	/**
+	 * Writes a gzip stream with a single Deflater. From API level 19 every
+	 * write ends in a sync flush point, so after a crash the file
+	 * decompresses up to the last flush; only the trailer is missing. Before
+	 * that only NO_FLUSH is available: output is written as the Deflater
+	 * produces it and a gzip member is finished every MEMBER_SIZE bytes of
+	 * input, so a crash loses at most what the Deflater still buffered of the
+	 * last MEMBER_SIZE bytes.
+	 */
+	private static class GzipWriter {
+		private static final int MEMBER_SIZE = 64 * 1024;
+		// deflate, no flags, no modification time, unknown OS
+		private static final byte[] HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+		private final OutputStream out;
+		private final boolean syncflush;
+		private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		private final CRC32 crc = new CRC32();
+		private final byte[] buffer = new byte[8192];
+		private int memberSize = -1; // -1 until the header of the member is written
+
+		GzipWriter(OutputStream out, boolean syncflush) {
+			this.out = out;
+			this.syncflush = syncflush;
+		}
+
+		/**
+		 * @return the number of bytes written to the file
+		 */
+		long write(byte[] bytes) throws IOException {
+			long written = 0;
+			if (memberSize < 0) {
+				out.write(HEADER);
+				written += HEADER.length;
+				memberSize = 0;
+			}
+			crc.update(bytes, 0, bytes.length);
+			memberSize += bytes.length;
+			deflater.setInput(bytes);
+			if (syncflush) {
+				written += syncFlush();
+			} else {
+				while (!deflater.needsInput())
+					written += deflate();
+				if (memberSize >= MEMBER_SIZE)
+					written += finish();
+			}
+			return written;
+		}
+
+		@TargetApi(19)
+		private long syncFlush() throws IOException {
+			long written = 0;
+			int n;
+			do {
+				n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+				out.write(buffer, 0, n);
+				written += n;
+			} while (n == buffer.length);
+			return written;
+		}
+
+		private int deflate() throws IOException {
+			int n = deflater.deflate(buffer);
+			out.write(buffer, 0, n);
+			return n;
+		}
+
+		/**
+		 * Finishes the current member, the next write starts a new one.
+		 * 
+		 * @return the number of bytes written to the file
+		 */
+		long finish() throws IOException {
+			if (memberSize < 0)
+				return 0;
+			long written = 0;
+			deflater.finish();
+			while (!deflater.finished())
+				written += deflate();
+			writeIntLE((int) crc.getValue());
+			writeIntLE(memberSize);
+			written += 8;
+			deflater.reset();
+			crc.reset();
+			memberSize = -1;
+			return written;
+		}
+
+		private void writeIntLE(int v) throws IOException {
+			out.write(v & 0xff);
+			out.write((v >> 8) & 0xff);
+			out.write((v >> 16) & 0xff);
+			out.write((v >> 24) & 0xff);
+		}
+
+		/**
+		 * Releases the native memory of the Deflater.
+		 */
+		void end() {
+			deflater.end();
+		}
+	}
+}
@@ -0,0 +1,328 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import android.util.Log;
+import at.univie.sensorium.SensorRegistry;
+
+/**
+ * Group commit writer for the per-sensor log files. Serialized records are
+ * handed over through a lock-free queue and written by a single thread,
+ * which flushes all files together once FLUSH_SIZE chars are pending or the
+ * oldest pending record is FLUSH_INTERVAL old. A segment is closed and
+ * replaced by a new one once it reaches the configured size or age. New
+ * segments always start with a keyframe, i.e. a complete record: if the
+ * next record for a full segment only holds changes, the writer keeps
+ * using the old segment and asks for a keyframe (takeKeyframeRequest()).
+ */
+class LogWriter implements Runnable {
+
+	static final int FLUSH_SIZE = 64 * 1024; // chars
+	static final long FLUSH_INTERVAL = 2000; // ms
+
+	private final LogManifest manifest;
+	private final boolean compressed;
+	private final boolean framed;
+	private final long maxSegmentSize;
+	private final long maxSegmentAge;
+	private final Map<String, LogSegment> segments = new HashMap<String, LogSegment>();
+	private final Set<String> keyframeRequests = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<Entry>();
+	private final AtomicLong queued = new AtomicLong(); // chars in the queue
+	private final Thread thread;
+	private volatile boolean closed = false;
+
+	// only touched by the writer thread
+	private long dirty = 0; // chars appended but not flushed
+	private long dirtySince = 0;
+
+	// metrics
+	private final AtomicLong recordsWritten = new AtomicLong();
+	private final AtomicLong flushes = new AtomicLong();
+
+	/**
+	 * A record for one sensor, or a barrier if done is set.
+	 */
+	private static class Entry {
+		final String sensorname;
+		final String record;
+		final boolean keyframe;
+		final CountDownLatch done;
+		final boolean close;
+
+		Entry(String sensorname, String record, boolean keyframe) {
+			this.sensorname = sensorname;
+			this.record = record;
+			this.keyframe = keyframe;
+			this.done = null;
+			this.close = false;
+		}
+
+		Entry(boolean close) {
+			this.sensorname = null;
+			this.record = null;
+			this.keyframe = false;
+			this.done = new CountDownLatch(1);
+			this.close = close;
+		}
+	}
+
+	/**
+	 * @param manifest
+	 *            names the segments and records when they are closed
+	 * @param compressed
+	 *            write gzip compressed segments
+	 * @param framed
+	 *            write length/CRC framed segments instead of JSON arrays
+	 * @param maxSegmentSize
+	 *            rotate segments at this size in bytes
+	 * @param maxSegmentAge
+	 *            rotate segments at this age in ms
+	 */
+	LogWriter(LogManifest manifest, boolean compressed, boolean framed, long maxSegmentSize, long maxSegmentAge) {
+		this.manifest = manifest;
+		this.compressed = compressed && !framed;
+		this.framed = framed;
+		this.maxSegmentSize = maxSegmentSize;
+		this.maxSegmentAge = maxSegmentAge;
+		thread = new Thread(this, "LogWriter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues a complete serialized JSON record, never blocks.
+	 */
+	void append(String sensorname, String record) {
+		append(sensorname, record, true);
+	}
+
+	/**
+	 * Queues a serialized JSON record, never blocks.
+	 * 
+	 * @param keyframe
+	 *            false if the record only holds the changes to the previous
+	 *            one
+	 */
+	void append(String sensorname, String record, boolean keyframe) {
+		if (closed)
+			return;
+		// counted before it is queued, so that the writer never subtracts
+		// first and a producer always sees the queue run empty
+		long before = queued.getAndAdd(record.length());
+		queue.add(new Entry(sensorname, record, keyframe));
+		// the thread sleeps until something arrives or the size threshold is
+		// crossed, everything else is picked up by its flush timer
+		if (before == 0 || (before < FLUSH_SIZE && before + record.length() >= FLUSH_SIZE))
+			LockSupport.unpark(thread);
+	}
+
+	/**
+	 * @return true (once) if the segment of this sensor is due for rotation
+	 *         and waits for a keyframe
+	 */
+	boolean takeKeyframeRequest(String sensorname) {
+		return keyframeRequests.remove(sensorname);
+	}
+
+	/**
+	 * Blocks until everything queued so far is written and flushed.
+	 */
+	void flush() {
+		barrier(new Entry(false));
+	}
+
+	/**
+	 * Writes everything queued so far, terminates and closes all files and
+	 * stops the writer thread.
+	 */
+	void close() {
+		if (closed)
+			return;
+		closed = true;
+		barrier(new Entry(true));
+	}
+
+	private void barrier(Entry entry) {
+		if (!thread.isAlive())
+			return;
+		queue.add(entry);
+		LockSupport.unpark(thread);
+		try {
+			entry.done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			Entry entry;
+			while ((entry = queue.poll()) != null) {
+				if (entry.done != null) {
+					flushAll();
+					if (entry.close) {
+						closeAll();
+						entry.done.countDown();
+						return;
+					}
+					entry.done.countDown();
+				} else {
+					queued.addAndGet(-entry.record.length());
+					write(entry);
+					if (dirty >= FLUSH_SIZE)
+						flushAll();
+				}
+			}
+
+			long now = System.currentTimeMillis();
+			if (dirty > 0 && now - dirtySince >= FLUSH_INTERVAL)
+				flushAll();
+
+			if (queue.isEmpty()) {
+				// a producer that found queued > 0 did not unpark us, its
+				// record is about to be queued
+				if (queued.get() > 0)
+					Thread.yield();
+				else if (dirty > 0)
+					LockSupport.parkNanos(this, (dirtySince + FLUSH_INTERVAL - now) * 1000000L);
+				else
+					LockSupport.park(this);
+			}
+		}
+	}
+
+	private void write(Entry entry) {
+		LogSegment segment = segments.get(entry.sensorname);
+		if (segment != null && (segment.getSize() >= maxSegmentSize || System.currentTimeMillis() - segment.getCreated() >= maxSegmentAge)) {
+			if (entry.keyframe) {
+				segments.remove(entry.sensorname);
+				close(segment);
+			} else {
+				keyframeRequests.add(entry.sensorname);
+			}
+		}
+
+		segment = getSegment(entry.sensorname);
+		if (segment != null) {
+			if (dirty == 0)
+				dirtySince = System.currentTimeMillis();
+			try {
+				dirty += segment.append(entry.record);
+				recordsWritten.incrementAndGet();
+			} catch (IOException e) {
+				StringWriter sw = new StringWriter();
+				PrintWriter pw = new PrintWriter(sw);
+				e.printStackTrace(pw);
+				Log.d(SensorRegistry.TAG, sw.toString());
+			}
+		} else {
+			Log.d(SensorRegistry.TAG, "Can't get write access to log file, skipping");
+		}
+	}
+
+	private LogSegment getSegment(String sensorname) {
+		LogSegment segment = segments.get(sensorname);
+		if (segment == null) {
+			try {
+				String extension = ".json";
+				if (framed)
+					extension = FramedLogReader.EXTENSION;
+				else if (compressed)
+					extension = ".json.gz";
+				File extFile = manifest.newSegment(sensorname, extension);
+				segment = new LogSegment(extFile, compressed, framed);
+				segments.put(sensorname, segment);
+			} catch (IOException e) {
+				StringWriter sw = new StringWriter();
+				PrintWriter pw = new PrintWriter(sw);
+				e.printStackTrace(pw);
+				Log.d(SensorRegistry.TAG, sw.toString());
+			}
+		}
+		return segment;
+	}
+
+	private void flushAll() {
+		for (LogSegment segment : segments.values()) {
+			try {
+				if (segment.isDirty())
+					segment.flush();
+			} catch (IOException e) {
+				StringWriter sw = new StringWriter();
+				PrintWriter pw = new PrintWriter(sw);
+				e.printStackTrace(pw);
+				Log.d(SensorRegistry.TAG, sw.toString());
+			}
+		}
+		if (dirty > 0)
+			flushes.incrementAndGet();
+		dirty = 0;
+	}
+
+	private void closeAll() {
+		for (LogSegment segment : segments.values())
+			close(segment);
+		segments.clear();
+	}
+
+	private void close(LogSegment segment) {
+		try {
+			segment.close();
+			manifest.segmentClosed(segment.getFile(), segment.getRecordCount(), segment.getStoredBytes());
+			Log.d(SensorRegistry.TAG, segment.getFile().getName() + ": " + segment.getRecordCount() + " records, " + segment.getRawBytes() + " bytes json, " + segment.getStoredBytes() + " bytes stored");
+		} catch (IOException e) {
+			StringWriter sw = new StringWriter();
+			PrintWriter pw = new PrintWriter(sw);
+			e.printStackTrace(pw);
+			Log.d(SensorRegistry.TAG, sw.toString());
+		}
+	}
+
+	long getRecordsWritten() {
+		return recordsWritten.get();
+	}
+
+	long getFlushCount() {
+		return flushes.get();
+	}
+
+	@Override
+	public String toString() {
+		return "LogWriter: " + recordsWritten.get() + " records in " + flushes.get() + " flushes, " + queued.get() + " chars queued";
+	}
+}
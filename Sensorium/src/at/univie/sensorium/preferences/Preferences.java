@@ -47,6 +47,10 @@ public class Preferences {
 
 	public static final String SENSOR_AUTOSTART_PREF = "sensor_autostart";
 	public static final String INTERFACES_XMLRPC_PREF = "xmlrpc_enabled";
+	public static final String INTERFACES_XMLRPC_TRANSPORT_PREF = "xmlrpc_transport";
+	public static final String INTERFACES_XMLRPC_WORKERS_PREF = "xmlrpc_workers";
+	public static final String INTERFACES_XMLRPC_MAX_INFLIGHT_PREF = "xmlrpc_max_inflight";
+	public static final String INTERFACES_XMLRPC_READ_TIMEOUT_PREF = "xmlrpc_read_timeout";
 	public static final String UPLOAD_URL_PREF = "upload_url";
 	public static final String UPLOAD_USERNAME = "o3gm_upload_user";
 	public static final String UPLOAD_PASSWORD = "o3gm_upload_user_password";
@@ -54,6 +58,17 @@ public class Preferences {
 	public static final String UPLOAD_WIFI_PREF = "upload_wifi";
 	public static final String UPLOAD_INTERVAL_PREF = "upload_interval";
 	public static final String PRIVACY_HASH = "privacy_hash";
+	public static final String PRIVACY_GEOHASH_PREF = "privacy_geohash";
+	public static final String PRIVACY_GEOHASH_LOW_PREF = "privacy_geohash_low";
+	public static final String PRIVACY_GEOHASH_MED_PREF = "privacy_geohash_med";
+	public static final String PRIVACY_GEOHASH_HIGH_PREF = "privacy_geohash_high";
+	public static final String LOGGING_QUEUE_POLICY = "logging_queue_policy";
+	public static final String LOGGING_COMPRESS_PREF = "logging_compress";
+	public static final String LOGGING_FORMAT_PREF = "logging_format";
+	public static final String LOGGING_SEGMENT_SIZE_PREF = "logging_segment_size";
+	public static final String LOGGING_SEGMENT_AGE_PREF = "logging_segment_age";
+	public static final String LOGGING_DELTA_PREF = "logging_delta";
+	public static final String LOGGING_KEYFRAME_INTERVAL_PREF = "logging_keyframe_interval";
 	// public static final String FIRST_RUN = "first_run";
 	public static final String PREFERENCES_VERSION = "preferences_version";
 	
@@ -68,7 +83,7 @@ public class Preferences {
 	}
 
 	public void putPreference(String key, String value) {
-		Log.d(SensorRegistry.TAG, "Setting pref " + key + " from remote config to: " + value);
+		Log.d(SensorRegistry.TAG, "Setting pref " + key + " from remote config" + (key.equals(PRIVACY_HASH) ? "" : " to: " + value));
 
 		if (value.toLowerCase(Locale.US).equals("true")) {
 			putBoolean(key, true);
@@ -102,6 +117,8 @@ public class Preferences {
 
 	public void putString(String key, String value) {
 		prefs.edit().putString(key, value).commit();
+		if (key.equals(PRIVACY_HASH))
+			value = "(not shown)";
 		Log.d(SensorRegistry.TAG, key + " String " + value);
 	}
 
@@ -117,6 +134,18 @@ public class Preferences {
 		return prefs.getString(key, defaultvalue);
 	}
 
+	/**
+	 * SharedPreferences only keeps a weak reference to the listener, the
+	 * caller has to hold on to it.
+	 */
+	public void registerOnSharedPreferenceChangeListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+		prefs.registerOnSharedPreferenceChangeListener(listener);
+	}
+
+	public void unregisterOnSharedPreferenceChangeListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+		prefs.unregisterOnSharedPreferenceChangeListener(listener);
+	}
+
 
 	public void loadDefaultPreferences() {
 		loadPrefsFromStream(context.getResources().openRawResource(R.raw.defaultpreferences));
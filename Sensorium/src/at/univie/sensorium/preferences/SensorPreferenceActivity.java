@@ -101,7 +101,7 @@ public class SensorPreferenceActivity extends PreferenceActivity {
 
 		for (AbstractSensor sensor : sensors) {
 			SensorPreference sPref = new SensorPreference(this, sensor);
-			sPref.setKey(sensor.getClass().getName() + "-privacylevel");
+			sPref.setKey(sensor.getClass().getName() + AbstractSensor.PRIVACYLEVEL_PREF_SUFFIX);
 			sensorsCat.addPreference(sPref);
 		}
 		return root;
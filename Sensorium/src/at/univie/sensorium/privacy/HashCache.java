@@ -0,0 +1,126 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.privacy;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import at.univie.sensorium.sensors.SensorValue;
+
+/**
+ * Bounded LRU cache of hashed values. Cell ids, area codes and rounded
+ * coordinates repeat all the time, so most hashes can be looked up instead
+ * of computed. Entries are keyed by everything the hash depends on: the raw
+ * value, its unit and type and whether it was salted.
+ */
+class HashCache {
+
+	static final int MAX_ENTRIES = 1024;
+
+	private final LinkedHashMap<Key, String> entries = new LinkedHashMap<Key, String>(MAX_ENTRIES * 4 / 3 + 1, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+	private final Key probe = new Key(); // guarded by this, avoids allocating a key per lookup
+	private int generation = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	private static class Key {
+		boolean salted;
+		Object value;
+		SensorValue.UNIT unit;
+		SensorValue.TYPE type;
+
+		Key set(boolean salted, Object value, SensorValue.UNIT unit, SensorValue.TYPE type) {
+			this.salted = salted;
+			this.value = value;
+			this.unit = unit;
+			this.type = type;
+			return this;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = value.hashCode();
+			h = 31 * h + (unit == null ? 0 : unit.hashCode());
+			h = 31 * h + (type == null ? 0 : type.hashCode());
+			return salted ? ~h : h;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return salted == k.salted && unit == k.unit && type == k.type && value.equals(k.value);
+		}
+	}
+
+	/**
+	 * @return the cached hash or null
+	 */
+	synchronized String get(boolean salted, Object value, SensorValue.UNIT unit, SensorValue.TYPE type) {
+		String hash = entries.get(probe.set(salted, value, unit, type));
+		probe.value = null;
+		if (hash != null)
+			hits++;
+		else
+			misses++;
+		return hash;
+	}
+
+	/**
+	 * Stores a hash computed after getGeneration() returned generation. It
+	 * is dropped if the cache was cleared in the meantime.
+	 */
+	synchronized void put(int generation, boolean salted, Object value, SensorValue.UNIT unit, SensorValue.TYPE type, String hash) {
+		if (generation == this.generation)
+			entries.put(new Key().set(salted, value, unit, type), hash);
+	}
+
+	synchronized int getGeneration() {
+		return generation;
+	}
+
+	synchronized void clear() {
+		entries.clear();
+		generation++;
+	}
+
+	synchronized long getHits() {
+		return hits;
+	}
+
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	@Override
+	public synchronized String toString() {
+		long lookups = hits + misses;
+		return "HashCache: " + entries.size() + " entries, " + hits + " hits, " + misses + " misses" + (lookups > 0 ? " (" + (100 * hits / lookups) + "% hit rate)" : "");
+	}
+}
@@ -0,0 +1,299 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.privacy;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import android.util.Base64;
+import android.util.Log;
+import at.univie.sensorium.SensorRegistry;
+import at.univie.sensorium.preferences.Preferences;
+import at.univie.sensorium.sensors.SensorValue;
+
+/**
+ * Hash functions behind the privacy transforms. Digest and MAC instances are
+ * kept per thread and the salt is loaded from the preferences only once, so
+ * hashing a value does not look up providers or preferences.
+ *
+ * Both functions return 160 bits as unpadded Base64, the format the
+ * transforms have always produced.
+ */
+class KeyedHash {
+
+	private static final int OUTPUT_LENGTH = 20; // bytes
+
+	private static final byte[][] UNIT_NAMES = names(SensorValue.UNIT.values());
+	private static final byte[][] TYPE_NAMES = names(SensorValue.TYPE.values());
+
+	private static final Object keyLock = new Object();
+	private static volatile byte[] key;
+	private static volatile int keyGeneration = 0;
+
+	private static final ThreadLocal<Engine> engines = new ThreadLocal<Engine>() {
+		@Override
+		protected Engine initialValue() {
+			return new Engine();
+		}
+	};
+
+	/**
+	 * The digest state of one thread.
+	 */
+	private static class Engine {
+		MessageDigest sha1;
+		Mac hmac;
+		int generation = -1;
+		byte[] buffer = new byte[64];
+		int length;
+
+		void put(int b) {
+			if (length == buffer.length) {
+				byte[] grown = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, grown, 0, length);
+				buffer = grown;
+			}
+			buffer[length++] = (byte) b;
+		}
+
+		void putInt(int v) {
+			put(v >>> 24);
+			put(v >>> 16);
+			put(v >>> 8);
+			put(v);
+		}
+
+		void putLong(long v) {
+			putInt((int) (v >>> 32));
+			putInt((int) v);
+		}
+
+		void put(byte[] bytes) {
+			for (byte b : bytes)
+				put(b);
+		}
+
+		/**
+		 * @return the number of chars, which is less than the number of bytes
+		 *         put if s is not ASCII
+		 */
+		int putString(String s) {
+			for (int i = 0; i < s.length(); i++) {
+				char c = s.charAt(i);
+				if (c < 0x80) {
+					put(c);
+				} else {
+					// rare, take the slow path for the rest of the string
+					try {
+						put(s.substring(i).getBytes("UTF-8"));
+					} catch (UnsupportedEncodingException e) {
+						// UTF-8 is always supported
+					}
+					break;
+				}
+			}
+			return s.length();
+		}
+
+		/**
+		 * Puts v as Long.toString() would write it.
+		 * 
+		 * @return the number of chars put
+		 */
+		int putDecimal(long v) {
+			if (v == Long.MIN_VALUE)
+				return putString(Long.toString(v));
+			int start = length;
+			if (v < 0) {
+				put('-');
+				v = -v;
+			}
+			int digits = length;
+			// int division is much cheaper on 32 bit devices
+			while (v > Integer.MAX_VALUE) {
+				put((int) ('0' + v % 10));
+				v /= 10;
+			}
+			int i = (int) v;
+			do {
+				put('0' + i % 10);
+				i /= 10;
+			} while (i != 0);
+			// the digits were put least significant first
+			for (int k = digits, j = length - 1; k < j; k++, j--) {
+				byte b = buffer[k];
+				buffer[k] = buffer[j];
+				buffer[j] = b;
+			}
+			return length - start;
+		}
+	}
+
+	private KeyedHash() {
+	}
+
+	/**
+	 * SHA-1 of value, unit and type, the same for every device. The result
+	 * is identical to what earlier versions logged (including hashing only
+	 * as many bytes as the message has chars).
+	 */
+	static String plain(Object value, SensorValue.UNIT unit, SensorValue.TYPE type) {
+		Engine engine = engines.get();
+		try {
+			if (engine.sha1 == null)
+				engine.sha1 = MessageDigest.getInstance("SHA-1");
+			// the UTF-8 of value + unit + type, without building that string
+			engine.length = 0;
+			int chars;
+			if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+				chars = engine.putDecimal(((Number) value).longValue());
+			else
+				chars = engine.putString(value.toString());
+			chars += engine.putString(String.valueOf(unit));
+			chars += engine.putString(String.valueOf(type));
+			engine.sha1.update(engine.buffer, 0, chars);
+			return Base64.encodeToString(engine.sha1.digest(), Base64.NO_WRAP | Base64.NO_PADDING);
+		} catch (GeneralSecurityException e) {
+			log(e);
+		}
+		return "";
+	}
+
+	/**
+	 * HMAC-SHA256 with the device's salt as key over a binary encoding of
+	 * value, unit and type, truncated to 160 bits. Numbers are hashed
+	 * without converting them to strings.
+	 */
+	static String keyed(Object value, SensorValue.UNIT unit, SensorValue.TYPE type) {
+		Engine engine = engines.get();
+		try {
+			if (engine.hmac == null || engine.generation != keyGeneration) {
+				int generation = keyGeneration;
+				Mac mac = Mac.getInstance("HmacSHA256");
+				mac.init(new SecretKeySpec(getKey(), "HmacSHA256"));
+				engine.hmac = mac;
+				engine.generation = generation;
+			}
+			engine.length = 0;
+			if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+				engine.put('I');
+				engine.putInt(((Number) value).intValue());
+			} else if (value instanceof Long) {
+				engine.put('L');
+				engine.putLong((Long) value);
+			} else if (value instanceof Double) {
+				engine.put('D');
+				engine.putLong(Double.doubleToLongBits((Double) value));
+			} else if (value instanceof Float) {
+				engine.put('F');
+				engine.putInt(Float.floatToIntBits((Float) value));
+			} else {
+				engine.put('S');
+				engine.putString(value.toString());
+			}
+			engine.put(0);
+			engine.put(unit == null ? new byte[0] : UNIT_NAMES[unit.ordinal()]);
+			engine.put(0);
+			engine.put(type == null ? new byte[0] : TYPE_NAMES[type.ordinal()]);
+
+			engine.hmac.update(engine.buffer, 0, engine.length);
+			byte[] mac = engine.hmac.doFinal(); // also resets to the keyed state
+			return Base64.encodeToString(mac, 0, OUTPUT_LENGTH, Base64.NO_WRAP | Base64.NO_PADDING);
+		} catch (GeneralSecurityException e) {
+			log(e);
+		}
+		return "";
+	}
+
+	/**
+	 * Drops the cached salt, the next keyed hash loads it again.
+	 */
+	static void resetKey() {
+		synchronized (keyLock) {
+			key = null;
+			keyGeneration++;
+		}
+	}
+
+	/**
+	 * Uses salt instead of the one in the preferences, for hashing outside
+	 * the app, e.g. in benchmarks.
+	 */
+	static void setKey(String salt) {
+		synchronized (keyLock) {
+			key = toBytes(salt);
+			keyGeneration++;
+		}
+	}
+
+	/**
+	 * @return the salt, generated and stored on first use
+	 */
+	private static byte[] getKey() {
+		byte[] k = key;
+		if (k != null)
+			return k;
+		synchronized (keyLock) {
+			if (key == null) {
+				Preferences prefs = SensorRegistry.getInstance().getPreferences();
+				String salt = prefs.getString(Preferences.PRIVACY_HASH, "");
+				if (salt.equals("")) {
+					SecureRandom random = new SecureRandom();
+					salt = (new BigInteger(130, random)).toString(32);
+					prefs.putString(Preferences.PRIVACY_HASH, salt);
+				}
+				key = toBytes(salt);
+			}
+			return key;
+		}
+	}
+
+	private static byte[] toBytes(String salt) {
+		try {
+			return salt.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return salt.getBytes();
+		}
+	}
+
+	private static byte[][] names(Enum<?>[] values) {
+		byte[][] names = new byte[values.length][];
+		for (int i = 0; i < values.length; i++)
+			names[i] = values[i].name().getBytes();
+		return names;
+	}
+
+	private static void log(Exception e) {
+		Log.d(SensorRegistry.TAG, e.toString());
+		StringWriter sw = new StringWriter();
+		PrintWriter pw = new PrintWriter(sw);
+		e.printStackTrace(pw);
+		Log.d(SensorRegistry.TAG, sw.toString());
+	}
+}
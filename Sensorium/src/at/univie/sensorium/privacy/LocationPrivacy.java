@@ -20,24 +20,122 @@
 
 package at.univie.sensorium.privacy;
 
+import java.util.List;
+
+import at.univie.sensorium.preferences.Preferences;
 import at.univie.sensorium.sensors.SensorValue;
 
 public class LocationPrivacy extends Privacy {
-	
-	protected static SensorValue anonymizeValue(SensorValue val, PrivacyLevel l) {
+
+	private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+	private static final int MAX_PRECISION = 12; // 60 bits
+
+	/**
+	 * Geohash precision in chars for each privacy level, 0 where the
+	 * coordinates are rounded and hashed one by one instead.
+	 */
+	private static volatile int[] geohashPrecision = new int[PrivacyLevel.values().length];
+	private static volatile int settingsVersion = 0;
+
+	/**
+	 * Replaces latitude and longitude with the geohash of the cell they lie
+	 * in. Both fields get the same cell, computed from the pair, so the two
+	 * coordinates can't be told apart or matched up separately.
+	 */
+	static class GeohashTransform implements PrivacyTransform {
+		private final int latField;
+		private final int lonField;
+		private final int precision;
+		private volatile Cell last; // consecutive positions mostly share the cell
+
+		private static class Cell {
+			final long bits;
+			final String geohash;
+
+			Cell(long bits, String geohash) {
+				this.bits = bits;
+				this.geohash = geohash;
+			}
+		}
+
+		GeohashTransform(int latField, int lonField, int precision) {
+			this.latField = latField;
+			this.lonField = lonField;
+			this.precision = precision;
+		}
+
+		@Override
+		public void apply(List<SensorValue> in, int field, SensorValue out) {
+			copy(in.get(field), out);
+			Object lat = in.get(latField).getValue();
+			Object lon = in.get(lonField).getValue();
+			if (!(lat instanceof Number) || !(lon instanceof Number)) {
+				out.setValue("n/a");
+				return;
+			}
+			long bits = geohash(((Number) lat).doubleValue(), ((Number) lon).doubleValue(), precision);
+			Cell cell = last;
+			if (cell == null || cell.bits != bits) {
+				cell = new Cell(bits, toBase32(bits, precision));
+				last = cell;
+			}
+			out.setUnit(SensorValue.UNIT.GEOHASH);
+			out.setValue(cell.geohash);
+		}
+	}
+
+	static final PrivacyTransform ROUND = new PrivacyTransform() {
+		@Override
+		public void apply(List<SensorValue> in, int field, SensorValue out) {
+			copy(in.get(field), out);
+			out.setValue(round(in.get(field).getValue()));
+		}
+	};
+
+	static final PrivacyTransform ROUNDED_HASH = new PrivacyTransform() {
+		@Override
+		public void apply(List<SensorValue> in, int field, SensorValue out) {
+			SensorValue val = in.get(field);
+			copy(val, out);
+			out.setUnit(SensorValue.UNIT.HASH);
+			out.setValue(hash(round(val.getValue()), val.getUnit(), val.getType()));
+		}
+	};
+
+	static final PrivacyTransform ROUNDED_SALTED_HASH = new PrivacyTransform() {
+		@Override
+		public void apply(List<SensorValue> in, int field, SensorValue out) {
+			SensorValue val = in.get(field);
+			copy(val, out);
+			out.setUnit(SensorValue.UNIT.HASH);
+			out.setValue(saltedHash(round(val.getValue()), val.getUnit(), val.getType()));
+		}
+	};
+
+	/**
+	 * @return the geohash transform for a latitude/longitude pair, or null if
+	 *         the coordinates are handled one by one at this level
+	 */
+	static PrivacyTransform getCoordinateTransform(PrivacyLevel l, int latField, int lonField) {
+		int precision = geohashPrecision[l.ordinal()];
+		if (precision <= 0)
+			return null;
+		return new GeohashTransform(latField, lonField, precision);
+	}
+
+	static PrivacyTransform getCoordinateTransform(PrivacyLevel l) {
 		switch (l) {
 		case NO:
-			return val;
+			return IDENTITY;
 		case LOW:
-			return round(val);
+			return ROUND;
 		case MED:
-			return hash(round(val));
+			return ROUNDED_HASH;
 		case HIGH:
-			return hash(salt(round(val)));
+			return ROUNDED_SALTED_HASH;
 		case FULL:
 		default:
-			val.setValue("n/a");
-			return val;
+			return SUPPRESS;
 		}
 	}
 	
@@ -45,17 +143,16 @@ public class LocationPrivacy extends Privacy {
 	/**
 	 * Only return address in case of full access
 	 */
-	public static SensorValue anonymizeAddress(SensorValue val, PrivacyLevel l) {
+	static PrivacyTransform getAddressTransform(PrivacyLevel l) {
 		switch (l) {
 		case NO:
-			return val;
+			return IDENTITY;
 		case LOW:
 		case MED:
 		case HIGH:
 		case FULL:
 		default:
-			val.setValue("n/a");
-			return val;
+			return SUPPRESS;
 		}
 	}
 	
@@ -67,15 +164,74 @@ public class LocationPrivacy extends Privacy {
 	 * 
 	 * -> round both to the first decimal place i.e. 11km long, 8km lat bins
 	 */
-	private static SensorValue round(SensorValue val) {
-		SensorValue ret = new SensorValue(val);
-		if (val.getValue() instanceof Double) {
-			double value = (Double) val.getValue();
-			ret.setValue(((double) Math.round(value * 10)) / 10.0);
+	private static Object round(Object value) {
+		if (value instanceof Double) {
+			double d = (Double) value;
+			return ((double) Math.round(d * 10)) / 10.0;
+		}
+		return value;
+
+	}
+
+	/**
+	 * Interleaves the bits of the cell indices, longitude first, as in a
+	 * geohash of the given number of chars.
+	 */
+	static long geohash(double lat, double lon, int precision) {
+		int bits = precision * 5;
+		int lonBits = (bits + 1) / 2;
+		int latBits = bits / 2;
+		long lonCell = cell(lon, -180.0, 360.0, lonBits);
+		long latCell = cell(lat, -90.0, 180.0, latBits);
+		long hash = 0;
+		for (int i = 0; i < bits; i++) {
+			if ((i & 1) == 0)
+				hash = (hash << 1) | ((lonCell >>> --lonBits) & 1);
+			else
+				hash = (hash << 1) | ((latCell >>> --latBits) & 1);
 		}
-		return ret;
+		return hash;
+	}
 
+	private static long cell(double value, double min, double range, int bits) {
+		long cells = 1L << bits;
+		long cell = (long) Math.floor((value - min) / range * cells);
+		if (cell < 0)
+			return 0;
+		if (cell >= cells)
+			return cells - 1;
+		return cell;
 	}
 
+	static String toBase32(long hash, int precision) {
+		char[] chars = new char[precision];
+		for (int i = precision - 1; i >= 0; i--) {
+			chars[i] = BASE32[(int) (hash & 31)];
+			hash >>>= 5;
+		}
+		return new String(chars);
+	}
 
+	/**
+	 * Reads the geohash settings, plans compiled before are recompiled on
+	 * their next use.
+	 */
+	public static void loadSettings(Preferences prefs) {
+		int[] precision = new int[PrivacyLevel.values().length];
+		if (prefs.getBoolean(Preferences.PRIVACY_GEOHASH_PREF, false)) {
+			precision[PrivacyLevel.LOW.ordinal()] = clamp(prefs.getInt(Preferences.PRIVACY_GEOHASH_LOW_PREF, 5));
+			precision[PrivacyLevel.MED.ordinal()] = clamp(prefs.getInt(Preferences.PRIVACY_GEOHASH_MED_PREF, 4));
+			precision[PrivacyLevel.HIGH.ordinal()] = clamp(prefs.getInt(Preferences.PRIVACY_GEOHASH_HIGH_PREF, 3));
+		}
+		geohashPrecision = precision;
+		settingsVersion++;
+	}
+
+	private static int clamp(int precision) {
+		return Math.max(1, Math.min(MAX_PRECISION, precision));
+	}
+
+	static int getSettingsVersion() {
+		return settingsVersion;
+	}
 }
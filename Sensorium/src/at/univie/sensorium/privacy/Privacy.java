@@ -20,22 +20,15 @@
 
 package at.univie.sensorium.privacy;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.io.UnsupportedEncodingException;
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-
-import android.util.Base64;
-import android.util.Log;
-import at.univie.sensorium.SensorRegistry;
-import at.univie.sensorium.preferences.Preferences;
+import java.util.Collections;
+import java.util.List;
+
 import at.univie.sensorium.sensors.SensorValue;
 
 public class Privacy {
 
+	private static final HashCache hashcache = new HashCache();
+
 	public static enum PrivacyLevel {
 		NO(0, "Full Sensor Access"), LOW(1, "Low Privacy"), MED(2, "Medium Privacy"), HIGH(3, "High Privacy"), FULL(4, "Sensor not visible");
 
@@ -73,121 +66,191 @@ public class Privacy {
 		}
 	}
 
-	protected static SensorValue anonymizeValue(SensorValue val, PrivacyLevel l) {
-		switch (l) {
-		case NO:
-			return val;
-		case LOW:
-		case MED:
-			return hash(val);
-		case HIGH:
-			return hash(salt(val));
-		case FULL:
-		default:
-			val.setValue("n/a");
-			return val;
+	/**
+	 * Copies the value as it is.
+	 */
+	static final PrivacyTransform IDENTITY = new PrivacyTransform() {
+		@Override
+		public void apply(List<SensorValue> in, int field, SensorValue out) {
+			copy(in.get(field), out);
 		}
-	}
+	};
 
-	protected static SensorValue anonymizestrict(SensorValue val, PrivacyLevel l) {
-		val.setValue("n/a");
-		return val;
-	}
+	/**
+	 * Replaces the value with "n/a".
+	 */
+	static final PrivacyTransform SUPPRESS = new PrivacyTransform() {
+		@Override
+		public void apply(List<SensorValue> in, int field, SensorValue out) {
+			copy(in.get(field), out);
+			out.setValue("n/a");
+		}
+	};
 
-	protected static SensorValue anonymizesignalstrength(SensorValue val, PrivacyLevel l) {
-		switch (l) {
-		case NO:
-			return val;
-		case LOW:
-			SensorValue ret = new SensorValue(val);
+	static final PrivacyTransform HASH = new PrivacyTransform() {
+		@Override
+		public void apply(List<SensorValue> in, int field, SensorValue out) {
+			SensorValue val = in.get(field);
+			copy(val, out);
+			out.setUnit(SensorValue.UNIT.HASH);
+			out.setValue(hash(val.getValue(), val.getUnit(), val.getType()));
+		}
+	};
+
+	static final PrivacyTransform SALTED_HASH = new PrivacyTransform() {
+		@Override
+		public void apply(List<SensorValue> in, int field, SensorValue out) {
+			SensorValue val = in.get(field);
+			copy(val, out);
+			out.setUnit(SensorValue.UNIT.HASH);
+			out.setValue(saltedHash(val.getValue(), val.getUnit(), val.getType()));
+		}
+	};
+
+	/**
+	 * Only tells whether the signal is strong (>= -70) or not.
+	 */
+	static final PrivacyTransform SIGNALSTRENGTH_CLASS = new PrivacyTransform() {
+		@Override
+		public void apply(List<SensorValue> in, int field, SensorValue out) {
+			SensorValue val = in.get(field);
+			copy(val, out);
 			if (val.getValue() instanceof Integer && (Integer) val.getValue() >= -70) {
-				ret.setValue("high");
+				out.setValue("high");
 			} else {
-				ret.setValue("low");
+				out.setValue("low");
 			}
-			return ret;
-		case MED:
-			return hash(val);
-		case HIGH:
-			return hash(salt(val));
-		case FULL:
-		default:
-			val.setValue("n/a");
-			return val;
 		}
-	}
+	};
 
-	public static SensorValue anonymize(SensorValue val, PrivacyLevel l) {
-		SensorValue retval = new SensorValue(val);
-		switch (retval.getType()) {
+	/**
+	 * Returns the transform the given privacy level applies to values of the
+	 * given type. The transforms are stateless and shared by all plans.
+	 */
+	public static PrivacyTransform getTransform(SensorValue.TYPE type, PrivacyLevel l) {
+		if (type == null)
+			return IDENTITY;
+		switch (type) {
 		case LATITUDE:
 		case LONGITUDE:
-			return LocationPrivacy.anonymizeValue(retval, l);
+			return LocationPrivacy.getCoordinateTransform(l);
 
 		case ADDRESS:
-			return LocationPrivacy.anonymizeAddress(retval, l);
+			return LocationPrivacy.getAddressTransform(l);
 
 		case CID:
 		case LAC:
 		case MCC:
 		case MNC:
 		case NETWORKTYPE:
-			return anonymizeValue(retval, l);
+			return getValueTransform(l);
 		case SIGNALSTRENGTH:
-			return anonymizesignalstrength(retval, l);
+			return getSignalstrengthTransform(l);
 		case SIM_SERIAL:
 		case SUBSCRIBER_ID:
-			return anonymizestrict(retval, l);
+			return SUPPRESS;
 
 		default:
 			// Log.d(SensorRegistry.TAG, "No known privacy methods for type " +
 			// val.getType().getName());
-			return retval;
+			return IDENTITY;
 		}
 	}
 
-	protected static SensorValue hash(SensorValue val) {
-		SensorValue ret = new SensorValue(val);
-		ret.setUnit(SensorValue.UNIT.HASH);
-		String sha1 = "";
-		String message = (val.getValue().toString()) + val.getUnit() + val.getType();
-		MessageDigest md;
-		try {
-			md = MessageDigest.getInstance("SHA-1");
-			md.reset();
-			md.update(message.getBytes("UTF-8"), 0, message.length());
-			byte[] sha1hash = md.digest();
-			sha1 = Base64.encodeToString(sha1hash, Base64.NO_WRAP | Base64.NO_PADDING);
-		} catch (NoSuchAlgorithmException e) {
-			Log.d(SensorRegistry.TAG, e.toString());
-			StringWriter sw = new StringWriter();
-			PrintWriter pw = new PrintWriter(sw);
-			e.printStackTrace(pw);
-			Log.d(SensorRegistry.TAG, sw.toString());
-		} catch (UnsupportedEncodingException e) {
-			Log.d(SensorRegistry.TAG, e.toString());
-			StringWriter sw = new StringWriter();
-			PrintWriter pw = new PrintWriter(sw);
-			e.printStackTrace(pw);
-			Log.d(SensorRegistry.TAG, sw.toString());
+	private static PrivacyTransform getValueTransform(PrivacyLevel l) {
+		switch (l) {
+		case NO:
+			return IDENTITY;
+		case LOW:
+		case MED:
+			return HASH;
+		case HIGH:
+			return SALTED_HASH;
+		case FULL:
+		default:
+			return SUPPRESS;
 		}
+	}
 
-		ret.setValue(sha1);
-		return ret;
+	private static PrivacyTransform getSignalstrengthTransform(PrivacyLevel l) {
+		switch (l) {
+		case NO:
+			return IDENTITY;
+		case LOW:
+			return SIGNALSTRENGTH_CLASS;
+		case MED:
+			return HASH;
+		case HIGH:
+			return SALTED_HASH;
+		case FULL:
+		default:
+			return SUPPRESS;
+		}
 	}
 
-	protected static SensorValue salt(SensorValue val) {
-		// load stored seed or generate a new one
-		String salt = SensorRegistry.getInstance().getPreferences().getString(Preferences.PRIVACY_HASH, "");
-		if (salt.equals("")) {
-			SecureRandom random = new SecureRandom();
-			salt = (new BigInteger(130, random)).toString(32);
-			SensorRegistry.getInstance().getPreferences().putString(Preferences.PRIVACY_HASH, salt);
+	/**
+	 * Anonymizes a single value into a new SensorValue. Code that handles
+	 * whole records should use the sensor's PrivacyPlan instead.
+	 */
+	public static SensorValue anonymize(SensorValue val, PrivacyLevel l) {
+		SensorValue retval = new SensorValue(val);
+		getTransform(val.getType(), l).apply(Collections.singletonList(val), 0, retval);
+		return retval;
+	}
+
+	static void copy(SensorValue from, SensorValue to) {
+		to.setValue(from.getValue());
+		to.setUnit(from.getUnit());
+		to.setType(from.getType());
+	}
+
+	/**
+	 * @return the unsalted SHA-1 of value, unit and type
+	 */
+	protected static String hash(Object value, SensorValue.UNIT unit, SensorValue.TYPE type) {
+		String hash = hashcache.get(false, value, unit, type);
+		if (hash == null) {
+			int generation = hashcache.getGeneration();
+			hash = KeyedHash.plain(value, unit, type);
+			hashcache.put(generation, false, value, unit, type, hash);
+		}
+		return hash;
+	}
+
+	/**
+	 * @return the hash of value, unit and type keyed with this device's salt
+	 */
+	protected static String saltedHash(Object value, SensorValue.UNIT unit, SensorValue.TYPE type) {
+		String hash = hashcache.get(true, value, unit, type);
+		if (hash == null) {
+			int generation = hashcache.getGeneration();
+			hash = KeyedHash.keyed(value, unit, type);
+			hashcache.put(generation, true, value, unit, type, hash);
 		}
-		Log.d("Sensorium", "Salt is " + salt);
+		return hash;
+	}
+
+	/**
+	 * Reloads the salt on the next salted hash and drops all cached hashes,
+	 * call after the salt was changed in the preferences.
+	 */
+	public static void resetSalt() {
+		KeyedHash.resetKey();
+		hashcache.clear();
+	}
+
+	/**
+	 * @return hits, misses and size of the hash cache
+	 */
+	public static String getHashCacheStats() {
+		return hashcache.toString();
+	}
+
+	public static long getHashCacheHits() {
+		return hashcache.getHits();
+	}
 
-		SensorValue ret = new SensorValue(val);
-		ret.setValue(salt + val.getValue().toString());
-		return ret;
+	public static long getHashCacheMisses() {
+		return hashcache.getMisses();
 	}
 }
@@ -0,0 +1,116 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.privacy;
+
+import java.util.List;
+
+import at.univie.sensorium.sensors.SensorValue;
+
+/**
+ * The privacy transforms of one sensor at one privacy level, looked up once
+ * and indexed like the sensor's value list (AbstractSensor.getSensorValues()).
+ * Plans are immutable and can be shared between threads; the output records
+ * they write into are not.
+ */
+public class PrivacyPlan {
+
+	private final Privacy.PrivacyLevel level;
+	private final PrivacyTransform[] transforms;
+	private final int settingsVersion;
+
+	private PrivacyPlan(Privacy.PrivacyLevel level, PrivacyTransform[] transforms, int settingsVersion) {
+		this.level = level;
+		this.transforms = transforms;
+		this.settingsVersion = settingsVersion;
+	}
+
+	/**
+	 * Builds the plan for values of the given types, as returned by
+	 * AbstractSensor.getSensorValues().
+	 */
+	public static PrivacyPlan compile(List<SensorValue> values, Privacy.PrivacyLevel level) {
+		int version = LocationPrivacy.getSettingsVersion();
+		PrivacyTransform[] transforms = new PrivacyTransform[values.size()];
+		for (int i = 0; i < transforms.length; i++) {
+			transforms[i] = Privacy.getTransform(values.get(i).getType(), level);
+		}
+		// coordinates are quantized in pairs, each latitude with the next
+		// longitude that isn't paired yet
+		boolean[] paired = new boolean[transforms.length];
+		for (int lat = 0; lat < transforms.length; lat++) {
+			if (values.get(lat).getType() != SensorValue.TYPE.LATITUDE)
+				continue;
+			for (int lon = 0; lon < transforms.length; lon++) {
+				if (paired[lon] || values.get(lon).getType() != SensorValue.TYPE.LONGITUDE)
+					continue;
+				PrivacyTransform pair = LocationPrivacy.getCoordinateTransform(level, lat, lon);
+				if (pair != null) {
+					transforms[lat] = pair;
+					transforms[lon] = pair;
+				}
+				paired[lon] = true;
+				break;
+			}
+		}
+		return new PrivacyPlan(level, transforms, version);
+	}
+
+	public Privacy.PrivacyLevel getLevel() {
+		return level;
+	}
+
+	/**
+	 * @return false if the privacy settings changed since the plan was
+	 *         compiled
+	 */
+	public boolean isCurrent() {
+		return settingsVersion == LocationPrivacy.getSettingsVersion();
+	}
+
+	public int size() {
+		return transforms.length;
+	}
+
+	/**
+	 * @return an output record for apply(), to be reused by the caller
+	 */
+	public SensorValue[] newRecord() {
+		SensorValue[] record = new SensorValue[transforms.length];
+		for (int i = 0; i < record.length; i++)
+			record[i] = new SensorValue(SensorValue.UNIT.OTHER, SensorValue.TYPE.OTHER);
+		return record;
+	}
+
+	/**
+	 * Anonymizes all values into the given output record.
+	 */
+	public void apply(List<SensorValue> in, SensorValue[] out) {
+		for (int i = 0; i < transforms.length; i++)
+			transforms[i].apply(in, i, out[i]);
+	}
+
+	/**
+	 * Anonymizes a single value.
+	 */
+	public void apply(List<SensorValue> in, int field, SensorValue out) {
+		transforms[field].apply(in, field, out);
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.privacy;
+
+import java.util.List;
+
+import at.univie.sensorium.sensors.SensorValue;
+
+/**
+ * One step of a PrivacyPlan. Gets all values of a record so a transform can
+ * depend on more than one of them.
+ */
+public interface PrivacyTransform {
+
+	/**
+	 * Writes the anonymized form of in.get(field) to out, which is reused
+	 * between records and has to be overwritten completely (value, unit and
+	 * type).
+	 */
+	public void apply(List<SensorValue> in, int field, SensorValue out);
+
+}
@@ -22,27 +22,50 @@ package at.univie.sensorium.sensors;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import at.univie.sensorium.SensorRegistry;
 import at.univie.sensorium.privacy.Privacy;
+import at.univie.sensorium.privacy.PrivacyPlan;
 import at.univie.sensorium.privacy.Privacy.PrivacyLevel;
 
 public abstract class AbstractSensor {
 
+	/**
+	 * Appended to the class name to get the key of the privacy level
+	 * preference.
+	 */
+	public static final String PRIVACYLEVEL_PREF_SUFFIX = "-privacylevel";
+
 	private boolean enabled = false;
 	private List<SensorChangeListener> listeners;
 	private String description = "";
-	private Privacy.PrivacyLevel plevel;
+	// kept up to date by SensorRegistry's preference listener, see
+	// updatePrivacylevel()
+	private volatile Privacy.PrivacyLevel plevel;
+	private volatile PrivacyPlan privacyplan;
 	private String name = "Unnamed Sensor";
 
 	protected SensorValue timestamp;
 
-	
+	private SensorValueTable valueTable;
+	private SensorValue[] valueSlots;
+	private volatile List<SensorValue> sensorValues;
+	private volatile SensorSnapshot lastSnapshot; // of the last update
+
+	// update coalescing, see notifyListeners()
+	private volatile int coalesceWindow = -1; // ms, read from the preferences on enable
+	private final Object coalesceLock = new Object();
+	private int pendingUpdates = 0;
+	private volatile int absorbedUpdates = 1;
+	private Handler coalesceHandler;
 
 	public AbstractSensor() {
 		timestamp = new SensorValue(SensorValue.UNIT.MILLISECONDS, SensorValue.TYPE.TIMESTAMP);
@@ -57,7 +80,8 @@ public abstract class AbstractSensor {
 
 				SensorRegistry.getInstance().getPreferences().putBoolean(this.getClass().getName(), true);
 
-				setPrivacylevel(PrivacyLevel.fromInt(SensorRegistry.getInstance().getPreferences().getInt(this.getClass().getName() + "-privacylevel", Privacy.PrivacyLevel.FULL.value())));
+				coalesceWindow = SensorRegistry.getInstance().getPreferences().getInt(this.getClass().getName() + "-coalesce", getDefaultCoalesceWindow());
+				setPrivacylevel(PrivacyLevel.fromInt(SensorRegistry.getInstance().getPreferences().getInt(this.getClass().getName() + PRIVACYLEVEL_PREF_SUFFIX, Privacy.PrivacyLevel.FULL.value())));
 
 				enabled = true;
 				notifyListeners();
@@ -82,7 +106,7 @@ public abstract class AbstractSensor {
 
 			_disable();
 			unsetallValues();
-			notifyListeners();
+			notifyListenersNow();
 		} catch (Exception e) {
 			Log.d(SensorRegistry.TAG, "Caught exception while disabling " + name + ": " + e.toString());
 			StringWriter sw = new StringWriter();
@@ -129,36 +153,80 @@ public abstract class AbstractSensor {
 		this.name = name;
 	}
 
-	public List<SensorValue> getSensorValues() {
-		List<SensorValue> values = new LinkedList<SensorValue>();
+	/**
+	 * Resolves the SensorValue fields of this sensor through the accessor
+	 * table of its class. Called by the registry on registration, but safe to
+	 * call again; only the first call does any work.
+	 */
+	public synchronized void bindSensorValues() {
+		if (sensorValues != null)
+			return;
+		SensorValueTable table = createSensorValueTable();
+		SensorValue[] slots = bindSensorValueTable(table);
 
+		List<SensorValue> values = new ArrayList<SensorValue>(slots.length + 1);
 		values.add(timestamp); // as long as timestamp is the only sensorvalue
 								// in the AbstractSensor superclass we should
 								// add it manually
+		for (SensorValue value : slots) {
+			if (value != null)
+				values.add(value);
+		}
+		this.valueTable = table;
+		this.valueSlots = slots;
+		this.sensorValues = Collections.unmodifiableList(values);
+	}
 
-		Field[] fields = this.getClass().getDeclaredFields();
+	/**
+	 * @return the accessor table for this sensor's values, by default built
+	 *         from the SensorValue fields of its class
+	 */
+	protected SensorValueTable createSensorValueTable() {
+		return SensorValueTable.forClass(this.getClass());
+	}
 
-		try {
-			for (Field f : fields) {
-				f.setAccessible(true);
-				Object o = f.get(this);
-				if (o instanceof SensorValue) {
-					values.add((SensorValue) o);
-				}
+	/**
+	 * @return the values of this sensor, one per slot of the table
+	 */
+	protected SensorValue[] bindSensorValueTable(SensorValueTable table) {
+		return table.bind(this);
+	}
 
-			}
-		} catch (IllegalArgumentException e) {
-			StringWriter sw = new StringWriter();
-			PrintWriter pw = new PrintWriter(sw);
-			e.printStackTrace(pw);
-			Log.d(SensorRegistry.TAG, sw.toString());
-		} catch (IllegalAccessException e) {
-			StringWriter sw = new StringWriter();
-			PrintWriter pw = new PrintWriter(sw);
-			e.printStackTrace(pw);
-			Log.d(SensorRegistry.TAG, sw.toString());
-		}
-		return values;
+	public SensorValueTable getSensorValueTable() {
+		bindSensorValues();
+		return valueTable;
+	}
+
+	/**
+	 * @return the value bound to the given slot of this sensor's accessor
+	 *         table, may be null
+	 */
+	public SensorValue getSensorValue(int slot) {
+		bindSensorValues();
+		return valueSlots[slot];
+	}
+
+	public List<SensorValue> getSensorValues() {
+		bindSensorValues();
+		return sensorValues;
+	}
+
+	/**
+	 * @return a copy of the current values, safe to hand to other threads
+	 */
+	public SensorSnapshot createSnapshot() {
+		return new SensorSnapshot(this);
+	}
+
+	/**
+	 * The values as of the last notification, taken on the thread that
+	 * updates them. Other threads should read this instead of the live
+	 * values, which may change while they are being read.
+	 * 
+	 * @return the snapshot, or null if the sensor did not notify yet
+	 */
+	public SensorSnapshot getLastSnapshot() {
+		return lastSnapshot;
 	}
 
 	public void addListener(SensorChangeListener s) {
@@ -169,32 +237,165 @@ public abstract class AbstractSensor {
 		this.listeners.remove(s);
 	}
 
+	/**
+	 * Publishes the current values to all listeners. If a coalescing window
+	 * is set for this sensor, all calls within the window are merged into one
+	 * update carrying the latest values, sent when the window closes.
+	 */
 	protected void notifyListeners() {
+		int window = coalesceWindow;
+		if (window <= 0) {
+			dispatchUpdate(1);
+			return;
+		}
+		synchronized (coalesceLock) {
+			pendingUpdates++;
+			if (pendingUpdates > 1)
+				return; // the window is already open
+			if (coalesceHandler == null)
+				coalesceHandler = new Handler(Looper.getMainLooper());
+		}
+		coalesceHandler.postDelayed(coalesceTask, window);
+	}
+
+	/**
+	 * Publishes the current values immediately, including any updates still
+	 * waiting in the coalescing window.
+	 */
+	protected void notifyListenersNow() {
+		int absorbed;
+		synchronized (coalesceLock) {
+			absorbed = pendingUpdates + 1;
+			pendingUpdates = 0;
+			if (coalesceHandler != null)
+				coalesceHandler.removeCallbacks(coalesceTask);
+		}
+		dispatchUpdate(absorbed);
+	}
+
+	private Runnable coalesceTask = new Runnable() {
+		@Override
+		public void run() {
+			int absorbed;
+			synchronized (coalesceLock) {
+				absorbed = pendingUpdates;
+				pendingUpdates = 0;
+			}
+			if (absorbed > 0)
+				dispatchUpdate(absorbed);
+		}
+	};
+
+	private void dispatchUpdate(int absorbed) {
+		absorbedUpdates = absorbed;
 		updateTimestamp();
 		for (SensorChangeListener l : listeners) {
 			l.sensorUpdated(this);
 		}
+		SensorSnapshot snapshot = createSnapshot();
+		lastSnapshot = snapshot;
+		SensorRegistry.getInstance().getEventBus().publish(snapshot);
 
+		if (!isUpdateLogged())
+			return;
 		StringBuilder sb = new StringBuilder();
 		for (SensorValue val : getSensorValues()) {
 			sb.append(val.getValue()).append(" ").append(val.getUnit().getName()).append("; ");
 		}
+		if (absorbed > 1)
+			sb.append("(").append(absorbed).append(" updates)");
 		SensorRegistry.getInstance().log(this.getClass().getCanonicalName(), sb.toString());
 
 		Log.d(SensorRegistry.TAG, sb.toString());
 	}
 
+	/**
+	 * Whether every update goes to the debug output and logcat. Sensors that
+	 * publish at high rates should override this, the log then only shows
+	 * what they report themselves.
+	 */
+	protected boolean isUpdateLogged() {
+		return true;
+	}
+
+	/**
+	 * @return how many calls to notifyListeners() the last published update
+	 *         was merged from, 1 if it was not coalesced
+	 */
+	public int getAbsorbedUpdates() {
+		return absorbedUpdates;
+	}
+
+	/**
+	 * The coalescing window used if none is set in the preferences. Sensors
+	 * firing bursts of callbacks for one logical change should override this.
+	 *
+	 * @return the window in ms, 0 to disable coalescing
+	 */
+	protected int getDefaultCoalesceWindow() {
+		return 0;
+	}
+
+	public int getCoalesceWindow() {
+		if (coalesceWindow < 0)
+			return getDefaultCoalesceWindow();
+		return coalesceWindow;
+	}
+
+	public void setCoalesceWindow(int window) {
+		SensorRegistry.getInstance().getPreferences().putInt(this.getClass().getName() + "-coalesce", window);
+		this.coalesceWindow = window;
+	}
+
+	/**
+	 * Runs task every period ms on the main thread through the registry's
+	 * SamplingScheduler, which may delay it by up to tolerance ms to batch it
+	 * with other sensors.
+	 */
+	protected void schedule(Runnable task, long period, long tolerance) {
+		SensorRegistry.getInstance().getSamplingScheduler().schedule(this, task, period, tolerance);
+	}
+
+	protected void unschedule() {
+		SensorRegistry.getInstance().getSamplingScheduler().unschedule(this);
+	}
+
 	public Privacy.PrivacyLevel getPrivacylevel() {
-		plevel = PrivacyLevel.fromInt(SensorRegistry.getInstance().getPreferences().getInt(this.getClass().getName() + "-privacylevel", plevel.value()));
 		return plevel;
 	}
 
+	/**
+	 * @return the privacy transforms for the current privacy level, compiled
+	 *         again only when the level or the privacy settings changed
+	 */
+	public PrivacyPlan getPrivacyPlan() {
+		Privacy.PrivacyLevel level = plevel;
+		PrivacyPlan plan = privacyplan;
+		if (plan == null || plan.getLevel() != level || !plan.isCurrent()) {
+			plan = PrivacyPlan.compile(getSensorValues(), level);
+			privacyplan = plan;
+		}
+		return plan;
+	}
+
 	public void setPrivacylevel(Privacy.PrivacyLevel privacylevel) {
-		SensorRegistry.getInstance().getPreferences().putInt(this.getClass().getName() + "-privacylevel", privacylevel.value());
+		SensorRegistry.getInstance().getPreferences().putInt(this.getClass().getName() + PRIVACYLEVEL_PREF_SUFFIX, privacylevel.value());
 		this.plevel = privacylevel;
 		notifyListeners();
 	}
 
+	/**
+	 * Takes over a privacy level that was changed in the preferences, e.g.
+	 * by a remote configuration, without writing it back.
+	 */
+	public void updatePrivacylevel(Privacy.PrivacyLevel privacylevel) {
+		if (privacylevel == null || privacylevel == plevel)
+			return;
+		this.plevel = privacylevel;
+		if (enabled)
+			notifyListeners();
+	}
+
 	private void unsetallValues() {
 		for (SensorValue s : getSensorValues()) {
 			s.unsetValue();
@@ -10,7 +10,6 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
-import android.os.Handler;
 import android.util.Log;
 import at.univie.sensorium.SensorRegistry;
 
@@ -19,7 +18,6 @@ public class BluetoothSensor extends AbstractSensor {
 	public static BroadcastReceiver bluetoothReceiver;
 	public static Intent bluetoothIntent;
 	
-	private Handler handler = new Handler();
 	private BluetoothAdapter bluetoothAdapter;
 
 	private SensorValue localDeviceName;
@@ -59,8 +57,6 @@ public class BluetoothSensor extends AbstractSensor {
 			bluetoothIntent = getContext().getApplicationContext().registerReceiver(bluetoothReceiver, filter);
 			bluetoothAdapter.startDiscovery();	        		
 			Log.d("scanTask", "restart bluetooth scanning");
-			
-			handler.postDelayed(this, scan_interval*1000);
 		}		
 	};
 	
@@ -114,7 +110,7 @@ public class BluetoothSensor extends AbstractSensor {
 					sScannedDevices.setValue(scannedDevices);
 				}
 			};	
-			handler.postDelayed(scanTask, 0);
+			schedule(scanTask, scan_interval * 1000L, scan_interval * 250L);
 		}
 		else // if not enabled, we only get info for local device
 			SensorRegistry.getInstance().log("Bluetooth", bluetooth);
@@ -124,7 +120,7 @@ public class BluetoothSensor extends AbstractSensor {
 	protected void _disable() {
 		if(bluetoothIntent != null)
 			getContext().getApplicationContext().unregisterReceiver(bluetoothReceiver);
-		handler.removeCallbacks(scanTask);
+		unschedule();
 		scannedDevices.clear();
 		sScannedDevices.setValue(scannedDevices);
 //        notifyListeners();
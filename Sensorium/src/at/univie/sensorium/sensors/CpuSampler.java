@@ -0,0 +1,205 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.sensors;
+
+import java.io.IOException;
+
+/**
+ * CPU utilisation from /proc/stat, computed from the difference to the
+ * counters read by the previous call of sample(). Nothing has to wait between
+ * two reads, the values cover the whole time since the last sample.
+ *
+ * Slot 0 holds the sum over all cpus, slot i + 1 core i. Cores that are
+ * offline are missing from /proc/stat and have no values until they have
+ * been seen in two samples in a row.
+ */
+class CpuSampler {
+
+	static final String PROC_STAT = "/proc/stat";
+
+	// columns of a cpu line in /proc/stat
+	private static final int USER = 0;
+	private static final int NICE = 1;
+	private static final int SYSTEM = 2;
+	private static final int IDLE = 3;
+	private static final int IOWAIT = 4;
+	private static final int IRQ = 5;
+	private static final int SOFTIRQ = 6;
+	private static final int STEAL = 7;
+	private static final int COLUMNS = 8;
+
+	private final ProcParser parser;
+	private long[][] previous = new long[0][];
+	private long[][] current = new long[0][];
+	private boolean[] seen = new boolean[0]; // in the previous sample
+	private boolean[] present = new boolean[0]; // in the current sample
+	private float[] total = new float[0];
+	private float[] user = new float[0];
+	private float[] system = new float[0];
+	private float[] iowait = new float[0];
+	private boolean[] valid = new boolean[0];
+
+	CpuSampler() {
+		this(PROC_STAT);
+	}
+
+	CpuSampler(String path) {
+		this.parser = new ProcParser(path);
+	}
+
+	/**
+	 * Reads the counters and computes the utilisation since the previous
+	 * call.
+	 * 
+	 * @return true if there are values for slot 0
+	 */
+	boolean sample() throws IOException {
+		for (int i = 0; i < present.length; i++)
+			present[i] = false;
+		parser.read();
+		do {
+			// the cpu lines come first
+			if (parser.nextToken() == 0 || !parser.tokenStartsWith("cpu"))
+				break;
+			parse();
+		} while (parser.nextLine());
+
+		for (int slot = 0; slot < current.length; slot++) {
+			valid[slot] = false;
+			if (present[slot] && seen[slot])
+				compute(slot);
+			seen[slot] = present[slot];
+		}
+		long[][] swap = previous;
+		previous = current;
+		current = swap;
+		return valid.length > 0 && valid[0];
+	}
+
+	private void parse() {
+		int slot = 0;
+		if (!parser.tokenEquals("cpu"))
+			slot = (int) parser.tokenLong(3) + 1;
+		ensureCapacity(slot + 1);
+		long[] counters = current[slot];
+		for (int column = 0; column < COLUMNS; column++)
+			counters[column] = parser.nextLong(); // missing columns (old kernels) are 0
+		present[slot] = true;
+	}
+
+	private void compute(int slot) {
+		long[] before = previous[slot];
+		long[] after = current[slot];
+		long elapsed = 0;
+		for (int column = 0; column < COLUMNS; column++) {
+			long delta = after[column] - before[column];
+			if (delta < 0)
+				return; // counters were reset, e.g. the core was replugged
+			elapsed += delta;
+		}
+		if (elapsed == 0)
+			return;
+		long idle = after[IDLE] - before[IDLE];
+		long io = after[IOWAIT] - before[IOWAIT];
+		long usr = (after[USER] - before[USER]) + (after[NICE] - before[NICE]);
+		long sys = (after[SYSTEM] - before[SYSTEM]) + (after[IRQ] - before[IRQ]) + (after[SOFTIRQ] - before[SOFTIRQ]);
+		// iowait counts as busy, as it always did for the CPU value
+		total[slot] = 100f * (elapsed - idle) / elapsed;
+		user[slot] = 100f * usr / elapsed;
+		system[slot] = 100f * sys / elapsed;
+		iowait[slot] = 100f * io / elapsed;
+		valid[slot] = true;
+	}
+
+	private void ensureCapacity(int slots) {
+		if (slots <= current.length)
+			return;
+		previous = grow(previous, slots);
+		current = grow(current, slots);
+		seen = grow(seen, slots);
+		present = grow(present, slots);
+		valid = grow(valid, slots);
+		total = grow(total, slots);
+		user = grow(user, slots);
+		system = grow(system, slots);
+		iowait = grow(iowait, slots);
+	}
+
+	private static long[][] grow(long[][] array, int size) {
+		long[][] grown = new long[size][];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		for (int i = array.length; i < size; i++)
+			grown[i] = new long[COLUMNS];
+		return grown;
+	}
+
+	private static boolean[] grow(boolean[] array, int size) {
+		boolean[] grown = new boolean[size];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private static float[] grow(float[] array, int size) {
+		float[] grown = new float[size];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	/**
+	 * @return the number of slots, i.e. the highest core seen so far + 2
+	 */
+	int getSlots() {
+		return valid.length;
+	}
+
+	boolean isValid(int slot) {
+		return valid[slot];
+	}
+
+	/**
+	 * @return busy time in percent, including iowait
+	 */
+	float getTotal(int slot) {
+		return total[slot];
+	}
+
+	/**
+	 * @return user and nice time in percent
+	 */
+	float getUser(int slot) {
+		return user[slot];
+	}
+
+	/**
+	 * @return system and interrupt time in percent
+	 */
+	float getSystem(int slot) {
+		return system[slot];
+	}
+
+	float getIowait(int slot) {
+		return iowait[slot];
+	}
+
+	void close() {
+		parser.close();
+	}
+}
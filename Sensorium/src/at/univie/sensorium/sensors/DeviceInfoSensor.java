@@ -22,15 +22,18 @@ package at.univie.sensorium.sensors;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.RandomAccessFile;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.xmlrpc.android.XMLRPCSerializable;
 
 import android.app.ActivityManager;
 import android.app.ActivityManager.MemoryInfo;
 import android.content.Context;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Build;
-import android.os.Handler;
 import android.telephony.TelephonyManager;
 import android.util.Log;
 import at.univie.sensorium.SensorRegistry;
@@ -50,8 +53,12 @@ public class DeviceInfoSensor extends AbstractSensor {
 	private SensorValue availMem;
 	private SensorValue memThreshold;
 	private SensorValue cpu;
+	private SensorValue cpuUser;
+	private SensorValue cpuSystem;
+	private SensorValue cpuIowait;
+	private SensorValue cpuCores;
+	private CpuSampler cpuSampler = new CpuSampler();
 	private MemoryInfo memoryInfo;
-	private Handler handler = new Handler();
 	private int scan_interval = 30; // sec
 	
 	public DeviceInfoSensor() {
@@ -68,16 +75,19 @@ public class DeviceInfoSensor extends AbstractSensor {
 		availMem = new SensorValue(SensorValue.UNIT.MEM, SensorValue.TYPE.AVAL_MEM);
 		memThreshold = new SensorValue(SensorValue.UNIT.MEM, SensorValue.TYPE.THD_MEM);
 		cpu = new SensorValue(SensorValue.UNIT.RELATIVE, SensorValue.TYPE.CPU);
+		cpuUser = new SensorValue(SensorValue.UNIT.RELATIVE, SensorValue.TYPE.CPU_USER);
+		cpuSystem = new SensorValue(SensorValue.UNIT.RELATIVE, SensorValue.TYPE.CPU_SYSTEM);
+		cpuIowait = new SensorValue(SensorValue.UNIT.RELATIVE, SensorValue.TYPE.CPU_IOWAIT);
+		cpuCores = new SensorValue(SensorValue.UNIT.LIST, SensorValue.TYPE.CPU_CORES);
 	}
 	
 	private Runnable memCPUTask = new Runnable() {
 		@Override
 		public void run() {
 			availMem.setValue(memoryInfo.availMem/1048576L);
-			cpu.setValue(cpuUpdate()*100);
+			cpuUpdate();
 			
 			notifyListeners();
-			handler.postDelayed(this, scan_interval*1000);
 		}		
 	};
 
@@ -109,63 +119,109 @@ public class DeviceInfoSensor extends AbstractSensor {
 		
 		totalMem.setValue(getTotalMemory());
 		memThreshold.setValue(memoryInfo.threshold/1048576L);
-		handler.postDelayed(memCPUTask, 0);
+		schedule(memCPUTask, scan_interval * 1000L, scan_interval * 250L);
 	}
 
-	public long getTotalMemory() {  
-		int tm=1000; 
-		try { 
-			RandomAccessFile reader = new RandomAccessFile("/proc/meminfo", "r"); 
-			String load = reader.readLine(); 
-			String[] totrm = load.split(" kB"); 
-			String[] trm = totrm[0].split(" "); 
-			tm=Integer.parseInt(trm[trm.length-1]); 
-			tm=Math.round(tm/1024); 
-			reader.close();
-			} 
-		catch (IOException ex) { 
-			ex.printStackTrace(); 
-			} 
-		
-		return tm;
-	}  
-	
-	public float cpuUpdate() {
+	public long getTotalMemory() {
+		long tm = 1000;
+		ProcParser meminfo = new ProcParser("/proc/meminfo");
 		try {
-	        RandomAccessFile reader = new RandomAccessFile("/proc/stat", "r");
-	        String load = reader.readLine();
-
-	        String[] toks = load.split(" ");
-
-	        long idle1 = Long.parseLong(toks[5]);
-	        long cpu1 = Long.parseLong(toks[2]) + Long.parseLong(toks[3]) + Long.parseLong(toks[4])
-	              + Long.parseLong(toks[6]) + Long.parseLong(toks[7]) + Long.parseLong(toks[8]);
+			meminfo.read();
+			if (meminfo.findLine("MemTotal"))
+				tm = meminfo.nextLong() / 1024;
+		} catch (IOException e) {
+			StringWriter sw = new StringWriter();
+			PrintWriter pw = new PrintWriter(sw);
+			e.printStackTrace(pw);
+			Log.d(SensorRegistry.TAG, sw.toString());
+		} finally {
+			meminfo.close();
+		}
+		return tm;
+	}
 
-	        try {
-	            Thread.sleep(360);
-	        } catch (Exception e) {}
+	/**
+	 * Takes the CPU usage since the previous call, the first call after
+	 * enabling only reads the counters.
+	 */
+	private void cpuUpdate() {
+		try {
+			if (!cpuSampler.sample())
+				return;
+		} catch (IOException e) {
+			StringWriter sw = new StringWriter();
+			PrintWriter pw = new PrintWriter(sw);
+			e.printStackTrace(pw);
+			Log.d(SensorRegistry.TAG, sw.toString());
+			return;
+		}
+		cpu.setValue(cpuSampler.getTotal(0));
+		cpuUser.setValue(cpuSampler.getUser(0));
+		cpuSystem.setValue(cpuSampler.getSystem(0));
+		cpuIowait.setValue(cpuSampler.getIowait(0));
 
-	        reader.seek(0);
-	        load = reader.readLine();
-	        reader.close();
+		cpuCores.setValue(getCores(cpuSampler));
+	}
 
-	        toks = load.split(" ");
+	/**
+	 * @return the cores with a value in the sampler's last sample, slot 0 is
+	 *         the aggregate of all cores
+	 */
+	static List<CpuCore> getCores(CpuSampler sampler) {
+		List<CpuCore> cores = new ArrayList<CpuCore>(sampler.getSlots() - 1);
+		for (int slot = 1; slot < sampler.getSlots(); slot++) {
+			if (sampler.isValid(slot))
+				cores.add(new CpuCore(slot - 1, sampler.getTotal(slot), sampler.getUser(slot), sampler.getSystem(slot), sampler.getIowait(slot)));
+		}
+		return cores;
+	}
 
-	        long idle2 = Long.parseLong(toks[5]);
-	        long cpu2 = Long.parseLong(toks[2]) + Long.parseLong(toks[3]) + Long.parseLong(toks[4])
-	            + Long.parseLong(toks[6]) + Long.parseLong(toks[7]) + Long.parseLong(toks[8]);
+	@Override
+	protected void _disable() {
+		unschedule();
+		cpuSampler.close();
+		cpuSampler = new CpuSampler();
+	}
 
-	        return (float)(cpu2 - cpu1) / ((cpu2 + idle2) - (cpu1 + idle1));
+	/**
+	 * Usage of a single core.
+	 */
+	public static class CpuCore implements XMLRPCSerializable, NestedSensorValue {
+		private SensorValue id = new SensorValue(SensorValue.UNIT.NUMBER, SensorValue.TYPE.ID);
+		private SensorValue total = new SensorValue(SensorValue.UNIT.RELATIVE, SensorValue.TYPE.CPU);
+		private SensorValue user = new SensorValue(SensorValue.UNIT.RELATIVE, SensorValue.TYPE.CPU_USER);
+		private SensorValue system = new SensorValue(SensorValue.UNIT.RELATIVE, SensorValue.TYPE.CPU_SYSTEM);
+		private SensorValue iowait = new SensorValue(SensorValue.UNIT.RELATIVE, SensorValue.TYPE.CPU_IOWAIT);
+		private List<SensorValue> valuelist;
+
+		public CpuCore(int id, float total, float user, float system, float iowait) {
+			this.id.setValue(id);
+			this.total.setValue(total);
+			this.user.setValue(user);
+			this.system.setValue(system);
+			this.iowait.setValue(iowait);
+
+			valuelist = new LinkedList<SensorValue>();
+			valuelist.add(this.id);
+			valuelist.add(this.total);
+			valuelist.add(this.user);
+			valuelist.add(this.system);
+			valuelist.add(this.iowait);
+		}
 
-	    } catch (IOException ex) {
-	        ex.printStackTrace();
-	    }
+		@Override
+		public String toString() {
+			return "cpu" + id.getValue() + ": " + total.getValueRepresentation() + "% (user " + user.getValueRepresentation() + "%, system " + system.getValueRepresentation() + "%, iowait " + iowait.getValueRepresentation() + "%)";
+		}
 
-	    return 0;
-}
+		@Override
+		public Object getSerializable() {
+			return toString();
+		}
 
-	@Override
-	protected void _disable() {
-		handler.removeCallbacks(memCPUTask);
+		@Override
+		public List<SensorValue> getInnerSensorValues() {
+			return valuelist;
+		}
 	}
 }
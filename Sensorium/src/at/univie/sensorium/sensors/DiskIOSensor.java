@@ -0,0 +1,134 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.sensors;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.xmlrpc.android.XMLRPCSerializable;
+
+import android.util.Log;
+import at.univie.sensorium.SensorRegistry;
+
+/**
+ * Read and write throughput of the disks, read from /proc/diskstats.
+ */
+public class DiskIOSensor extends AbstractSensor {
+
+	private SensorValue readRate;
+	private SensorValue writeRate;
+	private SensorValue disks;
+	private DiskStatsSampler sampler = new DiskStatsSampler();
+	private int scan_interval = 30; // sec
+
+	public DiskIOSensor() {
+		super();
+
+		setName("Disk I/O");
+		readRate = new SensorValue(SensorValue.UNIT.BYTESPERSECOND, SensorValue.TYPE.DISK_READ_RATE);
+		writeRate = new SensorValue(SensorValue.UNIT.BYTESPERSECOND, SensorValue.TYPE.DISK_WRITE_RATE);
+		disks = new SensorValue(SensorValue.UNIT.LIST, SensorValue.TYPE.DISKS);
+	}
+
+	private Runnable scanTask = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				if (sampler.sample()) {
+					readRate.setValue(sampler.getReadTotal());
+					writeRate.setValue(sampler.getWriteTotal());
+					disks.setValue(getDiskIO(sampler));
+					notifyListeners();
+				}
+			} catch (IOException e) {
+				StringWriter sw = new StringWriter();
+				PrintWriter pw = new PrintWriter(sw);
+				e.printStackTrace(pw);
+				Log.d(SensorRegistry.TAG, sw.toString());
+			}
+		}
+	};
+
+	/**
+	 * @return the whole disks with rates in the sampler's last sample,
+	 *         partitions and loop devices would count the same I/O again
+	 */
+	static List<DiskIO> getDiskIO(DiskStatsSampler sampler) {
+		List<DiskIO> io = new ArrayList<DiskIO>();
+		for (DiskStatsSampler.Disk disk : sampler.getDisks()) {
+			if (disk.whole && disk.valid)
+				io.add(new DiskIO(disk.name, disk.readRate, disk.writeRate));
+		}
+		return io;
+	}
+
+	@Override
+	protected void _enable() {
+		schedule(scanTask, scan_interval * 1000L, scan_interval * 250L);
+	}
+
+	@Override
+	protected void _disable() {
+		unschedule();
+		sampler.close();
+		sampler = new DiskStatsSampler();
+	}
+
+	/**
+	 * Throughput of a single disk.
+	 */
+	public static class DiskIO implements XMLRPCSerializable, NestedSensorValue {
+		private SensorValue name = new SensorValue(SensorValue.UNIT.NAME, SensorValue.TYPE.DISK);
+		private SensorValue read = new SensorValue(SensorValue.UNIT.BYTESPERSECOND, SensorValue.TYPE.DISK_READ_RATE);
+		private SensorValue write = new SensorValue(SensorValue.UNIT.BYTESPERSECOND, SensorValue.TYPE.DISK_WRITE_RATE);
+		private List<SensorValue> valuelist;
+
+		public DiskIO(String name, float read, float write) {
+			this.name.setValue(name);
+			this.read.setValue(read);
+			this.write.setValue(write);
+
+			valuelist = new LinkedList<SensorValue>();
+			valuelist.add(this.name);
+			valuelist.add(this.read);
+			valuelist.add(this.write);
+		}
+
+		@Override
+		public String toString() {
+			return name.getValue() + ": read " + read.getValueRepresentation() + " B/s, write " + write.getValueRepresentation() + " B/s";
+		}
+
+		@Override
+		public Object getSerializable() {
+			return toString();
+		}
+
+		@Override
+		public List<SensorValue> getInnerSensorValues() {
+			return valuelist;
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.sensors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-disk I/O from /proc/diskstats, computed from the difference to the
+ * counters read by the previous call of sample(). Only whole disks are
+ * reported (those listed in /sys/block), partitions would count the same
+ * I/O twice. Loop and ram devices are skipped.
+ */
+class DiskStatsSampler {
+
+	static final String PROC_DISKSTATS = "/proc/diskstats";
+	static final String SYS_BLOCK = "/sys/block";
+	static final int SECTOR_SIZE = 512; // diskstats always counts 512 byte sectors
+
+	/**
+	 * Counters and rates of one disk. Rates are only valid if the disk was
+	 * present in the last two samples.
+	 */
+	static class Disk {
+		final String name;
+		final boolean whole;
+		long reads, writes, sectorsRead, sectorsWritten;
+		long prevReads, prevWrites, prevSectorsRead, prevSectorsWritten;
+		boolean seen, present, valid;
+		float readRate, writeRate; // bytes per second
+		float readOps, writeOps; // per second
+
+		Disk(String name, boolean whole) {
+			this.name = name;
+			this.whole = whole;
+		}
+	}
+
+	private final ProcParser parser;
+	private final File sysblock;
+	private final List<Disk> disks = new ArrayList<Disk>();
+	private long lastSample = 0;
+	private float readTotal, writeTotal;
+
+	DiskStatsSampler() {
+		this(PROC_DISKSTATS, SYS_BLOCK);
+	}
+
+	/**
+	 * @param sysblock
+	 *            directory with an entry per whole disk, if it doesn't exist
+	 *            all devices are reported
+	 */
+	DiskStatsSampler(String path, String sysblock) {
+		this.parser = new ProcParser(path);
+		this.sysblock = new File(sysblock);
+	}
+
+	/**
+	 * @return true if there are rates, i.e. this is not the first sample
+	 */
+	boolean sample() throws IOException {
+		return sample(System.nanoTime());
+	}
+
+	boolean sample(long now) throws IOException {
+		parser.read();
+		for (int i = 0; i < disks.size(); i++)
+			disks.get(i).present = false;
+
+		do {
+			parser.skipTokens(2); // major minor
+			if (parser.nextToken() == 0)
+				continue;
+			Disk disk = find();
+			if (!disk.whole)
+				continue;
+			disk.reads = parser.nextLong();
+			parser.nextLong(); // merged
+			disk.sectorsRead = parser.nextLong();
+			parser.nextLong(); // ms reading
+			disk.writes = parser.nextLong();
+			parser.nextLong(); // merged
+			disk.sectorsWritten = parser.nextLong();
+			disk.present = true;
+		} while (parser.nextLine());
+
+		double seconds = lastSample == 0 ? 0 : (now - lastSample) / 1e9;
+		readTotal = 0;
+		writeTotal = 0;
+		boolean rates = false;
+		for (int i = 0; i < disks.size(); i++) {
+			Disk disk = disks.get(i);
+			disk.valid = false;
+			if (disk.present && disk.seen && seconds > 0 && disk.sectorsRead >= disk.prevSectorsRead && disk.sectorsWritten >= disk.prevSectorsWritten) {
+				disk.readRate = (float) ((disk.sectorsRead - disk.prevSectorsRead) * SECTOR_SIZE / seconds);
+				disk.writeRate = (float) ((disk.sectorsWritten - disk.prevSectorsWritten) * SECTOR_SIZE / seconds);
+				disk.readOps = (float) ((disk.reads - disk.prevReads) / seconds);
+				disk.writeOps = (float) ((disk.writes - disk.prevWrites) / seconds);
+				disk.valid = true;
+				readTotal += disk.readRate;
+				writeTotal += disk.writeRate;
+			}
+			if (disk.present && seconds > 0)
+				rates = true;
+			disk.seen = disk.present;
+			disk.prevReads = disk.reads;
+			disk.prevWrites = disk.writes;
+			disk.prevSectorsRead = disk.sectorsRead;
+			disk.prevSectorsWritten = disk.sectorsWritten;
+		}
+		lastSample = now;
+		return rates;
+	}
+
+	private Disk find() {
+		for (int i = 0; i < disks.size(); i++) {
+			if (parser.tokenEquals(disks.get(i).name))
+				return disks.get(i);
+		}
+		// only checked once per device name
+		String name = parser.tokenString();
+		boolean whole = !name.startsWith("loop") && !name.startsWith("ram") && (!sysblock.isDirectory() || new File(sysblock, name).exists());
+		Disk disk = new Disk(name, whole);
+		disks.add(disk);
+		return disk;
+	}
+
+	/**
+	 * @return all devices seen so far, check Disk.whole and Disk.valid
+	 */
+	List<Disk> getDisks() {
+		return disks;
+	}
+
+	/**
+	 * @return bytes per second read from all disks
+	 */
+	float getReadTotal() {
+		return readTotal;
+	}
+
+	float getWriteTotal() {
+		return writeTotal;
+	}
+
+	void close() {
+		parser.close();
+	}
+}
@@ -22,14 +22,6 @@
  
 package at.univie.sensorium.sensors;
 
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.util.List;
-import java.util.Locale;
-
-import android.location.Address;
-import android.location.Geocoder;
 import android.location.Location;
 import android.os.Bundle;
 import android.util.Log;
@@ -91,7 +83,8 @@ public class FusedLocationSensor extends AbstractSensor implements LocationListe
 			mLocationClient.removeLocationUpdates(this);
 			mLocationClient.disconnect();
 		}
-
+		ReverseGeocoder.getInstance().cancel(address);
+		Log.d(SensorRegistry.TAG, ReverseGeocoder.getInstance().toString());
 	}
 
 	@Override
@@ -129,24 +122,7 @@ public class FusedLocationSensor extends AbstractSensor implements LocationListe
 		bearing.setValue(location.getBearing());
 		speed.setValue(location.getSpeed());
 
-		Geocoder myLocation = new Geocoder(getContext().getApplicationContext(), Locale.getDefault());
-		List<Address> list = null;
-		try {
-			list = myLocation.getFromLocation(location.getLatitude(), location.getLongitude(), 1);
-			if (list != null && list.size() > 0) {
-				Address addr = list.get(0);
-				String addressText = String.format("%s, %s, %s", addr.getMaxAddressLineIndex() > 0 ? addr.getAddressLine(0) : "", addr.getLocality(), // location.getAdminArea(),
-						addr.getCountryName());
-				address.setValue(addressText);
-			} else
-				address.setValue("n/a");
-		} catch (IOException e) {
-			StringWriter sw = new StringWriter();
-			PrintWriter pw = new PrintWriter(sw);
-			e.printStackTrace(pw);
-			Log.d(SensorRegistry.TAG, sw.toString());
-		}
-
+		ReverseGeocoder.getInstance().resolve(this, address, location.getLatitude(), location.getLongitude());
 		notifyListeners();
 
 	}
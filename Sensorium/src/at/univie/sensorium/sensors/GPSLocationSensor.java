@@ -20,18 +20,10 @@
 
 package at.univie.sensorium.sensors;
 
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.util.List;
-import java.util.Locale;
-
 import android.content.Context;
 import android.location.GpsSatellite;
 import android.location.GpsStatus;
 import android.location.GpsStatus.Listener;
-import android.location.Address;
-import android.location.Geocoder;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
@@ -91,27 +83,7 @@ public class GPSLocationSensor extends AbstractSensor {
 				speed.setValue(loc.getSpeed());
 				timeMillis = loc.getTime();
 				
-				Geocoder myLocation = new Geocoder(getContext().getApplicationContext(), Locale.getDefault());
-				List<Address> list = null;
-				try {
-					list = myLocation.getFromLocation(loc.getLatitude(), loc.getLongitude(), 1);
-					if (list != null && list.size() > 0) {
-						Address location = list.get(0);
-						String addressText = String.format("%s, %s, %s",
-								location.getMaxAddressLineIndex() > 0 ? location.getAddressLine(0) : "",
-										location.getLocality(), // location.getAdminArea(), 
-										location.getCountryName());
-						address.setValue(addressText);
-					}
-					else
-						address.setValue("n/a");
-				} catch (IOException e) {
-					StringWriter sw = new StringWriter();
-					PrintWriter pw = new PrintWriter(sw);
-					e.printStackTrace(pw);
-					Log.d(SensorRegistry.TAG, sw.toString());
-				}
-
+				ReverseGeocoder.getInstance().resolve(GPSLocationSensor.this, address, loc.getLatitude(), loc.getLongitude());
 				notifyListeners();
 			}
 
@@ -155,6 +127,15 @@ public class GPSLocationSensor extends AbstractSensor {
 		locationManager.addGpsStatusListener(gpsStatusListener);
 	}
 
+	/**
+	 * Satellite status changes arrive about once a second, merge them with
+	 * the location fixes instead of logging each one.
+	 */
+	@Override
+	protected int getDefaultCoalesceWindow() {
+		return 1000;
+	}
+
 	@Override
 	protected void updateTimestamp(){
 		timestamp.setValue(timeMillis);
@@ -165,5 +146,7 @@ public class GPSLocationSensor extends AbstractSensor {
 			locationManager.removeUpdates(locationListener);
 		if (gpsStatusListener != null)
 			locationManager.removeGpsStatusListener(gpsStatusListener);
+		ReverseGeocoder.getInstance().cancel(address);
+		Log.d(SensorRegistry.TAG, ReverseGeocoder.getInstance().toString());
 	}
 }
@@ -0,0 +1,151 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.sensors;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-interface throughput from /proc/net/dev, computed from the difference
+ * to the counters read by the previous call of sample().
+ */
+class NetDevSampler {
+
+	static final String PROC_NET_DEV = "/proc/net/dev";
+
+	/**
+	 * Counters and rates of one interface. Rates are only valid if the
+	 * interface was present in the last two samples.
+	 */
+	static class Interface {
+		final String name;
+		long rxBytes, rxPackets, txBytes, txPackets;
+		long prevRxBytes, prevRxPackets, prevTxBytes, prevTxPackets;
+		boolean seen, present, valid;
+		float rxRate, txRate; // bytes per second
+		float rxPacketRate, txPacketRate;
+
+		Interface(String name) {
+			this.name = name;
+		}
+	}
+
+	private final ProcParser parser;
+	private final List<Interface> interfaces = new ArrayList<Interface>();
+	private long lastSample = 0;
+	private float rxTotal, txTotal;
+
+	NetDevSampler() {
+		this(PROC_NET_DEV);
+	}
+
+	NetDevSampler(String path) {
+		this.parser = new ProcParser(path);
+	}
+
+	/**
+	 * @return true if there are rates, i.e. this is not the first sample
+	 */
+	boolean sample() throws IOException {
+		return sample(System.nanoTime());
+	}
+
+	boolean sample(long now) throws IOException {
+		parser.read();
+		for (int i = 0; i < interfaces.size(); i++)
+			interfaces.get(i).present = false;
+
+		parser.nextLine(); // two header lines
+		while (parser.nextLine()) {
+			if (parser.nextToken() == 0)
+				continue;
+			Interface iface = find();
+			iface.rxBytes = parser.nextLong();
+			iface.rxPackets = parser.nextLong();
+			parser.skipTokens(6); // errs drop fifo frame compressed multicast
+			iface.txBytes = parser.nextLong();
+			iface.txPackets = parser.nextLong();
+			iface.present = true;
+		}
+
+		double seconds = lastSample == 0 ? 0 : (now - lastSample) / 1e9;
+		rxTotal = 0;
+		txTotal = 0;
+		boolean rates = false;
+		for (int i = 0; i < interfaces.size(); i++) {
+			Interface iface = interfaces.get(i);
+			iface.valid = false;
+			if (iface.present && iface.seen && seconds > 0 && iface.rxBytes >= iface.prevRxBytes && iface.txBytes >= iface.prevTxBytes) {
+				iface.rxRate = (float) ((iface.rxBytes - iface.prevRxBytes) / seconds);
+				iface.txRate = (float) ((iface.txBytes - iface.prevTxBytes) / seconds);
+				iface.rxPacketRate = (float) ((iface.rxPackets - iface.prevRxPackets) / seconds);
+				iface.txPacketRate = (float) ((iface.txPackets - iface.prevTxPackets) / seconds);
+				iface.valid = true;
+				if (!iface.name.equals("lo")) {
+					rxTotal += iface.rxRate;
+					txTotal += iface.txRate;
+				}
+			}
+			if (iface.present && seconds > 0)
+				rates = true;
+			iface.seen = iface.present;
+			iface.prevRxBytes = iface.rxBytes;
+			iface.prevRxPackets = iface.rxPackets;
+			iface.prevTxBytes = iface.txBytes;
+			iface.prevTxPackets = iface.txPackets;
+		}
+		lastSample = now;
+		return rates;
+	}
+
+	private Interface find() {
+		for (int i = 0; i < interfaces.size(); i++) {
+			if (parser.tokenEquals(interfaces.get(i).name))
+				return interfaces.get(i);
+		}
+		Interface iface = new Interface(parser.tokenString());
+		interfaces.add(iface);
+		return iface;
+	}
+
+	/**
+	 * @return all interfaces seen so far, check Interface.valid
+	 */
+	List<Interface> getInterfaces() {
+		return interfaces;
+	}
+
+	/**
+	 * @return bytes per second received on all interfaces except loopback
+	 */
+	float getRxTotal() {
+		return rxTotal;
+	}
+
+	float getTxTotal() {
+		return txTotal;
+	}
+
+	void close() {
+		parser.close();
+	}
+}
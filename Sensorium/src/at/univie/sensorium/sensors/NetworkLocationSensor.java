@@ -20,18 +20,13 @@
 
 package at.univie.sensorium.sensors;
 
-import java.io.IOException;
-import java.util.List;
-import java.util.Locale;
-
 import android.content.Context;
-import android.location.Address;
-import android.location.Geocoder;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Bundle;
 import android.util.Log;
+import at.univie.sensorium.SensorRegistry;
 
 public class NetworkLocationSensor extends AbstractSensor {
 
@@ -72,24 +67,7 @@ public class NetworkLocationSensor extends AbstractSensor {
 				speed.setValue(loc.getSpeed());
 				timeMillis = loc.getTime();
 				
-				Geocoder myLocation = new Geocoder(getContext().getApplicationContext(), Locale.getDefault());
-				List<Address> list = null;
-				try {
-					list = myLocation.getFromLocation(loc.getLatitude(), loc.getLongitude(), 1);
-					if (list != null && list.size() > 0) {
-						Address location = list.get(0);
-						String addressText = String.format("%s, %s, %s",
-								location.getMaxAddressLineIndex() > 0 ? location.getAddressLine(0) : "",
-										location.getLocality(), // location.getAdminArea(), 
-										location.getCountryName());
-						address.setValue(addressText);
-					}
-					else
-						address.setValue("n/a");
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-								
+				ReverseGeocoder.getInstance().resolve(NetworkLocationSensor.this, address, loc.getLatitude(), loc.getLongitude());
 				notifyListeners();
 			}
 
@@ -114,6 +92,8 @@ public class NetworkLocationSensor extends AbstractSensor {
 	protected void _disable() {
 		if (locationManager != null)
 			locationManager.removeUpdates(locationListener);
+		ReverseGeocoder.getInstance().cancel(address);
+		Log.d(SensorRegistry.TAG, ReverseGeocoder.getInstance().toString());
 	}
 	
 	protected void updateTimestamp(){
@@ -0,0 +1,133 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.sensors;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.xmlrpc.android.XMLRPCSerializable;
+
+import android.util.Log;
+import at.univie.sensorium.SensorRegistry;
+
+/**
+ * Throughput of the network interfaces, read from /proc/net/dev.
+ */
+public class NetworkTrafficSensor extends AbstractSensor {
+
+	private SensorValue rxRate;
+	private SensorValue txRate;
+	private SensorValue interfaces;
+	private NetDevSampler sampler = new NetDevSampler();
+	private int scan_interval = 30; // sec
+
+	public NetworkTrafficSensor() {
+		super();
+
+		setName("Network Traffic");
+		rxRate = new SensorValue(SensorValue.UNIT.BYTESPERSECOND, SensorValue.TYPE.RX_RATE);
+		txRate = new SensorValue(SensorValue.UNIT.BYTESPERSECOND, SensorValue.TYPE.TX_RATE);
+		interfaces = new SensorValue(SensorValue.UNIT.LIST, SensorValue.TYPE.NETWORK_INTERFACES);
+	}
+
+	private Runnable scanTask = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				if (sampler.sample()) {
+					rxRate.setValue(sampler.getRxTotal());
+					txRate.setValue(sampler.getTxTotal());
+					interfaces.setValue(getTraffic(sampler));
+					notifyListeners();
+				}
+			} catch (IOException e) {
+				StringWriter sw = new StringWriter();
+				PrintWriter pw = new PrintWriter(sw);
+				e.printStackTrace(pw);
+				Log.d(SensorRegistry.TAG, sw.toString());
+			}
+		}
+	};
+
+	/**
+	 * @return the interfaces with rates in the sampler's last sample
+	 */
+	static List<InterfaceTraffic> getTraffic(NetDevSampler sampler) {
+		List<InterfaceTraffic> traffic = new ArrayList<InterfaceTraffic>();
+		for (NetDevSampler.Interface iface : sampler.getInterfaces()) {
+			if (iface.valid)
+				traffic.add(new InterfaceTraffic(iface.name, iface.rxRate, iface.txRate));
+		}
+		return traffic;
+	}
+
+	@Override
+	protected void _enable() {
+		schedule(scanTask, scan_interval * 1000L, scan_interval * 250L);
+	}
+
+	@Override
+	protected void _disable() {
+		unschedule();
+		sampler.close();
+		sampler = new NetDevSampler();
+	}
+
+	/**
+	 * Throughput of a single interface.
+	 */
+	public static class InterfaceTraffic implements XMLRPCSerializable, NestedSensorValue {
+		private SensorValue name = new SensorValue(SensorValue.UNIT.NAME, SensorValue.TYPE.INTERFACE);
+		private SensorValue rx = new SensorValue(SensorValue.UNIT.BYTESPERSECOND, SensorValue.TYPE.RX_RATE);
+		private SensorValue tx = new SensorValue(SensorValue.UNIT.BYTESPERSECOND, SensorValue.TYPE.TX_RATE);
+		private List<SensorValue> valuelist;
+
+		public InterfaceTraffic(String name, float rx, float tx) {
+			this.name.setValue(name);
+			this.rx.setValue(rx);
+			this.tx.setValue(tx);
+
+			valuelist = new LinkedList<SensorValue>();
+			valuelist.add(this.name);
+			valuelist.add(this.rx);
+			valuelist.add(this.tx);
+		}
+
+		@Override
+		public String toString() {
+			return name.getValue() + ": rx " + rx.getValueRepresentation() + " B/s, tx " + tx.getValueRepresentation() + " B/s";
+		}
+
+		@Override
+		public Object getSerializable() {
+			return toString();
+		}
+
+		@Override
+		public List<SensorValue> getInnerSensorValues() {
+			return valuelist;
+		}
+	}
+}
@@ -25,12 +25,10 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
-import android.os.Handler;
 
 public class PressureSensor extends AbstractSensor {
 
 	private final int scan_interval_millis = 30000; // 30s
-	private Handler handler = new Handler();
 
 	private SensorManager mSensorManager;
 	private Sensor mPressure;
@@ -49,11 +47,13 @@ public class PressureSensor extends AbstractSensor {
 	protected void _enable() {
 		mSensorManager = (SensorManager) getContext().getSystemService(Context.SENSOR_SERVICE);
 		mPressure = mSensorManager.getDefaultSensor(Sensor.TYPE_PRESSURE);
-		mSensorManager.registerListener(pressurelistener, mPressure, SensorManager.SENSOR_DELAY_NORMAL);
+		// registers the listener right away and then every interval
+		schedule(enablePressureSensor, scan_interval_millis, scan_interval_millis / 4);
 	}
 
 	@Override
 	protected void _disable() {
+		unschedule();
 		mSensorManager.unregisterListener(pressurelistener);
 	}
 
@@ -78,7 +78,6 @@ public class PressureSensor extends AbstractSensor {
 			pressure.setValue(event.values[0]);
 			notifyListeners();
 			mSensorManager.unregisterListener(this);
-			handler.postDelayed(enablePressureSensor, scan_interval_millis);
 		}
 	};
 }
@@ -0,0 +1,259 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.sensors;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Reads a file from /proc into a reused byte buffer and scans it in place.
+ * The file is kept open and read again from the start on every read(), so
+ * parsing a file that is read periodically doesn't allocate anything once
+ * the buffer has grown to fit it.
+ *
+ * The scanning methods work on the current position and never go past the
+ * end of the current line unless asked to (nextLine(), seekAfterLast()).
+ */
+class ProcParser {
+
+	private final String path;
+	private RandomAccessFile file;
+	private byte[] buffer;
+	private int length = 0;
+	private int pos = 0;
+	private int tokenStart = 0;
+	private int tokenLength = 0;
+
+	ProcParser(String path) {
+		this(path, 4096);
+	}
+
+	ProcParser(String path, int capacity) {
+		this.path = path;
+		this.buffer = new byte[capacity];
+	}
+
+	/**
+	 * Reads the whole file and positions at its start.
+	 * 
+	 * @return the number of bytes read
+	 */
+	int read() throws IOException {
+		if (file == null)
+			file = new RandomAccessFile(path, "r");
+		file.seek(0);
+		length = 0;
+		int n;
+		while ((n = file.read(buffer, length, buffer.length - length)) > 0) {
+			length += n;
+			if (length == buffer.length) {
+				byte[] grown = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, grown, 0, length);
+				buffer = grown;
+			}
+		}
+		pos = 0;
+		return length;
+	}
+
+	void close() {
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+			file = null;
+		}
+	}
+
+	boolean atEnd() {
+		return pos >= length;
+	}
+
+	boolean atEndOfLine() {
+		return pos >= length || buffer[pos] == '\n';
+	}
+
+	/**
+	 * Moves to the start of the next line.
+	 * 
+	 * @return false if there is none
+	 */
+	boolean nextLine() {
+		while (pos < length && buffer[pos] != '\n')
+			pos++;
+		if (pos < length)
+			pos++;
+		return pos < length;
+	}
+
+	/**
+	 * Moves behind the last occurrence of b in the current line, e.g. past
+	 * the process name in /proc/self/stat which may contain blanks.
+	 * 
+	 * @return false if the line doesn't contain b
+	 */
+	boolean seekAfterLast(char b) {
+		int end = pos;
+		while (end < length && buffer[end] != '\n')
+			end++;
+		for (int i = end - 1; i >= pos; i--) {
+			if (buffer[i] == b) {
+				pos = i + 1;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Moves behind the next occurrence of b in the current line.
+	 * 
+	 * @return false if the line doesn't contain b
+	 */
+	boolean skipPast(char b) {
+		while (pos < length && buffer[pos] != '\n') {
+			if (buffer[pos++] == b)
+				return true;
+		}
+		return false;
+	}
+
+	private void skipBlanks() {
+		while (pos < length && (buffer[pos] == ' ' || buffer[pos] == '\t'))
+			pos++;
+	}
+
+	/**
+	 * Reads the next token, which ends at a blank, a colon or the end of the
+	 * line. Its position is available through the token methods.
+	 * 
+	 * @return the length of the token, 0 at the end of the line
+	 */
+	int nextToken() {
+		skipBlanks();
+		tokenStart = pos;
+		while (pos < length && buffer[pos] != ' ' && buffer[pos] != '\t' && buffer[pos] != '\n' && buffer[pos] != ':')
+			pos++;
+		tokenLength = pos - tokenStart;
+		return tokenLength;
+	}
+
+	/**
+	 * Skips the given number of tokens.
+	 */
+	void skipTokens(int count) {
+		for (int i = 0; i < count; i++) {
+			if (nextToken() == 0)
+				return;
+		}
+	}
+
+	/**
+	 * @return true if the last token consists of the given ASCII chars
+	 */
+	boolean tokenEquals(String s) {
+		if (s.length() != tokenLength)
+			return false;
+		for (int i = 0; i < tokenLength; i++) {
+			if (buffer[tokenStart + i] != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the last token starts with the given ASCII chars
+	 */
+	boolean tokenStartsWith(String s) {
+		if (s.length() > tokenLength)
+			return false;
+		for (int i = 0; i < s.length(); i++) {
+			if (buffer[tokenStart + i] != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number in the last token behind the first offset chars,
+	 *         e.g. 3 for offset 3 and "cpu3"
+	 */
+	long tokenLong(int offset) {
+		long value = 0;
+		for (int i = tokenStart + offset; i < tokenStart + tokenLength && buffer[i] >= '0' && buffer[i] <= '9'; i++)
+			value = value * 10 + (buffer[i] - '0');
+		return value;
+	}
+
+	/**
+	 * @return the last token as a new String, only meant for tokens that are
+	 *         kept, e.g. names seen for the first time
+	 */
+	String tokenString() {
+		char[] chars = new char[tokenLength];
+		for (int i = 0; i < tokenLength; i++)
+			chars[i] = (char) (buffer[tokenStart + i] & 0xff);
+		return new String(chars);
+	}
+
+	/**
+	 * Parses the next number, skipping leading blanks and, if the line
+	 * continues with a colon, the colon. Anything that isn't a digit ends the
+	 * number.
+	 * 
+	 * @return the number, 0 if there is none
+	 */
+	long nextLong() {
+		skipBlanks();
+		if (pos < length && buffer[pos] == ':') {
+			pos++;
+			skipBlanks();
+		}
+		boolean negative = false;
+		if (pos < length && buffer[pos] == '-') {
+			negative = true;
+			pos++;
+		}
+		long value = 0;
+		while (pos < length && buffer[pos] >= '0' && buffer[pos] <= '9')
+			value = value * 10 + (buffer[pos++] - '0');
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Moves to the line that starts with the given key, searching from the
+	 * start of the file, and behind the key.
+	 * 
+	 * @return false if no line starts with it
+	 */
+	boolean findLine(String key) {
+		pos = 0;
+		do {
+			int start = pos;
+			if (nextToken() > 0 && tokenEquals(key))
+				return true;
+			pos = start;
+		} while (nextLine());
+		return false;
+	}
+}
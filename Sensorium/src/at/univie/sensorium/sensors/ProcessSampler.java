@@ -0,0 +1,105 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.sensors;
+
+import java.io.IOException;
+
+/**
+ * CPU time, threads and resident memory of this process from
+ * /proc/self/stat and /proc/self/status. CPU usage is computed from the
+ * difference to the previous call of sample() and can exceed 100% when
+ * several cores are busy.
+ */
+class ProcessSampler {
+
+	static final String PROC_SELF_STAT = "/proc/self/stat";
+	static final String PROC_SELF_STATUS = "/proc/self/status";
+	static final int USER_HZ = 100; // clock ticks of /proc, fixed on Linux/Android
+
+	private final ProcParser stat;
+	private final ProcParser status;
+	private long lastSample = 0;
+	private long lastTicks = 0;
+	private float cpu;
+	private long threads;
+	private long rss; // kB
+
+	ProcessSampler() {
+		this(PROC_SELF_STAT, PROC_SELF_STATUS);
+	}
+
+	ProcessSampler(String stat, String status) {
+		this.stat = new ProcParser(stat, 1024);
+		this.status = new ProcParser(status);
+	}
+
+	/**
+	 * @return true if there is a CPU value, i.e. this is not the first sample
+	 */
+	boolean sample() throws IOException {
+		return sample(System.nanoTime());
+	}
+
+	boolean sample(long now) throws IOException {
+		stat.read();
+		// the process name in field 2 may contain blanks and parentheses
+		if (!stat.seekAfterLast(')'))
+			throw new IOException("Unexpected format of " + PROC_SELF_STAT);
+		stat.skipTokens(11); // fields 3 to 13
+		long ticks = stat.nextLong() + stat.nextLong(); // utime stime
+		stat.skipTokens(4); // cutime cstime priority nice
+		threads = stat.nextLong();
+
+		status.read();
+		if (status.findLine("VmRSS"))
+			rss = status.nextLong();
+
+		boolean valid = lastSample != 0 && now > lastSample && ticks >= lastTicks;
+		if (valid)
+			cpu = (float) (100.0 * (ticks - lastTicks) / USER_HZ / ((now - lastSample) / 1e9));
+		lastSample = now;
+		lastTicks = ticks;
+		return valid;
+	}
+
+	/**
+	 * @return CPU time used since the previous sample, in percent of one core
+	 */
+	float getCpu() {
+		return cpu;
+	}
+
+	long getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @return resident set size in kB
+	 */
+	long getRss() {
+		return rss;
+	}
+
+	void close() {
+		stat.close();
+		status.close();
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.sensors;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import android.util.Log;
+import at.univie.sensorium.SensorRegistry;
+
+/**
+ * CPU usage, memory and threads of the Sensorium process itself, read from
+ * /proc/self.
+ */
+public class ProcessSensor extends AbstractSensor {
+
+	private SensorValue cpu;
+	private SensorValue rss;
+	private SensorValue threads;
+	private ProcessSampler sampler = new ProcessSampler();
+	private int scan_interval = 30; // sec
+
+	public ProcessSensor() {
+		super();
+
+		setName("Sensorium Process");
+		cpu = new SensorValue(SensorValue.UNIT.RELATIVE, SensorValue.TYPE.PROCESS_CPU);
+		rss = new SensorValue(SensorValue.UNIT.MEM, SensorValue.TYPE.PROCESS_RSS);
+		threads = new SensorValue(SensorValue.UNIT.NUMBER, SensorValue.TYPE.PROCESS_THREADS);
+	}
+
+	private Runnable scanTask = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				if (sampler.sample()) {
+					cpu.setValue(sampler.getCpu());
+					rss.setValue(sampler.getRss() / 1024L);
+					threads.setValue(sampler.getThreads());
+					notifyListeners();
+				}
+			} catch (IOException e) {
+				StringWriter sw = new StringWriter();
+				PrintWriter pw = new PrintWriter(sw);
+				e.printStackTrace(pw);
+				Log.d(SensorRegistry.TAG, sw.toString());
+			}
+		}
+	};
+
+	@Override
+	protected void _enable() {
+		schedule(scanTask, scan_interval * 1000L, scan_interval * 250L);
+	}
+
+	@Override
+	protected void _disable() {
+		unschedule();
+		sampler.close();
+		sampler = new ProcessSampler();
+	}
+}
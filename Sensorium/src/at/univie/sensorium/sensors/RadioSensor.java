@@ -196,6 +196,15 @@ public class RadioSensor extends AbstractSensor {
 		telephonyManager.listen(phoneStateListener, PhoneStateListener.LISTEN_CELL_LOCATION | PhoneStateListener.LISTEN_SIGNAL_STRENGTHS | PhoneStateListener.LISTEN_SERVICE_STATE);
 	}
 
+	/**
+	 * Service state, cell location and signal strength callbacks usually
+	 * arrive within a few ms of each other for one change of the cell.
+	 */
+	@Override
+	protected int getDefaultCoalesceWindow() {
+		return 250;
+	}
+
 	@Override
 	protected void _disable() {
 
@@ -0,0 +1,522 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.sensors;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import at.univie.sensorium.SensorRegistry;
+import at.univie.sensorium.logging.BinaryLogReader;
+import at.univie.sensorium.logging.DeltaLogReader;
+import at.univie.sensorium.logging.FramedLogReader;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Replays the log segments of one sensor as written by JSONLogger (JSON,
+ * gzipped JSON, framed and binary segments, with or without delta records).
+ * Every record sets the values and calls notifyListeners() like a real
+ * sensor would, so logging, privacy and XMLRPC can be driven without the
+ * hardware, deterministically and at a chosen speed. The segments are read
+ * on a background thread, the records are published on the main thread like
+ * those of the other sensors. Single records are not written to the debug
+ * output, the replay is logged when it ends.
+ *
+ * The values are the logged ones, i.e. already anonymized at the level they
+ * were logged with, and the units are not part of JSON logs (they are
+ * replayed as OTHER). The fields are taken from the first record. As the
+ * registry keys sensors by class, one ReplaySensor can be registered at a
+ * time.
+ */
+public class ReplaySensor extends AbstractSensor {
+
+	/** Replays the records one after the other without waiting. */
+	public static final double AS_FAST_AS_POSSIBLE = 0;
+	/** Replays the records with the gaps between their timestamps. */
+	public static final double RECORDED_SPEED = 1;
+
+	private static final String TIMESTAMP = SensorValue.TYPE.TIMESTAMP.getName();
+	private static final int IN_FLIGHT = 64; // records read ahead of the main thread
+	private static final Map<String, SensorValue.TYPE> typesByName = new HashMap<String, SensorValue.TYPE>();
+
+	static {
+		for (SensorValue.TYPE type : SensorValue.TYPE.values())
+			typesByName.put(type.getName(), type);
+	}
+
+	private final List<File> files;
+	private final double speed;
+	private final String[] keys; // logged field names, in slot order
+	private final Map<String, SensorValue> valuesByKey = new HashMap<String, SensorValue>();
+	private final SensorValue[] values;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private final Semaphore inFlight = new Semaphore(IN_FLIGHT);
+
+	private volatile long recordedTimestamp = 0;
+	private volatile Thread thread;
+	private volatile boolean running = false;
+	private volatile CountDownLatch finished = new CountDownLatch(1);
+	private volatile long replayed = 0;
+	private volatile long startNanos = 0;
+	private volatile long endNanos = 0;
+
+	/**
+	 * @param files
+	 *            the segments of one sensor, in the order they were written
+	 * @param speed
+	 *            RECORDED_SPEED, a factor like 10 for ten times the
+	 *            recorded speed, or AS_FAST_AS_POSSIBLE
+	 * @throws IOException
+	 *             if the first record can't be read
+	 */
+	public ReplaySensor(List<File> files, double speed) throws IOException {
+		super();
+		setName("Replay");
+		this.files = new ArrayList<File>(files);
+		this.speed = speed;
+
+		Map<String, SensorValue> first = null;
+		if (!files.isEmpty()) {
+			Source source = open(files.get(0));
+			try {
+				first = source.next();
+			} finally {
+				source.close();
+			}
+		}
+		if (first == null)
+			throw new IOException("No records to replay");
+
+		List<String> k = new ArrayList<String>();
+		for (Map.Entry<String, SensorValue> e : first.entrySet()) {
+			if (e.getKey().equals(TIMESTAMP))
+				continue; // replayed through the sensor's own timestamp
+			SensorValue value = new SensorValue(e.getValue().getUnit(), e.getValue().getType());
+			k.add(e.getKey());
+			valuesByKey.put(e.getKey(), value);
+		}
+		keys = k.toArray(new String[k.size()]);
+		values = new SensorValue[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			values[i] = valuesByKey.get(keys[i]);
+	}
+
+	@Override
+	protected SensorValueTable createSensorValueTable() {
+		// method names for XMLRPC, e.g. "cell id" -> cellId
+		String[] names = new String[keys.length];
+		Map<String, Integer> used = new HashMap<String, Integer>();
+		for (int i = 0; i < keys.length; i++) {
+			String name = identifier(keys[i]);
+			Integer count = used.get(name);
+			used.put(name, count == null ? 1 : count + 1);
+			names[i] = count == null ? name : name + count;
+		}
+		return SensorValueTable.forNames(names);
+	}
+
+	@Override
+	protected SensorValue[] bindSensorValueTable(SensorValueTable table) {
+		return values.clone();
+	}
+
+	private static String identifier(String key) {
+		StringBuilder sb = new StringBuilder();
+		boolean upper = false;
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			if (Character.isLetterOrDigit(c)) {
+				sb.append(upper && sb.length() > 0 ? Character.toUpperCase(c) : c);
+				upper = false;
+			} else {
+				upper = true;
+			}
+		}
+		if (sb.length() == 0 || !Character.isLetter(sb.charAt(0)))
+			sb.insert(0, "value");
+		else
+			sb.setCharAt(0, Character.toLowerCase(sb.charAt(0)));
+		return sb.toString();
+	}
+
+	@Override
+	protected void _enable() {
+		running = true;
+		finished = new CountDownLatch(1);
+		thread = new Thread(replay, "ReplaySensor");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	protected void _disable() {
+		running = false;
+		Thread t = thread;
+		if (t != null)
+			t.interrupt();
+		thread = null;
+	}
+
+	@Override
+	protected void updateTimestamp() {
+		long ts = recordedTimestamp;
+		timestamp.setValue(ts > 0 ? ts : System.currentTimeMillis());
+	}
+
+	@Override
+	protected boolean isUpdateLogged() {
+		return false;
+	}
+
+	/**
+	 * Publishes one record on the main thread, unless the replay that read it
+	 * was stopped in the meantime.
+	 */
+	private class Publish implements Runnable {
+		private final Thread owner;
+		private final Map<String, SensorValue> record;
+		private final long ts;
+
+		Publish(Thread owner, Map<String, SensorValue> record, long ts) {
+			this.owner = owner;
+			this.record = record;
+			this.ts = ts;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (!running || thread != owner)
+					return;
+				for (Map.Entry<String, SensorValue> e : record.entrySet()) {
+					SensorValue value = valuesByKey.get(e.getKey());
+					if (value != null)
+						value.setValue(e.getValue().getValue());
+				}
+				recordedTimestamp = ts > 0 ? ts : System.currentTimeMillis();
+				notifyListeners();
+				replayed++;
+			} finally {
+				inFlight.release();
+			}
+		}
+	}
+
+	private Runnable replay = new Runnable() {
+		@Override
+		public void run() {
+			Thread self = Thread.currentThread();
+			CountDownLatch done = finished;
+			replayed = 0;
+			startNanos = System.nanoTime();
+			long firstTimestamp = -1;
+			try {
+				for (File file : files) {
+					Source source = open(file);
+					try {
+						Map<String, SensorValue> record;
+						while (running && (record = source.next()) != null) {
+							long ts = timestampOf(record);
+							if (speed > 0 && ts > 0) {
+								if (firstTimestamp < 0)
+									firstTimestamp = ts;
+								long due = startNanos + (long) ((ts - firstTimestamp) * 1000000L / speed);
+								long wait = due - System.nanoTime();
+								if (wait > 0)
+									Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+							}
+							inFlight.acquire();
+							mainHandler.post(new Publish(self, record, ts));
+						}
+					} finally {
+						source.close();
+					}
+					if (!running)
+						break;
+				}
+			} catch (InterruptedException e) {
+				// disabled
+			} catch (IOException e) {
+				StringWriter sw = new StringWriter();
+				PrintWriter pw = new PrintWriter(sw);
+				e.printStackTrace(pw);
+				Log.d(SensorRegistry.TAG, sw.toString());
+			} finally {
+				// wait until the main thread has published or dropped the rest
+				inFlight.acquireUninterruptibly(IN_FLIGHT);
+				inFlight.release(IN_FLIGHT);
+				endNanos = System.nanoTime();
+				done.countDown();
+				Log.d(SensorRegistry.TAG, ReplaySensor.this.toString());
+			}
+		}
+	};
+
+	private static long timestampOf(Map<String, SensorValue> record) {
+		SensorValue ts = record.get(TIMESTAMP);
+		if (ts != null && ts.getValue() instanceof Number)
+			return ((Number) ts.getValue()).longValue();
+		return 0;
+	}
+
+	/**
+	 * Blocks until all records have been replayed or the sensor was disabled.
+	 * Must not be called on the main thread, which publishes the records.
+	 */
+	public void awaitCompletion() throws InterruptedException {
+		finished.await();
+	}
+
+	/**
+	 * @return the number of records replayed so far
+	 */
+	public long getReplayedRecords() {
+		return replayed;
+	}
+
+	/**
+	 * @return records per second of the last or current replay
+	 */
+	public double getThroughput() {
+		long end = finished.getCount() == 0 ? endNanos : System.nanoTime();
+		if (startNanos == 0 || end <= startNanos)
+			return 0;
+		return replayed * 1e9 / (end - startNanos);
+	}
+
+	@Override
+	public String toString() {
+		return "ReplaySensor: " + replayed + " records from " + files.size() + " files, " + Math.round(getThroughput()) + " records/s";
+	}
+
+	/**
+	 * A log segment, read record by record as logged field name -> value.
+	 */
+	private interface Source {
+		Map<String, SensorValue> next() throws IOException;
+
+		void close() throws IOException;
+	}
+
+	private static Source open(File file) throws IOException {
+		String name = file.getName();
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			if (name.endsWith(FramedLogReader.EXTENSION))
+				return new FramedSource(new FramedLogReader(in));
+			if (name.endsWith(".bin"))
+				return new BinarySource(new BinaryLogReader(in));
+			if (name.endsWith(".gz"))
+				in = new GZIPInputStream(in);
+			return new JsonSource(new JsonReader(new InputStreamReader(in, "UTF-8")));
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Turns a logged JSON record into values, numbers become Integer, Long or
+	 * Double again so that privacy transforms treat them as the sensor's
+	 * values.
+	 */
+	private static Map<String, SensorValue> toValues(JsonObject record) {
+		Map<String, SensorValue> values = new LinkedHashMap<String, SensorValue>();
+		for (Map.Entry<String, JsonElement> e : record.entrySet()) {
+			SensorValue.TYPE type = typesByName.get(e.getKey());
+			if (type == null)
+				continue; // privacy-level, delta, coalesced-updates
+			SensorValue value = new SensorValue(SensorValue.UNIT.OTHER, type);
+			value.setValue(toValue(e.getValue()));
+			values.put(e.getKey(), value);
+		}
+		return values;
+	}
+
+	private static Object toValue(JsonElement element) {
+		if (element.isJsonArray()) {
+			List<NestedSensorValue> nested = new ArrayList<NestedSensorValue>();
+			for (JsonElement inner : (JsonArray) element) {
+				if (inner.isJsonObject())
+					nested.add(new ReplayedNestedValue(new ArrayList<SensorValue>(toValues(inner.getAsJsonObject()).values())));
+			}
+			return nested;
+		}
+		if (!element.isJsonPrimitive())
+			return element.toString();
+		String s = element.getAsString();
+		if (s.length() == 0 || s.length() > 24)
+			return s;
+		try {
+			long l = Long.parseLong(s);
+			if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE)
+				return Integer.valueOf((int) l);
+			return Long.valueOf(l);
+		} catch (NumberFormatException e) {
+			// not an integer
+		}
+		char c = s.charAt(0);
+		if ((c >= '0' && c <= '9') || c == '-') {
+			try {
+				return Double.valueOf(s);
+			} catch (NumberFormatException e) {
+				// not a number
+			}
+		}
+		return s;
+	}
+
+	private static class ReplayedNestedValue implements NestedSensorValue {
+		private final List<SensorValue> values;
+
+		ReplayedNestedValue(List<SensorValue> values) {
+			this.values = values;
+		}
+
+		@Override
+		public List<SensorValue> getInnerSensorValues() {
+			return values;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (SensorValue value : values) {
+				if (sb.length() > 0)
+					sb.append("; ");
+				sb.append(value.getType().getName()).append(": ").append(value.getValueRepresentation());
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * A JSON array of records. A segment that was not closed lacks the end
+	 * of the array, it ends after its last complete record.
+	 */
+	private static class JsonSource implements Source {
+		private final JsonReader reader;
+		private final JsonParser parser = new JsonParser();
+		private final DeltaLogReader delta = new DeltaLogReader();
+		private boolean started = false;
+		private boolean done = false;
+
+		JsonSource(JsonReader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public Map<String, SensorValue> next() throws IOException {
+			if (done)
+				return null;
+			try {
+				if (!started) {
+					reader.beginArray();
+					started = true;
+				}
+				if (!reader.hasNext()) {
+					done = true;
+					return null;
+				}
+				return toValues(delta.apply(parser.parse(reader).getAsJsonObject()));
+			} catch (IOException e) {
+				done = true; // truncated
+				return null;
+			} catch (RuntimeException e) {
+				done = true; // gson reports truncated input as JsonParseException
+				return null;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+
+	private static class FramedSource implements Source {
+		private final FramedLogReader reader;
+		private final JsonParser parser = new JsonParser();
+		private final DeltaLogReader delta = new DeltaLogReader();
+
+		FramedSource(FramedLogReader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public Map<String, SensorValue> next() throws IOException {
+			String record = reader.next();
+			if (record == null)
+				return null;
+			return toValues(delta.apply(parser.parse(record).getAsJsonObject()));
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+
+	private static class BinarySource implements Source {
+		private final BinaryLogReader reader;
+
+		BinarySource(BinaryLogReader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public Map<String, SensorValue> next() throws IOException {
+			BinaryLogReader.Record record = reader.next();
+			if (record == null)
+				return null;
+			Map<String, SensorValue> values = new LinkedHashMap<String, SensorValue>();
+			for (int i = 0; i < record.getFieldNames().size(); i++)
+				values.put(record.getFieldNames().get(i), record.getSensorValues().get(i));
+			return values;
+		}
+
+		@Override
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.sensors;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import at.univie.sensorium.SensorRegistry;
+
+/**
+ * Resolves addresses for the location sensors on a background thread. The
+ * results are cached in a grid of GRID degrees (about 100 m) and evicted LRU,
+ * so fixes that didn't move out of a cell never hit the network. A sensor's
+ * address value is set to the cached address right away, or to "n/a" until
+ * the lookup finished; the sensor then notifies its listeners again on the
+ * main thread. Results for a cell the sensor has already left are dropped.
+ */
+class ReverseGeocoder {
+
+	static final double GRID = 0.001; // degrees
+	static final int CACHE_SIZE = 256;
+	static final int MAX_QUEUED = 8;
+
+	private static ReverseGeocoder instance;
+
+	private final LinkedHashMap<Long, String> cache = new LinkedHashMap<Long, String>(CACHE_SIZE * 4 / 3 + 1, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	// sensors waiting for a cell, guarded by cache
+	private final Map<Long, List<Request>> pending = new HashMap<Long, List<Request>>();
+	// the cell each sensor wants an address for
+	private final Map<SensorValue, Long> latest = new ConcurrentHashMap<SensorValue, Long>();
+	private final ThreadPoolExecutor executor;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private Geocoder geocoder; // only used by the executor thread
+
+	// metrics, guarded by cache; only reported in the log through toString()
+	private long hits = 0;
+	private long misses = 0;
+	private long lookups = 0;
+	private long failures = 0;
+	private long lookupMillis = 0;
+
+	private static class Request {
+		final AbstractSensor sensor;
+		final SensorValue address;
+
+		Request(AbstractSensor sensor, SensorValue address) {
+			this.sensor = sensor;
+			this.address = address;
+		}
+	}
+
+	private class Lookup implements Runnable {
+		final Context context;
+		final Long cell;
+		final double lat;
+		final double lon;
+
+		Lookup(Context context, Long cell, double lat, double lon) {
+			this.context = context;
+			this.cell = cell;
+			this.lat = lat;
+			this.lon = lon;
+		}
+
+		@Override
+		public void run() {
+			lookup(context, cell, lat, lon);
+		}
+	}
+
+	private ReverseGeocoder() {
+		executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(MAX_QUEUED), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ReverseGeocoder");
+				t.setDaemon(true);
+				return t;
+			}
+		}, new RejectedExecutionHandler() {
+			@Override
+			public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+				// drop the oldest lookup instead, its sensors have most
+				// likely moved on
+				Runnable oldest = e.getQueue().poll();
+				if (oldest instanceof Lookup)
+					discard(((Lookup) oldest).cell);
+				if (!e.getQueue().offer(r) && r instanceof Lookup)
+					discard(((Lookup) r).cell);
+			}
+		});
+	}
+
+	static synchronized ReverseGeocoder getInstance() {
+		if (instance == null)
+			instance = new ReverseGeocoder();
+		return instance;
+	}
+
+	/**
+	 * Sets the address value of the sensor for the given position, from the
+	 * cache or asynchronously. Call from the main thread.
+	 */
+	void resolve(AbstractSensor sensor, SensorValue address, double lat, double lon) {
+		Long cell = cell(lat, lon);
+		latest.put(address, cell);
+		String cached;
+		boolean submit = false;
+		synchronized (cache) {
+			cached = cache.get(cell);
+			if (cached != null) {
+				hits++;
+			} else {
+				misses++;
+				List<Request> requests = pending.get(cell);
+				if (requests == null) {
+					requests = new ArrayList<Request>(2);
+					pending.put(cell, requests);
+					submit = true;
+				}
+				boolean waiting = false;
+				for (Request request : requests)
+					waiting |= request.address == address;
+				if (!waiting)
+					requests.add(new Request(sensor, address));
+			}
+		}
+		if (cached != null) {
+			address.setValue(cached);
+			return;
+		}
+		address.setValue("n/a");
+		if (submit) {
+			// all positions of a cell share the address of its center
+			double centerLat = (Math.floor(lat / GRID) + 0.5) * GRID;
+			double centerLon = (Math.floor(lon / GRID) + 0.5) * GRID;
+			executor.execute(new Lookup(sensor.getContext().getApplicationContext(), cell, centerLat, centerLon));
+		}
+	}
+
+	private void discard(Long cell) {
+		synchronized (cache) {
+			pending.remove(cell);
+		}
+	}
+
+	/**
+	 * Forgets what the sensor was waiting for, e.g. when it was disabled.
+	 */
+	void cancel(SensorValue address) {
+		latest.remove(address);
+	}
+
+	private static Long cell(double lat, double lon) {
+		long y = (long) Math.floor(lat / GRID);
+		long x = (long) Math.floor(lon / GRID);
+		return Long.valueOf((y << 32) | (x & 0xffffffffL));
+	}
+
+	private void lookup(Context context, final Long cell, double lat, double lon) {
+		String result = "n/a";
+		boolean failed = false;
+		long start = System.currentTimeMillis();
+		try {
+			if (geocoder == null)
+				geocoder = new Geocoder(context, Locale.getDefault());
+			List<Address> list = geocoder.getFromLocation(lat, lon, 1);
+			if (list != null && list.size() > 0) {
+				Address location = list.get(0);
+				result = String.format("%s, %s, %s",
+						location.getMaxAddressLineIndex() > 0 ? location.getAddressLine(0) : "",
+						location.getLocality(), // location.getAdminArea(),
+						location.getCountryName());
+			}
+		} catch (IOException e) {
+			failed = true;
+			StringWriter sw = new StringWriter();
+			PrintWriter pw = new PrintWriter(sw);
+			e.printStackTrace(pw);
+			Log.d(SensorRegistry.TAG, sw.toString());
+		}
+		long elapsed = System.currentTimeMillis() - start;
+
+		final List<Request> requests;
+		synchronized (cache) {
+			lookups++;
+			lookupMillis += elapsed;
+			if (failed)
+				failures++;
+			else
+				cache.put(cell, result); // "no address here" is cached as well
+			requests = pending.remove(cell);
+		}
+		if (requests == null)
+			return;
+		final String address = result;
+		mainHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				for (Request request : requests) {
+					if (!cell.equals(latest.get(request.address)))
+						continue; // the sensor has moved on
+					request.address.setValue(address);
+					request.sensor.notifyListeners();
+				}
+			}
+		});
+	}
+
+	@Override
+	public String toString() {
+		synchronized (cache) {
+			long hitPercent = hits + misses == 0 ? 0 : 100 * hits / (hits + misses);
+			return "ReverseGeocoder: " + cache.size() + " cells cached, " + hits + " hits, " + misses + " misses (" + hitPercent + "% hit rate), " + lookups + " lookups (" + failures + " failed), " + (lookups == 0 ? 0 : lookupMillis / lookups) + " ms average";
+		}
+	}
+}
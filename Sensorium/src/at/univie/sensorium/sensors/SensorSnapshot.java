@@ -0,0 +1,110 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.sensors;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import at.univie.sensorium.privacy.Privacy;
+import at.univie.sensorium.privacy.PrivacyPlan;
+
+/**
+ * Copy of the state of a sensor at the time it notified its listeners. The
+ * values are private copies, so a snapshot can be handed to other threads
+ * while the sensor keeps updating its own values. Receivers must treat the
+ * contained SensorValues as read-only.
+ */
+public class SensorSnapshot {
+
+	private final AbstractSensor sensor;
+	private final String sensorClassName;
+	private final String name;
+	private final String stateDescription;
+	private final Privacy.PrivacyLevel privacylevel;
+	private final PrivacyPlan privacyplan;
+	private final List<SensorValue> values;
+	private final int absorbedUpdates;
+
+	SensorSnapshot(AbstractSensor sensor) {
+		this.sensor = sensor;
+		this.sensorClassName = sensor.getClass().getName();
+		this.name = sensor.getName();
+		this.stateDescription = sensor.getSensorStateDescription();
+		this.privacyplan = sensor.getPrivacyPlan();
+		this.privacylevel = privacyplan.getLevel();
+		this.absorbedUpdates = sensor.getAbsorbedUpdates();
+
+		List<SensorValue> live = sensor.getSensorValues();
+		List<SensorValue> copies = new ArrayList<SensorValue>(live.size());
+		for (SensorValue value : live) {
+			copies.add(copy(value));
+		}
+		this.values = Collections.unmodifiableList(copies);
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static SensorValue copy(SensorValue value) {
+		SensorValue copy = new SensorValue(value);
+		// sensors reuse their lists (e.g. scanned devices), copy the list itself
+		if (value.getValue() instanceof List)
+			copy.setValue(new ArrayList((List) value.getValue()));
+		return copy;
+	}
+
+	public AbstractSensor getSensor() {
+		return sensor;
+	}
+
+	public String getSensorClassName() {
+		return sensorClassName;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getSensorStateDescription() {
+		return stateDescription;
+	}
+
+	public Privacy.PrivacyLevel getPrivacylevel() {
+		return privacylevel;
+	}
+
+	/**
+	 * @return the plan for getPrivacylevel(), indexed like getSensorValues()
+	 */
+	public PrivacyPlan getPrivacyPlan() {
+		return privacyplan;
+	}
+
+	public List<SensorValue> getSensorValues() {
+		return values;
+	}
+
+	/**
+	 * @return how many raw sensor updates were coalesced into this one
+	 */
+	public int getAbsorbedUpdates() {
+		return absorbedUpdates;
+	}
+}
@@ -20,6 +20,7 @@
 
 package at.univie.sensorium.sensors;
 
+import java.util.EnumSet;
 import java.util.List;
 
 public class SensorValue {
@@ -31,7 +32,7 @@ public class SensorValue {
 	public static enum UNIT {
 		DEGREE("°"), MILLISECONDS("ms"), METER("m"), HASH(" "), STRING(" "), MEM("MB"),
 		OTHER(" "), NUMBER(" "), RELATIVE("%"), VOLTAGE("V"), TEMPERATURE("°C"),METERSPERSECOND("m/s"),
-		STATE("state"), NAME("name"), LIST(""), DBM("dBm"), MBPS("Mbps"), ASU("asu"), PRESSURE("mbar");
+		STATE("state"), NAME("name"), LIST(""), DBM("dBm"), MBPS("Mbps"), ASU("asu"), PRESSURE("mbar"), GEOHASH("geohash"), BYTESPERSECOND("B/s");
 
 		private String name;
 
@@ -59,7 +60,11 @@ public class SensorValue {
         WIFI_NETWORK("Wifi networks"),FREQEUENCY("frequency"),RSSI("RSSI"),WIFI_CAPABILITIES("WiFi capabilities"),
 		ROAMING("roaming"),SERVICESTATE("radio state"),OPERATOR("operator"),VOLTAGE("voltage"),ID("ID"),
 		BONDED_DEV("bonded device(s)"), SCANNED_DEV("scanned device(s)"), SUBSCRIBER_ID("subscriber id"), ANDROID_VERSION("android version"),
-		ATMOSPHERIC_PRESSURE("atmospheric pressure"), SENSORIUM_VERSION("Sensorium version"), SIM_SERIAL("SIM serial"), SIM_STATE("SIM state"), SIM_COUNTRY("country code"), NETWORK_PREFERENCE("preferred network");
+		ATMOSPHERIC_PRESSURE("atmospheric pressure"), SENSORIUM_VERSION("Sensorium version"), SIM_SERIAL("SIM serial"), SIM_STATE("SIM state"), SIM_COUNTRY("country code"), NETWORK_PREFERENCE("preferred network"),
+		CPU_USER("CPU user"), CPU_SYSTEM("CPU system"), CPU_IOWAIT("CPU iowait"), CPU_CORES("CPU cores"),
+		INTERFACE("interface"), RX_RATE("receive rate"), TX_RATE("transmit rate"), NETWORK_INTERFACES("network interfaces"),
+		DISK("disk"), DISK_READ_RATE("disk read rate"), DISK_WRITE_RATE("disk write rate"), DISKS("disks"),
+		PROCESS_CPU("process CPU usage"), PROCESS_RSS("process memory"), PROCESS_THREADS("process threads");
 
 		private String name;
 
@@ -135,9 +140,25 @@ public class SensorValue {
 		this.value = "n/a";
 	}
 
+    // lists of NestedSensorValue, see isNested()
+    private static final EnumSet<TYPE> NESTED_TYPES = EnumSet.of(TYPE.WIFI_NETWORK, TYPE.CPU_CORES, TYPE.NETWORK_INTERFACES, TYPE.DISKS);
+
+    /**
+     * @return true if the value is a list of NestedSensorValue, which is
+     *         logged as an array with every inner value anonymized by
+     *         itself. An empty list is nested if the type holds such lists,
+     *         so that the field keeps its shape in the log.
+     */
     public boolean isNested(){
-        if (this.type == TYPE.WIFI_NETWORK)
-            return true;
-        return false;
+        if (!(value instanceof List))
+            return false;
+        List<?> list = (List<?>) value;
+        if (list.isEmpty())
+            return NESTED_TYPES.contains(type);
+        for (Object o : list) {
+            if (!(o instanceof NestedSensorValue))
+                return false;
+        }
+        return true;
     }
 }
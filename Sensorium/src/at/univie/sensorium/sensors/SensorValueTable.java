@@ -0,0 +1,142 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.sensors;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.util.Log;
+import at.univie.sensorium.SensorRegistry;
+
+/**
+ * Accessor table for the SensorValue fields declared by one sensor class.
+ *
+ * The reflective lookup is done once per class, binding a sensor instance to
+ * its table resolves the fields to the actual SensorValue objects. Slot
+ * numbers are stable for a class and are shared by everything that needs to
+ * address a single value (XMLRPC, privacy, logging).
+ */
+public class SensorValueTable {
+
+	private static final Map<Class<?>, SensorValueTable> tables = new HashMap<Class<?>, SensorValueTable>();
+
+	private final Field[] fields;
+	private final String[] names;
+	private final Map<String, Integer> slots;
+
+	private SensorValueTable(Field[] fields) {
+		this.fields = fields;
+		this.names = new String[fields.length];
+		this.slots = new HashMap<String, Integer>();
+		for (int i = 0; i < fields.length; i++) {
+			names[i] = fields[i].getName();
+			slots.put(names[i], i);
+		}
+	}
+
+	private SensorValueTable(String[] names) {
+		this.fields = null;
+		this.names = names.clone();
+		this.slots = new HashMap<String, Integer>();
+		for (int i = 0; i < names.length; i++)
+			slots.put(names[i], i);
+	}
+
+	/**
+	 * Builds a table for a sensor whose values are not known until runtime
+	 * and therefore not declared as fields. Such a sensor has to bind its
+	 * values itself, see AbstractSensor.bindSensorValueTable().
+	 */
+	public static SensorValueTable forNames(String[] names) {
+		return new SensorValueTable(names);
+	}
+
+	/**
+	 * Returns the table for the given sensor class, building it on first use.
+	 */
+	public static SensorValueTable forClass(Class<? extends AbstractSensor> sensorclass) {
+		synchronized (tables) {
+			SensorValueTable table = tables.get(sensorclass);
+			if (table == null) {
+				List<Field> valuefields = new ArrayList<Field>();
+				for (Field f : sensorclass.getDeclaredFields()) {
+					if (!Modifier.isStatic(f.getModifiers()) && SensorValue.class.isAssignableFrom(f.getType())) {
+						f.setAccessible(true);
+						valuefields.add(f);
+					}
+				}
+				table = new SensorValueTable(valuefields.toArray(new Field[valuefields.size()]));
+				tables.put(sensorclass, table);
+			}
+			return table;
+		}
+	}
+
+	/**
+	 * Resolves the fields of this table for one sensor instance. Fields that
+	 * are not (yet) set are returned as null.
+	 */
+	SensorValue[] bind(AbstractSensor sensor) {
+		if (fields == null)
+			return new SensorValue[names.length];
+		SensorValue[] values = new SensorValue[fields.length];
+		try {
+			for (int i = 0; i < fields.length; i++) {
+				values[i] = (SensorValue) fields[i].get(sensor);
+			}
+		} catch (IllegalArgumentException e) {
+			StringWriter sw = new StringWriter();
+			PrintWriter pw = new PrintWriter(sw);
+			e.printStackTrace(pw);
+			Log.d(SensorRegistry.TAG, sw.toString());
+		} catch (IllegalAccessException e) {
+			StringWriter sw = new StringWriter();
+			PrintWriter pw = new PrintWriter(sw);
+			e.printStackTrace(pw);
+			Log.d(SensorRegistry.TAG, sw.toString());
+		}
+		return values;
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	public String getName(int slot) {
+		return names[slot];
+	}
+
+	/**
+	 * @return the slot of the field with the given name, or -1
+	 */
+	public int indexOf(String fieldname) {
+		Integer slot = slots.get(fieldname);
+		if (slot == null)
+			return -1;
+		return slot;
+	}
+}
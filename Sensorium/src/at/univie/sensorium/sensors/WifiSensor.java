@@ -11,7 +11,6 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.wifi.ScanResult;
 import android.net.wifi.WifiManager;
-import android.os.Handler;
 import android.util.Log;
 import at.univie.sensorium.SensorRegistry;
 
@@ -23,7 +22,6 @@ public class WifiSensor extends AbstractSensor {
 	
 	private WifiManager mainWifi;
 	private List<ScanResult> wifiList = null;	
-	private Handler handler = new Handler();
 	
 	private List<WifiDevice> scannedDevices;
 	private SensorValue wifiNetworks;
@@ -48,8 +46,6 @@ public class WifiSensor extends AbstractSensor {
 			scannedDevices.clear();
 			mainWifi.startScan();		        		
 			Log.d("scanTask", "restart scanning");
-			
-			handler.postDelayed(this, scan_interval*1000);
 		}		
 	};
 	
@@ -84,14 +80,14 @@ public class WifiSensor extends AbstractSensor {
 		        notifyListeners();
 			}
 		};			
-		handler.postDelayed(scanTask, 0);
+		schedule(scanTask, scan_interval * 1000L, scan_interval * 250L);
 	}
 	
 	@Override
 	protected void _disable() {
 		if(wifiIntent != null)
 			getContext().getApplicationContext().unregisterReceiver(wifiReceiver);
-		handler.removeCallbacks(scanTask);
+		unschedule();
 		scannedDevices.clear();
 		wifiNetworks.setValue(scannedDevices);
 	}
@@ -7,6 +7,7 @@ public class MethodCall {
 	private static final int TOPIC = 1;
 	String methodName;
 	ArrayList<Object> params = new ArrayList<Object>();
+	boolean keepAlive = false;
 	
 	public String getMethodName() { return methodName; }
 	void setMethodName(String methodName) { this.methodName = methodName; }
@@ -14,6 +15,9 @@ public class MethodCall {
 	public ArrayList<Object> getParams() { return params; }
 	void setParams(ArrayList<Object> params) { this.params = params; }
 
+	/** Whether the client keeps the connection open for further requests. */
+	public boolean isKeepAlive() { return keepAlive; }
+
 	public String getTopic() {
 		return (String)params.get(TOPIC);
 	}
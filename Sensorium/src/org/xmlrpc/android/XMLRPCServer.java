@@ -1,19 +1,20 @@
 package org.xmlrpc.android;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.StringWriter;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Locale;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
-import android.util.Log;
-
 public class XMLRPCServer extends XMLRPCCommon {
 
     private static final String CRLF = "\r\n";
@@ -22,21 +23,100 @@ public class XMLRPCServer extends XMLRPCCommon {
 		"Connection: close" + CRLF +
 		"Content-Type: text/xml" + CRLF +
 		"Content-Length: ";
+	private static final String RESPONSE_KEEP_ALIVE =
+		"HTTP/1.1 200 OK" + CRLF +
+		"Connection: keep-alive" + CRLF +
+		"Content-Type: text/xml" + CRLF +
+		"Content-Length: ";
+	private static final int MAX_HEADER_SIZE = 8 * 1024;
+	private static final int MAX_BODY_SIZE = 64 * 1024;
 
 	private static final String NEWLINES = CRLF + CRLF;
 	private XMLRPCSerializer iXMLRPCSerializer;
+	private final ResponseBuffer responseBuffer = new ResponseBuffer();
 
 	public XMLRPCServer() {
 		iXMLRPCSerializer = new XMLRPCSerializer();
 	}
 
 	public MethodCall readMethodCall(Socket socket) throws IOException, XmlPullParserException
+	{
+		MethodCall methodCall = readRequest(new BufferedInputStream(socket.getInputStream()));
+		if (methodCall == null)
+			throw new EOFException("Connection closed before a request was sent");
+		return methodCall;
+	}
+
+	/**
+	 * Reads the next request from a connection. With a Content-Length header
+	 * exactly the body is consumed, so further requests can follow on the
+	 * same stream; without one the connection can't be kept alive.
+	 * 
+	 * @param connection
+	 *            the buffered input of the connection, kept across requests
+	 * @return the call, or null if the connection was closed before the next
+	 *         request
+	 */
+	public MethodCall readRequest(InputStream connection) throws IOException, XmlPullParserException
+	{
+		ByteArrayOutputStream headerBytes = new ByteArrayOutputStream(256);
+		int previous = -1;
+		int b;
+		while ((b = connection.read()) != -1) {
+			if (b == '\n' && previous == '\n')
+				break;
+			if (b == '\n' && headerBytes.size() == 0)
+				continue; // line break left over from the previous request
+			if (b != '\r') {
+				headerBytes.write(b);
+				previous = b;
+			}
+			if (headerBytes.size() > MAX_HEADER_SIZE)
+				throw new IOException("Request header exceeds " + MAX_HEADER_SIZE + " bytes");
+		}
+		if (b == -1) {
+			if (headerBytes.size() == 0)
+				return null;
+			throw new EOFException("Connection closed within the request header");
+		}
+
+		Header header = Header.parse(headerBytes.toString("US-ASCII"));
+		MethodCall methodCall;
+		if (header.getContentLength() > MAX_BODY_SIZE)
+			throw new IOException("Request body of " + header.getContentLength() + " bytes exceeds " + MAX_BODY_SIZE + " bytes");
+		if (header.getContentLength() >= 0) {
+			byte[] body = new byte[header.getContentLength()];
+			int read = 0;
+			while (read < body.length) {
+				int n = connection.read(body, read, body.length - read);
+				if (n < 0)
+					throw new EOFException("Connection closed within the request body");
+				read += n;
+			}
+			methodCall = readMethodCall(new ByteArrayInputStream(body));
+			methodCall.keepAlive = header.isKeepAlive();
+		} else {
+			methodCall = readMethodCall(connection);
+			methodCall.keepAlive = false; // the end of the body is unknown
+		}
+		return methodCall;
+	}
+
+	/**
+	 * Reads a call from the body of a request whose HTTP headers have already
+	 * been consumed.
+	 */
+	public MethodCall readMethodCall(InputStream body) throws IOException, XmlPullParserException
+	{
+		XmlPullParser pullParser = XmlPullParserFactory.newInstance().newPullParser();
+		pullParser.setInput(body, null); // detects the encoding, UTF-8 by default
+		return readMethodCall(pullParser);
+	}
+
+	private MethodCall readMethodCall(XmlPullParser pullParser) throws IOException, XmlPullParserException
 	{
 		MethodCall methodCall = new MethodCall();
-		InputStream inputStream = socket.getInputStream();
 
-		XmlPullParser pullParser = xmlPullParserFromSocket(inputStream);
-		
 		pullParser.nextTag();
 		pullParser.require(XmlPullParser.START_TAG, null, Tag.METHOD_CALL);
 		pullParser.nextTag();
@@ -67,40 +147,134 @@ public class XMLRPCServer extends XMLRPCCommon {
 		return methodCall;
 	}
 	
-    XmlPullParser xmlPullParserFromSocket(InputStream socketInputStream) throws IOException, XmlPullParserException {
-        String line;
-        BufferedReader br = new BufferedReader(new InputStreamReader(socketInputStream));
-        while ((line = br.readLine()) != null && line.length() > 0); // eat the HTTP POST headers
-        
-        XmlPullParser pullParser = XmlPullParserFactory.newInstance().newPullParser();
-        pullParser.setInput(br);
-        return pullParser;
-    }
-	
 	public void respond(Socket socket, Object value) throws IOException {
 
-		String content = methodResponse(value);
-		String response = RESPONSE + (content.length()) + NEWLINES + content;
+		ByteBuffer response = serializeResponse(value, false);
 		OutputStream outputStream = socket.getOutputStream();
-		outputStream.write(response.getBytes());
+		outputStream.write(response.array(), response.position(), response.remaining());
 		outputStream.flush();
 		outputStream.close();
 		socket.close();
-		Log.d(Tag.LOG, "response:" + response);
 	}
-	
-	private String methodResponse(Object value)
+
+	/**
+	 * Writes the response to a connection without closing it.
+	 * 
+	 * @param keepAlive
+	 *            whether to announce that the connection stays open
+	 */
+	public void respond(OutputStream outputStream, Object value, boolean keepAlive) throws IOException {
+		ByteBuffer response = serializeResponse(value, keepAlive);
+		outputStream.write(response.array(), response.position(), response.remaining());
+		outputStream.flush();
+	}
+
+	/**
+	 * Serializes the complete HTTP response for value as UTF-8 into a buffer
+	 * owned by this server, with the exact Content-Length of the body.
+	 * 
+	 * @return the response, backed by an array and valid until the next call
+	 */
+	public ByteBuffer serializeResponse(Object value, boolean keepAlive)
 	throws IllegalArgumentException, IllegalStateException, IOException {
-		StringWriter bodyWriter = new StringWriter();
-		serializer.setOutput(bodyWriter);
-		serializer.startDocument(null, null);
+		responseBuffer.begin();
+		serializer.setOutput(responseBuffer, "UTF-8");
+		serializer.startDocument("UTF-8", null);
 		serializer.startTag(null, Tag.METHOD_RESPONSE);
 		
 		serializeParams(value);
 
 		serializer.endTag(null, Tag.METHOD_RESPONSE);
 		serializer.endDocument();
-		
-		return bodyWriter.toString();
+		serializer.flush();
+
+		return responseBuffer.finish(keepAlive ? RESPONSE_KEEP_ALIVE : RESPONSE);
+	}
+
+	/**
+	 * Collects the body behind some reserved space, the header is put in front
+	 * of it once the length is known, so the response is written in one go
+	 * without copying the body.
+	 */
+	private static class ResponseBuffer extends ByteArrayOutputStream {
+		private static final int HEADER_SPACE = 128;
+		private static final int INITIAL_SIZE = 4 * 1024;
+		private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+		ResponseBuffer() {
+			super(INITIAL_SIZE);
+		}
+
+		void begin() {
+			if (buf.length > MAX_RETAINED_SIZE)
+				buf = new byte[INITIAL_SIZE]; // don't hold on to a rare large response
+			count = HEADER_SPACE;
+		}
+
+		ByteBuffer finish(String headerPrefix) throws IOException {
+			int length = count - HEADER_SPACE;
+			byte[] header = (headerPrefix + length + NEWLINES).getBytes("US-ASCII");
+			int start = HEADER_SPACE - header.length;
+			System.arraycopy(header, 0, buf, start, header.length);
+			return ByteBuffer.wrap(buf, start, count - start);
+		}
+	}
+
+	/**
+	 * The parts of an HTTP request header the server needs.
+	 */
+	public static class Header {
+		private int contentLength = -1;
+		private boolean keepAlive = false;
+
+		/**
+		 * @param header
+		 *            the request line and header fields, separated by line
+		 *            breaks
+		 */
+		public static Header parse(String header) {
+			Header h = new Header();
+			String[] lines = header.split("\r?\n");
+			// HTTP/1.1 connections are persistent unless closed explicitly
+			h.keepAlive = lines.length > 0 && lines[0].trim().endsWith("HTTP/1.1");
+			for (int i = 1; i < lines.length; i++) {
+				int colon = lines[i].indexOf(':');
+				if (colon < 0)
+					continue;
+				String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.US);
+				String value = lines[i].substring(colon + 1).trim();
+				if (name.equals("content-length")) {
+					try {
+						h.contentLength = Integer.parseInt(value);
+					} catch (NumberFormatException e) {
+						h.contentLength = -1;
+					}
+				} else if (name.equals("connection")) {
+					String v = value.toLowerCase(Locale.US);
+					if (v.contains("close"))
+						h.keepAlive = false;
+					else if (v.contains("keep-alive"))
+						h.keepAlive = true;
+				}
+			}
+			if (h.contentLength < 0)
+				h.keepAlive = false;
+			return h;
+		}
+
+		/**
+		 * @return the length of the body, -1 if not given
+		 */
+		public int getContentLength() {
+			return contentLength;
+		}
+
+		/**
+		 * @return whether the client wants to send further requests on the
+		 *         connection
+		 */
+		public boolean isKeepAlive() {
+			return keepAlive;
+		}
 	}
-}
\ No newline at end of file
+}
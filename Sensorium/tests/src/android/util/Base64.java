@@ -0,0 +1,69 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package android.util;
+
+/**
+ * Desktop stand-in for android.util.Base64, whose stub in android.jar
+ * throws. Encodes only, line wrapping is never done, as if NO_WRAP was
+ * always set.
+ */
+public final class Base64 {
+
+	public static final int DEFAULT = 0;
+	public static final int NO_PADDING = 1;
+	public static final int NO_WRAP = 2;
+	public static final int CRLF = 4;
+	public static final int URL_SAFE = 8;
+	public static final int NO_CLOSE = 16;
+
+	private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+	private static final char[] URL_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+	private Base64() {
+	}
+
+	public static String encodeToString(byte[] input, int flags) {
+		return encodeToString(input, 0, input.length, flags);
+	}
+
+	public static String encodeToString(byte[] input, int offset, int len, int flags) {
+		char[] alphabet = (flags & URL_SAFE) != 0 ? URL_ALPHABET : ALPHABET;
+		StringBuilder sb = new StringBuilder((len + 2) / 3 * 4);
+		int end = offset + len;
+		for (int i = offset; i < end; i += 3) {
+			int b = (input[i] & 0xff) << 16;
+			if (i + 1 < end)
+				b |= (input[i + 1] & 0xff) << 8;
+			if (i + 2 < end)
+				b |= input[i + 2] & 0xff;
+			sb.append(alphabet[(b >>> 18) & 63]).append(alphabet[(b >>> 12) & 63]);
+			if (i + 1 < end)
+				sb.append(alphabet[(b >>> 6) & 63]);
+			else if ((flags & NO_PADDING) == 0)
+				sb.append('=');
+			if (i + 2 < end)
+				sb.append(alphabet[b & 63]);
+			else if ((flags & NO_PADDING) == 0)
+				sb.append('=');
+		}
+		return sb.toString();
+	}
+}
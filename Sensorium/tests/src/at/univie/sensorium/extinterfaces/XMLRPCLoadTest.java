@@ -0,0 +1,258 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.extinterfaces;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Load test for the XMLRPC server: a number of clients send the same call
+ * concurrently, each waiting for the response before its next request, and
+ * the throughput and latency percentiles are reported. Does not depend on
+ * Android classes, so it can be run from a desktop against the device, e.g.
+ * through adb forward tcp:63090 tcp:63090:
+ * 
+ * javac -d /tmp/check tests/src/at/univie/sensorium/extinterfaces/XMLRPCLoadTest.java
+ * java -cp /tmp/check at.univie.sensorium.extinterfaces.XMLRPCLoadTest localhost 63090 [clients] [requests per client] [method] [close]
+ * 
+ * Connections are kept alive unless "close" is given, then every request
+ * opens a new one.
+ */
+public class XMLRPCLoadTest {
+
+	private static final int TIMEOUT = 10000; // ms
+
+	private final InetSocketAddress address;
+	private final byte[] request;
+	private final boolean keepAlive;
+
+	private static class Client implements Runnable {
+		final XMLRPCLoadTest test;
+		final long[] latencies; // ns
+		final CountDownLatch start;
+		final CountDownLatch done;
+		int completed = 0;
+		int errors = 0;
+		IOException lastError;
+
+		Client(XMLRPCLoadTest test, int requests, CountDownLatch start, CountDownLatch done) {
+			this.test = test;
+			this.latencies = new long[requests];
+			this.start = start;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			Socket socket = null;
+			try {
+				start.await();
+				for (int i = 0; i < latencies.length; i++) {
+					long begin = System.nanoTime();
+					try {
+						if (socket == null)
+							socket = test.connect();
+						test.call(socket);
+						latencies[completed++] = System.nanoTime() - begin;
+					} catch (IOException e) {
+						errors++;
+						lastError = e;
+						closeQuietly(socket);
+						socket = null;
+						continue;
+					}
+					if (!test.keepAlive) {
+						closeQuietly(socket);
+						socket = null;
+					}
+				}
+			} catch (InterruptedException e) {
+				// stopped
+			} finally {
+				closeQuietly(socket);
+				done.countDown();
+			}
+		}
+	}
+
+	public XMLRPCLoadTest(String host, int port, String method, boolean keepAlive) throws IOException {
+		this.address = new InetSocketAddress(host, port);
+		this.keepAlive = keepAlive;
+		byte[] body = ("<?xml version=\"1.0\"?><methodCall><methodName>" + method + "</methodName><params/></methodCall>").getBytes("UTF-8");
+		String header = "POST / HTTP/1.1\r\n" +
+			"Host: " + host + "\r\n" +
+			"Content-Type: text/xml\r\n" +
+			"Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n" +
+			"Content-Length: " + body.length + "\r\n\r\n";
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(header.getBytes("US-ASCII"));
+		out.write(body);
+		this.request = out.toByteArray();
+	}
+
+	private Socket connect() throws IOException {
+		Socket socket = new Socket();
+		socket.setTcpNoDelay(true);
+		socket.setSoTimeout(TIMEOUT);
+		socket.connect(address, TIMEOUT);
+		return socket;
+	}
+
+	/**
+	 * Sends the request and reads the whole response.
+	 */
+	private void call(Socket socket) throws IOException {
+		OutputStream out = socket.getOutputStream();
+		out.write(request);
+		out.flush();
+		// the next response is only sent after the next request, so the
+		// buffer never holds more than this one
+		InputStream in = new BufferedInputStream(socket.getInputStream());
+
+		int contentLength = -1;
+		String status = null;
+		String line;
+		while ((line = readLine(in)).length() > 0) {
+			if (status == null)
+				status = line;
+			else if (line.toLowerCase().startsWith("content-length:"))
+				contentLength = Integer.parseInt(line.substring(15).trim());
+		}
+		if (status == null || !status.contains(" 200 "))
+			throw new IOException("Unexpected response: " + status);
+		if (contentLength < 0) {
+			// no length, the server closes the connection after the body
+			while (in.read() != -1)
+				;
+			throw new IOException("Response without Content-Length");
+		}
+		for (long skipped = 0; skipped < contentLength;) {
+			long n = in.skip(contentLength - skipped);
+			if (n <= 0) {
+				if (in.read() == -1)
+					throw new EOFException("Connection closed within the response body");
+				n = 1;
+			}
+			skipped += n;
+		}
+	}
+
+	/**
+	 * @return the next header line without the line break
+	 */
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b == -1)
+				throw new EOFException("Connection closed within the response header");
+			if (b != '\r')
+				sb.append((char) b);
+		}
+		return sb.toString();
+	}
+
+	private static void closeQuietly(Socket socket) {
+		if (socket == null)
+			return;
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// closing anyway
+		}
+	}
+
+	/**
+	 * Runs the given number of clients until each has sent its requests and
+	 * prints the results.
+	 */
+	public void run(int clients, int requests) throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(clients);
+		List<Client> all = new ArrayList<Client>(clients);
+		for (int i = 0; i < clients; i++) {
+			Client client = new Client(this, requests, start, done);
+			all.add(client);
+			Thread t = new Thread(client, "XMLRPCLoadTest-" + i);
+			t.setDaemon(true);
+			t.start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+
+		int completed = 0;
+		int errors = 0;
+		IOException lastError = null;
+		for (Client client : all) {
+			completed += client.completed;
+			errors += client.errors;
+			if (client.lastError != null)
+				lastError = client.lastError;
+		}
+		long[] latencies = new long[completed];
+		int n = 0;
+		for (Client client : all) {
+			System.arraycopy(client.latencies, 0, latencies, n, client.completed);
+			n += client.completed;
+		}
+		Arrays.sort(latencies);
+
+		System.out.println(clients + " clients, " + requests + " requests each, " + (keepAlive ? "keep-alive" : "new connection per request"));
+		System.out.println(completed + " completed, " + errors + " failed in " + Math.round(elapsed / 1e6) + " ms, " + Math.round(completed * 1e9 / elapsed) + " requests/s");
+		if (completed > 0)
+			System.out.println("latency p50 " + millis(percentile(latencies, 50)) + " ms, p99 " + millis(percentile(latencies, 99)) + " ms, max " + millis(latencies[completed - 1]) + " ms");
+		if (lastError != null)
+			System.out.println("last error: " + lastError);
+	}
+
+	private static long percentile(long[] sorted, int p) {
+		int index = (int) Math.ceil(sorted.length * p / 100.0) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+	}
+
+	private static String millis(long nanos) {
+		return String.format("%.2f", nanos / 1e6);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("usage: XMLRPCLoadTest host port [clients (8)] [requests per client (1000)] [method (isSeattleSensor)] [close]");
+			System.exit(1);
+		}
+		int clients = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+		int requests = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+		String method = args.length > 4 ? args[4] : "isSeattleSensor";
+		boolean keepAlive = !(args.length > 5 && args[5].equals("close"));
+		new XMLRPCLoadTest(args[0], Integer.parseInt(args[1]), method, keepAlive).run(clients, requests);
+	}
+}
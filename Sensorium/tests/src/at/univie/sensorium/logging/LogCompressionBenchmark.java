@@ -0,0 +1,124 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.logging;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Writes the records of a recorded JSON log into plain and gzip compressed
+ * segments and compares the bytes written and the time per record. Flushes
+ * every few records like LogWriter does for a slow sensor. Does not depend
+ * on Android classes:
+ * 
+ * javac -cp bin/classes:libs/gson-2.2.4.jar -d /tmp/check tests/src/at/univie/sensorium/logging/LogCompressionBenchmark.java
+ * java -cp /tmp/check:bin/classes:libs/gson-2.2.4.jar at.univie.sensorium.logging.LogCompressionBenchmark log.json [records per flush]
+ */
+public class LogCompressionBenchmark {
+
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: LogCompressionBenchmark <log.json[.gz]> [<records per flush>]");
+			System.exit(1);
+		}
+		List<String> records = readRecords(new File(args[0]));
+		int perflush = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+		if (records.isEmpty()) {
+			System.err.println("no records in " + args[0]);
+			System.exit(1);
+		}
+		System.out.println(records.size() + " records, flushed every " + perflush);
+		long[] plain = run(records, perflush, false, false);
+		long[] sync = run(records, perflush, true, true);
+		long[] nosync = run(records, perflush, true, false);
+		print("plain", plain, plain, records.size());
+		print("gzip, sync flush", sync, plain, records.size());
+		print("gzip, API < 19", nosync, plain, records.size());
+	}
+
+	private static void print(String name, long[] result, long[] plain, int records) {
+		System.out.println(String.format("%-18s %10d bytes  %6.3f of plain  %8.0f ns/record", name, result[0], result[0] / (double) plain[0], result[1] / (double) records));
+	}
+
+	/**
+	 * @return bytes written and the best time in ns over ROUNDS runs
+	 */
+	private static long[] run(List<String> records, int perflush, boolean compressed, boolean syncflush) throws IOException {
+		long best = Long.MAX_VALUE;
+		long size = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			File file = File.createTempFile("segment", compressed ? ".json.gz" : ".json");
+			try {
+				long start = System.nanoTime();
+				LogSegment segment = new LogSegment(file, compressed, false, syncflush);
+				int n = 0;
+				for (String record : records) {
+					segment.append(record);
+					if (++n % perflush == 0)
+						segment.flush();
+				}
+				segment.close();
+				best = Math.min(best, System.nanoTime() - start);
+				size = file.length();
+			} finally {
+				file.delete();
+			}
+		}
+		return new long[] { size, best };
+	}
+
+	/**
+	 * Reads the records of a JSON segment, a truncated one up to its last
+	 * complete record.
+	 */
+	private static List<String> readRecords(File file) throws IOException {
+		List<String> records = new ArrayList<String>();
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		if (file.getName().endsWith(".gz"))
+			in = new GZIPInputStream(in);
+		JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+		JsonParser parser = new JsonParser();
+		try {
+			reader.beginArray();
+			while (reader.hasNext())
+				records.add(parser.parse(reader).toString());
+		} catch (IOException e) {
+			// truncated segment
+		} catch (RuntimeException e) {
+			// truncated segment, reported by gson as JsonParseException
+		} finally {
+			reader.close();
+		}
+		return records;
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.logging;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Checks that the log manifest stays proportional to the segments that are
+ * not uploaded yet, across rotations, uploads and restarts. Runs on a
+ * desktop JVM:
+ * 
+ * javac -cp bin/classes:$ANDROID_HOME/platforms/android-19/android.jar -d /tmp/check tests/src/android/util/Log.java tests/src/at/univie/sensorium/logging/LogManifestCheck.java
+ * java -cp /tmp/check:bin/classes:$ANDROID_HOME/platforms/android-19/android.jar at.univie.sensorium.logging.LogManifestCheck
+ */
+public class LogManifestCheck {
+
+	private static final String SENSOR = "at.univie.sensorium.sensors.BatterySensor";
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException {
+		File dir = File.createTempFile("manifest", "");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			LogManifest manifest = new LogManifest(dir);
+			// one segment that is never uploaded
+			File kept = rotate(manifest, 3);
+			int maxLines = 0;
+			for (int i = 0; i < 500; i++) {
+				manifest.segmentUploaded(rotate(manifest, 10));
+				maxLines = Math.max(maxLines, countLines(dir));
+			}
+			check(maxLines < 200, "manifest stays small, had " + maxLines + " lines");
+			check(manifest.getFiles(LogManifest.State.CLOSED).contains(kept), "closed segment survives compaction");
+			check(manifest.getFiles(LogManifest.State.UPLOADED).size() < 100, "uploaded segments are compacted");
+
+			// an open segment whose file does not exist yet
+			File opening = manifest.newSegment(SENSOR, ".json");
+			for (int i = 0; i < 200; i++)
+				manifest.segmentUploaded(rotate(manifest, 10));
+			check(manifest.getFiles(LogManifest.State.OPEN).contains(opening), "open segment without a file survives compaction at runtime");
+			manifest.close();
+
+			// enough obsolete lines for a rewrite on load
+			for (int i = 0; i < 40; i++)
+				manifest.segmentUploaded(rotate(manifest, 10));
+			manifest.close();
+			manifest = new LogManifest(dir);
+			List<LogManifest.Segment> segments = manifest.getSegments();
+			check(segments.size() == 1, "after reload only the closed segment is left, found " + segments.size());
+			LogManifest.Segment first = segments.get(0);
+			check(first.getFile().equals(kept) && first.getRecordCount() == 3 && first.getSize() == 3, "closed segment keeps its counts");
+			File next = manifest.newSegment(SENSOR, ".json");
+			check(next.getName().equals("BatterySensor-742.json"), "numbering continues after compaction, got " + next.getName());
+			manifest.close();
+		} finally {
+			for (File f : dir.listFiles())
+				f.delete();
+			dir.delete();
+		}
+
+		if (failures > 0) {
+			System.out.println(failures + " checks failed");
+			System.exit(1);
+		}
+		System.out.println("all checks passed");
+	}
+
+	/**
+	 * Opens, writes and closes a segment like LogWriter does on rotation.
+	 */
+	private static File rotate(LogManifest manifest, int records) throws IOException {
+		File file = manifest.newSegment(SENSOR, ".json");
+		FileWriter w = new FileWriter(file);
+		w.write("[]\n");
+		w.close();
+		manifest.segmentClosed(file, records, file.length());
+		return file;
+	}
+
+	private static int countLines(File dir) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(new File(dir, LogManifest.FILENAME)));
+		int lines = 0;
+		while (reader.readLine() != null)
+			lines++;
+		reader.close();
+		return lines;
+	}
+
+	private static void check(boolean ok, String what) {
+		if (!ok) {
+			System.out.println("FAILED " + what);
+			failures++;
+		}
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.logging;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import at.univie.sensorium.privacy.Privacy;
+import at.univie.sensorium.sensors.AbstractSensor;
+import at.univie.sensorium.sensors.DeviceInfoSensor;
+import at.univie.sensorium.sensors.DiskIOSensor;
+import at.univie.sensorium.sensors.NestedSensorValue;
+import at.univie.sensorium.sensors.NetworkTrafficSensor;
+import at.univie.sensorium.sensors.SensorSnapshot;
+import at.univie.sensorium.sensors.SensorValue;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Checks that lists of NestedSensorValue (CPU cores, network interfaces,
+ * disks, scan results) are logged as arrays of anonymized objects and come
+ * back the same way through the JSON writer, the binary segments and
+ * BinaryLogConverter. Runs on a desktop JVM:
+ * 
+ * javac -cp bin/classes:libs/gson-2.2.4.jar:$ANDROID_HOME/platforms/android-19/android.jar -d /tmp/check tests/src/at/univie/sensorium/logging/NestedLogCheck.java
+ * java -cp /tmp/check:bin/classes:libs/gson-2.2.4.jar:$ANDROID_HOME/platforms/android-19/android.jar at.univie.sensorium.logging.NestedLogCheck
+ */
+public class NestedLogCheck {
+
+	private static int failures = 0;
+
+	/**
+	 * A sensor with one plain and one nested value, the nested type is
+	 * chosen per check.
+	 */
+	private static class ListSensor extends AbstractSensor {
+		private SensorValue count = new SensorValue(SensorValue.UNIT.NUMBER, SensorValue.TYPE.OTHER);
+		private SensorValue list;
+
+		ListSensor(SensorValue.TYPE type) {
+			setName("List");
+			list = new SensorValue(SensorValue.UNIT.LIST, type);
+		}
+
+		SensorSnapshot publish(Object value) {
+			list.setValue(value);
+			count.setValue(value instanceof List ? ((List<?>) value).size() : 0);
+			return createSnapshot();
+		}
+
+		@Override
+		protected void _enable() {
+		}
+
+		@Override
+		protected void _disable() {
+		}
+	}
+
+	/**
+	 * An inner value the privacy transforms suppress at every level.
+	 */
+	private static class SimCard implements NestedSensorValue {
+		private final List<SensorValue> values = new LinkedList<SensorValue>();
+
+		SimCard(String serial, int slot) {
+			values.add(new SensorValue(SensorValue.UNIT.STRING, SensorValue.TYPE.SIM_SERIAL));
+			values.get(0).setValue(serial);
+			values.add(new SensorValue(SensorValue.UNIT.NUMBER, SensorValue.TYPE.ID));
+			values.get(1).setValue(slot);
+		}
+
+		@Override
+		public List<SensorValue> getInnerSensorValues() {
+			return values;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		ListSensor cpu = new ListSensor(SensorValue.TYPE.CPU_CORES);
+		cpu.updatePrivacylevel(Privacy.PrivacyLevel.NO);
+		List<DeviceInfoSensor.CpuCore> cores = new ArrayList<DeviceInfoSensor.CpuCore>();
+		cores.add(new DeviceInfoSensor.CpuCore(0, 62.5f, 40f, 12.5f, 10f));
+		cores.add(new DeviceInfoSensor.CpuCore(1, 3.25f, 1f, 2f, 0.25f));
+		SensorSnapshot snapshot = cpu.publish(cores);
+		check(nested(snapshot, SensorValue.TYPE.CPU_CORES), "cpu cores: nested");
+		JsonArray logged = roundTrip(snapshot, "CPU cores");
+		check(logged != null && logged.size() == 2, "cpu cores: two objects");
+		if (logged != null && logged.size() == 2) {
+			JsonObject core = logged.get(0).getAsJsonObject();
+			check("62.5".equals(string(core, SensorValue.TYPE.CPU.getName())), "cpu cores: total of core 0, got " + core);
+			check("10.0".equals(string(core, SensorValue.TYPE.CPU_IOWAIT.getName())), "cpu cores: iowait of core 0, got " + core);
+			check("1".equals(string(logged.get(1).getAsJsonObject(), SensorValue.TYPE.ID.getName())), "cpu cores: id of core 1");
+		}
+
+		// no cores sampled yet: still an array, not the string "[]"
+		JsonArray empty = roundTrip(cpu.publish(new ArrayList<DeviceInfoSensor.CpuCore>()), "CPU cores");
+		check(empty != null && empty.size() == 0, "cpu cores: empty array");
+
+		// a disabled sensor's values are "n/a", which is not a list
+		check(!nested(cpu.publish("n/a"), SensorValue.TYPE.CPU_CORES), "cpu cores: n/a is not nested");
+		roundTrip(cpu.publish("n/a"), null);
+
+		ListSensor net = new ListSensor(SensorValue.TYPE.NETWORK_INTERFACES);
+		net.updatePrivacylevel(Privacy.PrivacyLevel.NO);
+		JsonArray interfaces = roundTrip(net.publish(Arrays.asList(new NetworkTrafficSensor.InterfaceTraffic("wlan0", 1500.5f, 300f), new NetworkTrafficSensor.InterfaceTraffic("rmnet0", 0f, 12f))), "network interfaces");
+		check(interfaces != null && interfaces.size() == 2, "interfaces: two objects");
+		if (interfaces != null && interfaces.size() == 2) {
+			JsonObject wlan = interfaces.get(0).getAsJsonObject();
+			check("wlan0".equals(string(wlan, SensorValue.TYPE.INTERFACE.getName())), "interfaces: name, got " + wlan);
+			check("1500.5".equals(string(wlan, SensorValue.TYPE.RX_RATE.getName())), "interfaces: rx rate, got " + wlan);
+		}
+
+		ListSensor disk = new ListSensor(SensorValue.TYPE.DISKS);
+		disk.updatePrivacylevel(Privacy.PrivacyLevel.NO);
+		JsonArray disks = roundTrip(disk.publish(Arrays.asList(new DiskIOSensor.DiskIO("mmcblk0", 524288f, 1048576f))), "disks");
+		check(disks != null && disks.size() == 1, "disks: one object");
+		if (disks != null && disks.size() == 1) {
+			JsonObject mmc = disks.get(0).getAsJsonObject();
+			check("mmcblk0".equals(string(mmc, SensorValue.TYPE.DISK.getName())), "disks: name, got " + mmc);
+			check("1048576.0".equals(string(mmc, SensorValue.TYPE.DISK_WRITE_RATE.getName())), "disks: write rate, got " + mmc);
+		}
+
+		// inner values are anonymized one by one
+		ListSensor sim = new ListSensor(SensorValue.TYPE.WIFI_NETWORK);
+		sim.updatePrivacylevel(Privacy.PrivacyLevel.NO);
+		JsonArray cards = roundTrip(sim.publish(Arrays.asList(new SimCard("8943102345", 1))), "Wifi networks");
+		if (cards != null && cards.size() == 1) {
+			JsonObject card = cards.get(0).getAsJsonObject();
+			check("n/a".equals(string(card, SensorValue.TYPE.SIM_SERIAL.getName())), "privacy: inner value suppressed, got " + card);
+			check("1".equals(string(card, SensorValue.TYPE.ID.getName())), "privacy: other inner value kept, got " + card);
+		} else {
+			check(false, "privacy: one object");
+		}
+
+		// lists of anything else stay plain values
+		ListSensor names = new ListSensor(SensorValue.TYPE.SCANNED_DEV);
+		names.updatePrivacylevel(Privacy.PrivacyLevel.NO);
+		check(!nested(names.publish(Arrays.asList("a", "b")), SensorValue.TYPE.SCANNED_DEV), "strings: not nested");
+
+		if (failures > 0) {
+			System.out.println(failures + " checks failed");
+			System.exit(1);
+		}
+		System.out.println("all checks passed");
+	}
+
+	/**
+	 * Writes the snapshot as a JSON record and as a binary segment, checks
+	 * that converting the segment gives the same record and returns the
+	 * array logged for the nested field.
+	 */
+	private static JsonArray roundTrip(SensorSnapshot snapshot, String field) throws IOException {
+		JsonParser parser = new JsonParser();
+		JsonObject json = parser.parse(new JSONRecordWriter(false, 100).write(snapshot, false)).getAsJsonObject();
+
+		File file = File.createTempFile("nested", ".bin");
+		try {
+			BinaryLogSegment segment = new BinaryLogSegment(file, snapshot.getSensorClassName());
+			segment.write(snapshot);
+			segment.close();
+
+			BinaryLogReader reader = new BinaryLogReader(new FileInputStream(file));
+			BinaryLogReader.Record record = reader.next();
+			reader.close();
+			check(record != null, "binary: record read back");
+			if (record != null && field != null) {
+				int i = record.getFieldNames().indexOf(field);
+				check(i >= 0 && record.getSensorValues().get(i).isNested(), "binary: " + field + " decoded as nested");
+			}
+
+			StringWriter converted = new StringWriter();
+			BinaryLogConverter.toJSON(new FileInputStream(file), converted);
+			JsonElement fromBinary = parser.parse(converted.toString()).getAsJsonArray().get(0);
+			check(json.equals(fromBinary), "binary: converts to the JSON record\n  json:   " + json + "\n  binary: " + fromBinary);
+		} finally {
+			file.delete();
+		}
+
+		if (field == null)
+			return null;
+		JsonElement logged = json.get(field);
+		check(logged != null && logged.isJsonArray(), "json: " + field + " logged as array, got " + logged);
+		return logged != null && logged.isJsonArray() ? logged.getAsJsonArray() : null;
+	}
+
+	private static boolean nested(SensorSnapshot snapshot, SensorValue.TYPE type) {
+		for (SensorValue value : snapshot.getSensorValues()) {
+			if (value.getType() == type)
+				return value.isNested();
+		}
+		return false;
+	}
+
+	private static String string(JsonObject object, String name) {
+		JsonElement e = object.get(name);
+		return e == null ? null : e.getAsString();
+	}
+
+	private static void check(boolean ok, String what) {
+		if (!ok) {
+			failures++;
+			System.out.println("FAILED " + what);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.logging;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import at.univie.sensorium.privacy.Privacy;
+import at.univie.sensorium.sensors.AbstractSensor;
+import at.univie.sensorium.sensors.SensorSnapshot;
+import at.univie.sensorium.sensors.SensorValue;
+
+/**
+ * Cost of logging one record of a 10-field sensor, i.e. of JSONLogger's
+ * writeObject() without the file. Before the privacy level was cached, the
+ * writer called getPrivacylevel() once per value, which built the
+ * preference key and read SharedPreferences every time. The "before" rows
+ * add that read, emulated by a synchronized map lookup like
+ * SharedPreferencesImpl.getInt(). Needs a HotSpot JVM for the allocation
+ * counter:
+ * 
+ * javac -cp bin/classes:libs/gson-2.2.4.jar:$ANDROID_HOME/platforms/android-19/android.jar -d /tmp/check tests/src/at/univie/sensorium/logging/WriteObjectBenchmark.java
+ * java -cp /tmp/check:bin/classes:libs/gson-2.2.4.jar:$ANDROID_HOME/platforms/android-19/android.jar at.univie.sensorium.logging.WriteObjectBenchmark [records]
+ */
+public class WriteObjectBenchmark {
+
+	private static final int ROUNDS = 5;
+
+	private static class TenFieldSensor extends AbstractSensor {
+		private SensorValue v0 = value(SensorValue.UNIT.RELATIVE, SensorValue.TYPE.CPU, 12.5f);
+		private SensorValue v1 = value(SensorValue.UNIT.RELATIVE, SensorValue.TYPE.CPU_USER, 8.25f);
+		private SensorValue v2 = value(SensorValue.UNIT.RELATIVE, SensorValue.TYPE.CPU_SYSTEM, 4.25f);
+		private SensorValue v3 = value(SensorValue.UNIT.RELATIVE, SensorValue.TYPE.CPU_IOWAIT, 0f);
+		private SensorValue v4 = value(SensorValue.UNIT.MEM, SensorValue.TYPE.TOTAL_MEM, 1863L);
+		private SensorValue v5 = value(SensorValue.UNIT.MEM, SensorValue.TYPE.AVAL_MEM, 712L);
+		private SensorValue v6 = value(SensorValue.UNIT.MEM, SensorValue.TYPE.THD_MEM, 64L);
+		private SensorValue v7 = value(SensorValue.UNIT.RELATIVE, SensorValue.TYPE.PROCESS_CPU, 1.5f);
+		private SensorValue v8 = value(SensorValue.UNIT.NUMBER, SensorValue.TYPE.PROCESS_RSS, 23456L);
+		private SensorValue v9 = value(SensorValue.UNIT.NUMBER, SensorValue.TYPE.PROCESS_THREADS, 13);
+
+		TenFieldSensor() {
+			setName("Ten fields");
+			updatePrivacylevel(Privacy.PrivacyLevel.NO);
+			timestamp.setValue(1400000000000L);
+		}
+
+		@Override
+		protected void _enable() {
+		}
+
+		@Override
+		protected void _disable() {
+		}
+	}
+
+	/**
+	 * Stands in for SharedPreferences, which looks the key up in a HashMap
+	 * while holding a lock.
+	 */
+	private static class Preferences {
+		private final Map<String, Object> map = new HashMap<String, Object>();
+
+		synchronized int getInt(String key, int defValue) {
+			Integer v = (Integer) map.get(key);
+			return v != null ? v : defValue;
+		}
+
+		synchronized void putInt(String key, int value) {
+			map.put(key, value);
+		}
+	}
+
+	private static SensorValue value(SensorValue.UNIT unit, SensorValue.TYPE type, Object value) {
+		SensorValue v = new SensorValue(unit, type);
+		v.setValue(value);
+		return v;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int records = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		TenFieldSensor sensor = new TenFieldSensor();
+		SensorSnapshot snapshot = sensor.createSnapshot();
+		Preferences prefs = new Preferences();
+		prefs.putInt(TenFieldSensor.class.getName() + "-privacylevel", Privacy.PrivacyLevel.NO.value());
+
+		System.out.println(records + " records of " + new JSONRecordWriter(false, 100).write(snapshot, true));
+		print("full records, before", run(snapshot, prefs, false, records, true), records);
+		print("full records, after", run(snapshot, prefs, false, records, false), records);
+		print("delta records, before", run(snapshot, prefs, true, records, true), records);
+		print("delta records, after", run(snapshot, prefs, true, records, false), records);
+	}
+
+	private static void print(String name, long[] result, int records) {
+		System.out.println(String.format("%-22s %8.0f bytes/record  %8.0f ns/record", name, result[0] / (double) records, result[1] / (double) records));
+	}
+
+	/**
+	 * @return bytes allocated and time in ns of the best of ROUNDS runs,
+	 *         after one run to warm up
+	 */
+	private static long[] run(SensorSnapshot snapshot, Preferences prefs, boolean delta, int records, boolean readPreferences) throws IOException {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		JSONRecordWriter writer = new JSONRecordWriter(delta, 100);
+		List<SensorValue> values = snapshot.getSensorValues();
+		long[] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+		int sink = 0;
+		for (int round = 0; round <= ROUNDS; round++) {
+			long bytes = threads.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			for (int i = 0; i < records; i++) {
+				if (readPreferences) {
+					// the old getPrivacylevel(), once per value
+					for (int j = 0; j < values.size(); j++)
+						sink += Privacy.PrivacyLevel.fromInt(prefs.getInt(TenFieldSensor.class.getName() + "-privacylevel", Privacy.PrivacyLevel.FULL.value())).value();
+				}
+				sink += writer.write(snapshot, false).length();
+			}
+			long time = System.nanoTime() - start;
+			bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+			if (round > 0) {
+				best[0] = Math.min(best[0], bytes);
+				best[1] = Math.min(best[1], time);
+			}
+		}
+		if (sink == 42)
+			System.out.println();
+		return best;
+	}
+}
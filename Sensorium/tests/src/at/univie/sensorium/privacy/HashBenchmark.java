@@ -0,0 +1,165 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.privacy;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import android.util.Base64;
+import android.util.Log;
+import at.univie.sensorium.sensors.SensorValue;
+
+/**
+ * Throughput of the hashes behind the MED (plain) and HIGH (salted)
+ * privacy levels, for the kinds of values sensors report. The "before"
+ * rows run the code the transforms used before KeyedHash: a new SHA-1
+ * instance per value, the message built as a string, and for HIGH the salt
+ * prepended and logged on every call. The plain hash must stay identical to
+ * the old one, which is checked first. Needs a HotSpot JVM for the
+ * allocation counter:
+ * 
+ * javac -cp bin/classes:$ANDROID_HOME/platforms/android-19/android.jar -d /tmp/check tests/src/android/util/*.java tests/src/at/univie/sensorium/privacy/HashBenchmark.java
+ * java -cp /tmp/check:bin/classes:$ANDROID_HOME/platforms/android-19/android.jar at.univie.sensorium.privacy.HashBenchmark [hashes]
+ */
+public class HashBenchmark {
+
+	private static final int ROUNDS = 5;
+	private static final String SALT = "1d4mb8aq2tn5kn1svr9mhgp0ts";
+
+	private static final Object[] VALUES = { -67, 23104, 232, 1400000000000L, 48.2081f, 16.3738, "Wien, Universitätsring 1", "Cafe", "" };
+	private static final SensorValue.TYPE[] TYPES = { SensorValue.TYPE.SIGNALSTRENGTH, SensorValue.TYPE.CID, SensorValue.TYPE.MCC, SensorValue.TYPE.TIMESTAMP, SensorValue.TYPE.LATITUDE, SensorValue.TYPE.LONGITUDE, SensorValue.TYPE.ADDRESS, SensorValue.TYPE.SSID, SensorValue.TYPE.OTHER };
+	private static final SensorValue.UNIT[] UNITS = { SensorValue.UNIT.DBM, SensorValue.UNIT.NUMBER, SensorValue.UNIT.NUMBER, SensorValue.UNIT.MILLISECONDS, SensorValue.UNIT.DEGREE, SensorValue.UNIT.DEGREE, SensorValue.UNIT.STRING, SensorValue.UNIT.STRING, null };
+
+	private static int failures = 0;
+
+	private interface Hash {
+		String hash(Object value, SensorValue.UNIT unit, SensorValue.TYPE type);
+	}
+
+	private static final Hash plainBefore = new Hash() {
+		@Override
+		public String hash(Object value, SensorValue.UNIT unit, SensorValue.TYPE type) {
+			return oldHash(value, unit, type);
+		}
+	};
+
+	private static final Hash saltedBefore = new Hash() {
+		@Override
+		public String hash(Object value, SensorValue.UNIT unit, SensorValue.TYPE type) {
+			Log.d("Sensorium", "Salt is " + SALT);
+			return oldHash(SALT + value.toString(), unit, type);
+		}
+	};
+
+	private static final Hash plain = new Hash() {
+		@Override
+		public String hash(Object value, SensorValue.UNIT unit, SensorValue.TYPE type) {
+			return KeyedHash.plain(value, unit, type);
+		}
+	};
+
+	private static final Hash keyed = new Hash() {
+		@Override
+		public String hash(Object value, SensorValue.UNIT unit, SensorValue.TYPE type) {
+			return KeyedHash.keyed(value, unit, type);
+		}
+	};
+
+	public static void main(String[] args) {
+		int hashes = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+		KeyedHash.setKey(SALT);
+
+		Object[] extremes = { Integer.MIN_VALUE, Integer.MAX_VALUE, 0, Long.MIN_VALUE, Long.MAX_VALUE, (short) -5, (byte) 7, -0.0f, Double.NaN, "ä😀", "Grün" };
+		for (int i = 0; i < VALUES.length; i++)
+			check(plain.hash(VALUES[i], UNITS[i], TYPES[i]).equals(oldHash(VALUES[i], UNITS[i], TYPES[i])), "plain hash of " + VALUES[i]);
+		for (Object value : extremes)
+			check(plain.hash(value, SensorValue.UNIT.NUMBER, SensorValue.TYPE.OTHER).equals(oldHash(value, SensorValue.UNIT.NUMBER, SensorValue.TYPE.OTHER)), "plain hash of " + value);
+		check(keyed.hash(VALUES[0], UNITS[0], TYPES[0]).length() == 27, "keyed hash has 160 bits");
+		if (failures > 0) {
+			System.out.println(failures + " checks failed");
+			System.exit(1);
+		}
+
+		System.out.println(hashes + " hashes of " + VALUES.length + " kinds of values");
+		print("plain (MED), before", run(plainBefore, hashes), hashes);
+		print("plain (MED), after", run(plain, hashes), hashes);
+		print("salted (HIGH), before", run(saltedBefore, hashes), hashes);
+		print("keyed (HIGH), after", run(keyed, hashes), hashes);
+	}
+
+	/**
+	 * Privacy.hash() as it was before KeyedHash.
+	 */
+	private static String oldHash(Object value, SensorValue.UNIT unit, SensorValue.TYPE type) {
+		String message = (value.toString()) + unit + type;
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			md.reset();
+			md.update(message.getBytes("UTF-8"), 0, message.length());
+			return Base64.encodeToString(md.digest(), Base64.NO_WRAP | Base64.NO_PADDING);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void print(String name, long[] result, int hashes) {
+		System.out.println(String.format("%-22s %6.0f bytes/hash  %6.0f ns/hash  %8.0f hashes/s", name, result[0] / (double) hashes, result[1] / (double) hashes, hashes * 1e9 / result[1]));
+	}
+
+	/**
+	 * @return bytes allocated and time in ns of the best of ROUNDS runs,
+	 *         after one run to warm up
+	 */
+	private static long[] run(Hash hash, int hashes) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		long[] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+		int sink = 0;
+		for (int round = 0; round <= ROUNDS; round++) {
+			long bytes = threads.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			for (int i = 0; i < hashes; i++) {
+				int k = i % VALUES.length;
+				sink += hash.hash(VALUES[k], UNITS[k], TYPES[k]).length();
+			}
+			long time = System.nanoTime() - start;
+			bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+			if (round > 0) {
+				best[0] = Math.min(best[0], bytes);
+				best[1] = Math.min(best[1], time);
+			}
+		}
+		if (sink == 42)
+			System.out.println();
+		return best;
+	}
+
+	private static void check(boolean ok, String what) {
+		if (!ok) {
+			System.out.println("FAILED " + what);
+			failures++;
+		}
+	}
+}
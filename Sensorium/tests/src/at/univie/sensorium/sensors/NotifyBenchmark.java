@@ -0,0 +1,201 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.sensors;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.util.LinkedList;
+import java.util.List;
+
+import android.util.Log;
+import at.univie.sensorium.SensorRegistry;
+
+/**
+ * Allocations and time per notifyListeners() of a 10-field sensor, with the
+ * values resolved through the SensorValueTable and, for comparison, through
+ * the per-call reflection getSensorValues() used before. A listener reads
+ * the values like the sensor list does, the snapshot for the event bus reads
+ * them as well. Update logging is off as for the high rate sensors, the
+ * debug buffer would dominate the time otherwise. Needs a HotSpot JVM for
+ * the allocation counter:
+ * 
+ * javac -cp bin/classes:$ANDROID_HOME/platforms/android-19/android.jar -d /tmp/check tests/src/android/util/Log.java tests/src/at/univie/sensorium/sensors/NotifyBenchmark.java
+ * java -cp /tmp/check:bin/classes:$ANDROID_HOME/platforms/android-19/android.jar at.univie.sensorium.sensors.NotifyBenchmark [notifies]
+ */
+public class NotifyBenchmark {
+
+	private static final int ROUNDS = 5;
+
+	/**
+	 * Ten values like a typical sensor, resolved through the accessor table.
+	 */
+	static class TableSensor extends AbstractSensor {
+		private SensorValue v0 = value(SensorValue.TYPE.CPU, 12.5f);
+		private SensorValue v1 = value(SensorValue.TYPE.CPU_USER, 8.25f);
+		private SensorValue v2 = value(SensorValue.TYPE.CPU_SYSTEM, 4.25f);
+		private SensorValue v3 = value(SensorValue.TYPE.CPU_IOWAIT, 0f);
+		private SensorValue v4 = value(SensorValue.TYPE.TOTAL_MEM, 1863L);
+		private SensorValue v5 = value(SensorValue.TYPE.AVAL_MEM, 712L);
+		private SensorValue v6 = value(SensorValue.TYPE.THD_MEM, 64L);
+		private SensorValue v7 = value(SensorValue.TYPE.PROCESS_CPU, 1.5f);
+		private SensorValue v8 = value(SensorValue.TYPE.PROCESS_RSS, 23456L);
+		private SensorValue v9 = value(SensorValue.TYPE.PROCESS_THREADS, 13);
+
+		@Override
+		protected void _enable() {
+		}
+
+		@Override
+		protected void _disable() {
+		}
+
+		@Override
+		protected boolean isUpdateLogged() {
+			return false;
+		}
+
+		void update() {
+			notifyListeners();
+		}
+	}
+
+	/**
+	 * The same values, listed by reflection on every call as before.
+	 */
+	static class ReflectiveSensor extends AbstractSensor {
+		private SensorValue v0 = value(SensorValue.TYPE.CPU, 12.5f);
+		private SensorValue v1 = value(SensorValue.TYPE.CPU_USER, 8.25f);
+		private SensorValue v2 = value(SensorValue.TYPE.CPU_SYSTEM, 4.25f);
+		private SensorValue v3 = value(SensorValue.TYPE.CPU_IOWAIT, 0f);
+		private SensorValue v4 = value(SensorValue.TYPE.TOTAL_MEM, 1863L);
+		private SensorValue v5 = value(SensorValue.TYPE.AVAL_MEM, 712L);
+		private SensorValue v6 = value(SensorValue.TYPE.THD_MEM, 64L);
+		private SensorValue v7 = value(SensorValue.TYPE.PROCESS_CPU, 1.5f);
+		private SensorValue v8 = value(SensorValue.TYPE.PROCESS_RSS, 23456L);
+		private SensorValue v9 = value(SensorValue.TYPE.PROCESS_THREADS, 13);
+
+		@Override
+		protected void _enable() {
+		}
+
+		@Override
+		protected void _disable() {
+		}
+
+		@Override
+		protected boolean isUpdateLogged() {
+			return false;
+		}
+
+		void update() {
+			notifyListeners();
+		}
+
+		@Override
+		public List<SensorValue> getSensorValues() {
+			List<SensorValue> values = new LinkedList<SensorValue>();
+			values.add(timestamp);
+			Field[] fields = this.getClass().getDeclaredFields();
+			try {
+				for (Field f : fields) {
+					f.setAccessible(true);
+					Object o = f.get(this);
+					if (o instanceof SensorValue)
+						values.add((SensorValue) o);
+				}
+			} catch (IllegalAccessException e) {
+				StringWriter sw = new StringWriter();
+				PrintWriter pw = new PrintWriter(sw);
+				e.printStackTrace(pw);
+				Log.d(SensorRegistry.TAG, sw.toString());
+			}
+			return values;
+		}
+	}
+
+	/**
+	 * Reads all values on every update, like the sensor views.
+	 */
+	private static final SensorChangeListener reader = new SensorChangeListener() {
+		@Override
+		public void sensorUpdated(AbstractSensor sensor) {
+			for (SensorValue value : sensor.getSensorValues())
+				value.getValueRepresentation();
+		}
+	};
+
+	private static SensorValue value(SensorValue.TYPE type, Object value) {
+		SensorValue v = new SensorValue(SensorValue.UNIT.OTHER, type);
+		v.setValue(value);
+		return v;
+	}
+
+	public static void main(String[] args) {
+		int notifies = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		TableSensor table = new TableSensor();
+		ReflectiveSensor reflective = new ReflectiveSensor();
+		table.addListener(reader);
+		reflective.addListener(reader);
+		SensorRegistry.getInstance().registerSensor(table);
+		SensorRegistry.getInstance().registerSensor(reflective);
+
+		System.out.println(notifies + " notifies of a sensor with " + (table.getSensorValues().size() - 1) + " values and a timestamp");
+		print("getSensorValues(), reflection", run(reflective, notifies, false), notifies);
+		print("getSensorValues(), table", run(table, notifies, false), notifies);
+		print("notifyListeners(), reflection", run(reflective, notifies, true), notifies);
+		print("notifyListeners(), table", run(table, notifies, true), notifies);
+	}
+
+	private static void print(String name, long[] result, int notifies) {
+		System.out.println(String.format("%-30s %8.0f bytes/call  %8.0f ns/call", name, result[0] / (double) notifies, result[1] / (double) notifies));
+	}
+
+	/**
+	 * @return bytes allocated and time in ns of the best of ROUNDS runs,
+	 *         after one run to warm up
+	 */
+	private static long[] run(AbstractSensor sensor, int notifies, boolean notify) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		long[] best = { Long.MAX_VALUE, Long.MAX_VALUE };
+		for (int round = 0; round <= ROUNDS; round++) {
+			long bytes = threads.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			for (int i = 0; i < notifies; i++) {
+				if (!notify)
+					sensor.getSensorValues();
+				else if (sensor instanceof TableSensor)
+					((TableSensor) sensor).update();
+				else
+					((ReflectiveSensor) sensor).update();
+			}
+			long time = System.nanoTime() - start;
+			bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+			if (round > 0) {
+				best[0] = Math.min(best[0], bytes);
+				best[1] = Math.min(best[1], time);
+			}
+		}
+		return best;
+	}
+}
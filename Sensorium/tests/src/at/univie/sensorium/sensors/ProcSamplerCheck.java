@@ -0,0 +1,300 @@
+/*
+ *  This file is part of Sensorium.
+ *
+ *   Sensorium is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU Lesser General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   Sensorium is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public License
+ *   along with Sensorium. If not, see
+ *   <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package at.univie.sensorium.sensors;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import at.univie.sensorium.sensors.DeviceInfoSensor.CpuCore;
+import at.univie.sensorium.sensors.DiskIOSensor.DiskIO;
+import at.univie.sensorium.sensors.NetworkTrafficSensor.InterfaceTraffic;
+
+/**
+ * Checks the /proc samplers against the fixtures in tests/fixtures/proc and,
+ * on Linux, against the real /proc. Each fixture comes in two states (.1,
+ * .2) that are written in turn to the same file, as the samplers keep their
+ * files open. Besides the counters it checks the lists the sensors log,
+ * which have to be nested values with one inner value per column. Runs on a
+ * desktop JVM:
+ * 
+ * javac -cp bin/classes:$ANDROID_HOME/platforms/android-19/android.jar -d /tmp/check tests/src/at/univie/sensorium/sensors/ProcSamplerCheck.java
+ * java -cp /tmp/check:bin/classes:$ANDROID_HOME/platforms/android-19/android.jar at.univie.sensorium.sensors.ProcSamplerCheck tests/fixtures/proc
+ */
+public class ProcSamplerCheck {
+
+	private static final long SECOND = 1000000000L;
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: ProcSamplerCheck <fixture directory>");
+			System.exit(1);
+		}
+		File fixtures = new File(args[0]);
+		File work = File.createTempFile("proc", "");
+		work.delete();
+		work.mkdir();
+		try {
+			checkCpu(fixtures, work);
+			checkNetDev(fixtures, work);
+			checkProcess(fixtures, work);
+			checkDiskStats(fixtures, work);
+		} finally {
+			for (File f : work.listFiles())
+				f.delete();
+			work.delete();
+		}
+		if (new File(CpuSampler.PROC_STAT).exists())
+			checkRealProc();
+		else
+			System.out.println("no /proc, skipping the live checks");
+
+		if (failures > 0) {
+			System.out.println(failures + " checks failed");
+			System.exit(1);
+		}
+		System.out.println("all checks passed");
+	}
+
+	private static void checkCpu(File fixtures, File work) throws IOException {
+		File stat = new File(work, "stat");
+		copy(new File(fixtures, "stat.1"), stat);
+		CpuSampler cpu = new CpuSampler(stat.getPath());
+		check(!cpu.sample(), "cpu: no values from the first sample");
+		copy(new File(fixtures, "stat.2"), stat);
+		check(cpu.sample(), "cpu: values from the second sample");
+		check(cpu.getSlots() == 4, "cpu: aggregate and three cores, got " + cpu.getSlots());
+		near(cpu.getTotal(0), 60, "cpu: total");
+		near(cpu.getUser(0), 40, "cpu: user including nice");
+		near(cpu.getSystem(0), 10, "cpu: system including irq");
+		near(cpu.getIowait(0), 10, "cpu: iowait");
+		near(cpu.getTotal(1), 60, "cpu0: total");
+		// an old kernel with only four columns, the missing ones count as 0
+		check(cpu.isValid(2), "cpu1: valid with missing columns");
+		near(cpu.getTotal(2), 100f * 250 / 450, "cpu1: total");
+		near(cpu.getIowait(2), 0, "cpu1: iowait");
+		check(!cpu.isValid(3), "cpu2: no values after coming online");
+
+		List<CpuCore> cores = DeviceInfoSensor.getCores(cpu);
+		check(logged(SensorValue.TYPE.CPU_CORES, cores), "cpu cores: logged as nested values");
+		check(cores.size() == 2, "cpu cores: cpu0 and cpu1, got " + cores.size());
+		if (cores.size() == 2) {
+			check(Integer.valueOf(1).equals(inner(cores.get(1), SensorValue.TYPE.ID)), "cpu cores: id of cpu1");
+			near(inner(cores.get(1), SensorValue.TYPE.CPU), 100f * 250 / 450, "cpu cores: total of cpu1");
+			near(inner(cores.get(1), SensorValue.TYPE.CPU_USER), 100f * 200 / 450, "cpu cores: user of cpu1");
+			near(inner(cores.get(1), SensorValue.TYPE.CPU_SYSTEM), 100f * 50 / 450, "cpu cores: system of cpu1");
+			near(inner(cores.get(1), SensorValue.TYPE.CPU_IOWAIT), 0, "cpu cores: iowait of cpu1");
+		}
+		cpu.close();
+	}
+
+	private static void checkNetDev(File fixtures, File work) throws IOException {
+		File dev = new File(work, "net_dev");
+		copy(new File(fixtures, "net_dev.1"), dev);
+		NetDevSampler net = new NetDevSampler(dev.getPath());
+		check(!net.sample(SECOND), "net: no rates from the first sample");
+		copy(new File(fixtures, "net_dev.2"), dev);
+		check(net.sample(2 * SECOND), "net: rates from the second sample");
+		List<NetDevSampler.Interface> interfaces = net.getInterfaces();
+		check(interfaces.size() == 4, "net: four interfaces, got " + interfaces.size());
+		NetDevSampler.Interface eth0 = find(interfaces, "eth0");
+		// no blank between "eth0:" and the first counter
+		check(eth0 != null && eth0.valid, "net: eth0 found");
+		if (eth0 != null) {
+			check(eth0.rxBytes == 13345678, "net: eth0 rx bytes, got " + eth0.rxBytes);
+			near(eth0.rxRate, 1000000, "net: eth0 rx rate");
+			near(eth0.txRate, 500000, "net: eth0 tx rate");
+			near(eth0.rxPacketRate, 1000, "net: eth0 rx packet rate");
+		}
+		NetDevSampler.Interface rmnet = find(interfaces, "rmnet_data0");
+		check(rmnet != null && !rmnet.valid, "net: new interface without rates");
+		near(net.getRxTotal(), 1000000, "net: rx total without loopback");
+		near(net.getTxTotal(), 500100, "net: tx total without loopback");
+
+		List<InterfaceTraffic> traffic = NetworkTrafficSensor.getTraffic(net);
+		check(logged(SensorValue.TYPE.NETWORK_INTERFACES, traffic), "net: logged as nested values");
+		check(traffic.size() == 3, "net: lo, eth0 and wlan0 logged, got " + traffic.size());
+		for (InterfaceTraffic t : traffic) {
+			if (!"eth0".equals(inner(t, SensorValue.TYPE.INTERFACE)))
+				continue;
+			near(inner(t, SensorValue.TYPE.RX_RATE), 1000000, "net: logged eth0 rx rate");
+			near(inner(t, SensorValue.TYPE.TX_RATE), 500000, "net: logged eth0 tx rate");
+		}
+		net.close();
+	}
+
+	private static void checkProcess(File fixtures, File work) throws IOException {
+		File stat = new File(work, "self_stat");
+		File status = new File(work, "self_status");
+		copy(new File(fixtures, "self_stat.1"), stat);
+		copy(new File(fixtures, "self_status"), status);
+		ProcessSampler process = new ProcessSampler(stat.getPath(), status.getPath());
+		check(!process.sample(SECOND), "process: no CPU value from the first sample");
+		check(process.getThreads() == 12, "process: threads with blanks and parentheses in the name, got " + process.getThreads());
+		copy(new File(fixtures, "self_stat.2"), stat);
+		check(process.sample(3 * SECOND), "process: CPU value from the second sample");
+		near(process.getCpu(), 50, "process: 100 ticks in 2 s");
+		check(process.getThreads() == 13, "process: threads, got " + process.getThreads());
+		check(process.getRss() == 23456, "process: VmRSS, got " + process.getRss());
+		process.close();
+	}
+
+	private static void checkDiskStats(File fixtures, File work) throws IOException {
+		File diskstats = new File(work, "diskstats");
+		copy(new File(fixtures, "diskstats.1"), diskstats);
+		DiskStatsSampler disks = new DiskStatsSampler(diskstats.getPath(), new File(fixtures, "sys_block").getPath());
+		check(!disks.sample(SECOND), "disk: no rates from the first sample");
+		copy(new File(fixtures, "diskstats.2"), diskstats);
+		check(disks.sample(3 * SECOND), "disk: rates from the second sample");
+		for (DiskStatsSampler.Disk disk : disks.getDisks()) {
+			boolean whole = disk.name.equals("mmcblk0") || disk.name.equals("sda");
+			check(disk.whole == whole, "disk: " + disk.name + (whole ? " is" : " is not") + " a whole disk");
+		}
+		DiskStatsSampler.Disk mmc = findDisk(disks.getDisks(), "mmcblk0");
+		check(mmc != null && mmc.valid, "disk: mmcblk0 found");
+		if (mmc != null) {
+			near(mmc.readRate, 2048 * 512 / 2, "disk: mmcblk0 read rate");
+			near(mmc.writeRate, 4096 * 512 / 2, "disk: mmcblk0 write rate");
+			near(mmc.readOps, 50, "disk: mmcblk0 reads per second");
+		}
+		// partitions and loop devices would count the same I/O again
+		near(disks.getReadTotal(), 2048 * 512 / 2, "disk: read total of whole disks only");
+		near(disks.getWriteTotal(), 4096 * 512 / 2, "disk: write total of whole disks only");
+
+		List<DiskIO> io = DiskIOSensor.getDiskIO(disks);
+		check(logged(SensorValue.TYPE.DISKS, io), "disk: logged as nested values");
+		check(io.size() == 2, "disk: mmcblk0 and sda logged, got " + io.size());
+		if (io.size() == 2) {
+			check("mmcblk0".equals(inner(io.get(0), SensorValue.TYPE.DISK)), "disk: mmcblk0 logged first");
+			near(inner(io.get(0), SensorValue.TYPE.DISK_READ_RATE), 2048 * 512 / 2, "disk: logged mmcblk0 read rate");
+			near(inner(io.get(0), SensorValue.TYPE.DISK_WRITE_RATE), 4096 * 512 / 2, "disk: logged mmcblk0 write rate");
+		}
+		disks.close();
+	}
+
+	private static void checkRealProc() throws IOException {
+		CpuSampler cpu = new CpuSampler();
+		NetDevSampler net = new NetDevSampler();
+		ProcessSampler process = new ProcessSampler();
+		DiskStatsSampler disks = new DiskStatsSampler();
+		cpu.sample();
+		net.sample();
+		process.sample();
+		disks.sample();
+		long end = System.nanoTime() + SECOND / 5;
+		while (System.nanoTime() < end)
+			; // some CPU time for the process sampler
+		check(cpu.sample(), "live cpu: values from the second sample");
+		check(cpu.getTotal(0) >= 0 && cpu.getTotal(0) <= 100, "live cpu: total in range, got " + cpu.getTotal(0));
+		check(net.sample(), "live net: rates from the second sample");
+		check(find(net.getInterfaces(), "lo") != null, "live net: loopback found");
+		check(process.sample(), "live process: CPU value from the second sample");
+		check(process.getCpu() > 0, "live process: busy loop shows up, got " + process.getCpu());
+		check(process.getThreads() >= 1 && process.getRss() > 0, "live process: threads and VmRSS");
+		disks.sample();
+		check(disks.getReadTotal() >= 0 && disks.getWriteTotal() >= 0, "live disk: rates not negative");
+		check(logged(SensorValue.TYPE.CPU_CORES, DeviceInfoSensor.getCores(cpu)), "live cpu: cores logged as nested values");
+		check(logged(SensorValue.TYPE.NETWORK_INTERFACES, NetworkTrafficSensor.getTraffic(net)), "live net: interfaces logged as nested values");
+		check(logged(SensorValue.TYPE.DISKS, DiskIOSensor.getDiskIO(disks)), "live disk: disks logged as nested values");
+		cpu.close();
+		net.close();
+		process.close();
+		disks.close();
+	}
+
+	private static NetDevSampler.Interface find(List<NetDevSampler.Interface> interfaces, String name) {
+		for (NetDevSampler.Interface i : interfaces) {
+			if (i.name.equals(name))
+				return i;
+		}
+		return null;
+	}
+
+	private static DiskStatsSampler.Disk findDisk(List<DiskStatsSampler.Disk> disks, String name) {
+		for (DiskStatsSampler.Disk d : disks) {
+			if (d.name.equals(name))
+				return d;
+		}
+		return null;
+	}
+
+	/**
+	 * @return whether a sensor value holding the list is logged as nested
+	 *         values
+	 */
+	private static boolean logged(SensorValue.TYPE type, List<? extends NestedSensorValue> list) {
+		SensorValue value = new SensorValue(SensorValue.UNIT.LIST, type);
+		value.setValue(list);
+		return value.isNested();
+	}
+
+	/**
+	 * @return the inner value of the given type, as the loggers see it
+	 */
+	private static Object inner(NestedSensorValue nested, SensorValue.TYPE type) {
+		for (SensorValue value : nested.getInnerSensorValues()) {
+			if (value.getType() == type)
+				return value.getValue();
+		}
+		return null;
+	}
+
+	/**
+	 * Overwrites the target in place, so that open parsers read the new
+	 * content.
+	 */
+	private static void copy(File from, File to) throws IOException {
+		InputStream in = new FileInputStream(from);
+		OutputStream out = new FileOutputStream(to);
+		try {
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) > 0)
+				out.write(buffer, 0, n);
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	private static void near(Object actual, float expected, String what) {
+		if (actual instanceof Number)
+			near(((Number) actual).floatValue(), expected, what);
+		else
+			check(false, what + ": expected " + expected + ", got " + actual);
+	}
+
+	private static void near(float actual, float expected, String what) {
+		check(Math.abs(actual - expected) <= Math.max(0.01f, Math.abs(expected) * 1e-4f), what + ": expected " + expected + ", got " + actual);
+	}
+
+	private static void check(boolean ok, String what) {
+		if (!ok) {
+			failures++;
+			System.out.println("FAILED " + what);
+		}
+	}
+}